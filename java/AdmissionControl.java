@@ -0,0 +1,316 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which statements may run, for how long, and stops them on request.
+ *
+ * Operations are sorted into lanes, e.g. the heavy reports and the light,
+ * latency critical bookings and availability checks.  Each lane lets a
+ * bounded number of statements run at once; a statement finding its lane
+ * full waits in a bounded queue for up to the lane's wait time, and is
+ * rejected when the queue is full or the wait is over.  Keeping the heavy
+ * lane narrower than the connection pool leaves connections for the light
+ * one however many reports are started.  Operations of no lane are only
+ * limited by the pool.
+ *
+ * Every statement runs under a server-side statement_timeout: the one set
+ * for its operation, else the one of its lane, else the default.  It is set
+ * when the connection is borrowed, and other borrowers of the pool get none,
+ * so it does not outlive the statement on the pooled connection.  The
+ * bundled driver neither enforces setQueryTimeout nor implements
+ * Statement.cancel, so both the timeout and cancel go through the server.
+ *
+ * Running statements are listed with their IDs, and cancel interrupts one
+ * from another connection with pg_cancel_backend.  A statement that the
+ * server stopped is counted as cancelled when cancel was called on its
+ * ticket, and as timed out otherwise.
+ */
+public class AdmissionControl {
+
+   // a statement rejected for lack of resources
+   static final String REJECTED_STATE = "53000";
+
+   private static final String CANCEL_SQL = "SELECT pg_cancel_backend(?)";
+
+   /** A group of operations sharing a limit on concurrent statements. */
+   public static class Lane {
+      private final String _name;
+      private final int _maxRunning;
+      private final int _maxQueued;
+      private final long _waitNanos;
+      private final int _timeoutMs;
+      private final Semaphore _permits;
+      private final AtomicInteger _queued = new AtomicInteger ();
+      private final AtomicLong _admitted = new AtomicLong ();
+      private final AtomicLong _waited = new AtomicLong ();
+      private final AtomicLong _rejected = new AtomicLong ();
+
+      /**
+       * @param name the name shown in the statistics
+       * @param maxRunning statements of the lane running at once
+       * @param maxQueued statements waiting for the lane at once
+       * @param waitMs how long a statement waits before it is rejected
+       * @param timeoutMs statement timeout of the lane's operations, 0 for none
+       */
+      public Lane (String name, int maxRunning, int maxQueued, int waitMs, int timeoutMs) {
+         if (maxRunning < 1 || maxQueued < 0 || waitMs < 0 || timeoutMs < 0)
+            throw new IllegalArgumentException("invalid settings of lane " + name);
+         this._name = name;
+         this._maxRunning = maxRunning;
+         this._maxQueued = maxQueued;
+         this._waitNanos = TimeUnit.MILLISECONDS.toNanos (waitMs);
+         this._timeoutMs = timeoutMs;
+         this._permits = new Semaphore (maxRunning, true);
+      }//end Lane
+
+      public String name () { return this._name; }
+      public int running () { return this._maxRunning - this._permits.availablePermits (); }
+      public int queued () { return this._queued.get (); }
+      public long rejected () { return this._rejected.get (); }
+
+      private void acquire (String operation) throws SQLException {
+         if (this._permits.tryAcquire ()) {
+            this._admitted.incrementAndGet ();
+            return;
+         }//end if
+         if (this._queued.incrementAndGet () > this._maxQueued) {
+            this._queued.decrementAndGet ();
+            this._rejected.incrementAndGet ();
+            throw new SQLException("Rejected " + operation + ": " + this._maxRunning + " " + this._name
+               + " statements running and " + this._maxQueued + " waiting", REJECTED_STATE);
+         }//end if
+         this._waited.incrementAndGet ();
+         try{
+            if (!this._permits.tryAcquire (this._waitNanos, TimeUnit.NANOSECONDS)) {
+               this._rejected.incrementAndGet ();
+               throw new SQLException("Rejected " + operation + " after waiting "
+                  + TimeUnit.NANOSECONDS.toMillis (this._waitNanos) + " ms for one of "
+                  + this._maxRunning + " " + this._name + " statements to finish", REJECTED_STATE);
+            }//end if
+         }catch (InterruptedException e){
+            Thread.currentThread ().interrupt ();
+            throw new SQLException("Interrupted while waiting to run " + operation);
+         }finally{
+            this._queued.decrementAndGet ();
+         }//end try
+         this._admitted.incrementAndGet ();
+      }//end acquire
+
+      @Override
+      public String toString () {
+         return String.format ("%s running=%d/%d queued=%d admitted=%d waited=%d rejected=%d timeoutMs=%d",
+            this._name, running (), this._maxRunning, queued (), this._admitted.get (), this._waited.get (),
+            rejected (), this._timeoutMs);
+      }//end toString
+   }//end Lane
+
+   /** An admitted statement, from admission until it finished. */
+   public class Ticket {
+      private final int _id;
+      private final String _operation;
+      private final String _sql;
+      private final Lane _lane;
+      private final long _start = System.nanoTime ();
+      private ConnectionPool.PooledConnection _connection = null;
+      private boolean _finished = false;
+      private boolean _cancelled = false;
+
+      Ticket (int id, String operation, String sql, Lane lane) {
+         this._id = id;
+         this._operation = operation;
+         this._sql = sql;
+         this._lane = lane;
+      }//end Ticket
+
+      public int id () { return this._id; }
+      public String operation () { return this._operation; }
+      public String sql () { return this._sql; }
+      public long elapsedMs () { return TimeUnit.NANOSECONDS.toMillis (System.nanoTime () - this._start); }
+
+      @Override
+      public String toString () {
+         String sql = this._sql.length () > 60 ? this._sql.substring (0, 57) + "..." : this._sql;
+         return String.format ("%d\t%s\t%d ms\t%s", this._id, this._operation, elapsedMs (), sql);
+      }//end toString
+   }//end Ticket
+
+   private final ConnectionPool _pool;
+   private final Map<String, Lane> _lanes = new HashMap<String, Lane>();
+   private final List<Lane> _laneList = new ArrayList<Lane>();
+   private final Map<String, Integer> _timeouts = new HashMap<String, Integer>();
+   private final int _defaultTimeoutMs;
+   private final Map<Integer, Ticket> _running = new ConcurrentHashMap<Integer, Ticket>();
+   private final AtomicInteger _nextId = new AtomicInteger (1);
+   private final AtomicLong _timedOut = new AtomicLong ();
+   private final AtomicLong _cancelled = new AtomicLong ();
+
+   /**
+    * @param pool the pool to borrow a connection from when cancelling
+    * @param defaultTimeoutMs statement timeout of the operations of no lane, 0 for none
+    */
+   public AdmissionControl (ConnectionPool pool, int defaultTimeoutMs) {
+      this._pool = pool;
+      this._defaultTimeoutMs = defaultTimeoutMs;
+   }//end AdmissionControl
+
+   /**
+    * Adds a lane for the given operations (outermost operation names, as in
+    * the statistics).
+    */
+   public void addLane (Lane lane, String... operations) {
+      this._laneList.add (lane);
+      for (String operation : operations)
+         this._lanes.put (operation, lane);
+   }//end addLane
+
+   /** Sets the statement timeout of one operation, over its lane's. */
+   public void setTimeout (String operation, int timeoutMs) {
+      this._timeouts.put (operation, timeoutMs);
+   }//end setTimeout
+
+   /** The statement timeout of an operation, in milliseconds; 0 for none. */
+   public int timeoutMs (String operation) {
+      Integer timeout = this._timeouts.get (operation);
+      if (timeout != null)
+         return timeout;
+      Lane lane = this._lanes.get (operation);
+      return lane == null ? this._defaultTimeoutMs : lane._timeoutMs;
+   }//end timeoutMs
+
+   /**
+    * Waits for the lane of the operation to have room for a statement.
+    *
+    * @return the ticket to start and finish the statement with
+    * @throws java.sql.SQLException when the statement was rejected
+    */
+   public Ticket admit (String operation, String sql) throws SQLException {
+      Lane lane = this._lanes.get (operation);
+      if (lane != null)
+         lane.acquire (operation);
+      return new Ticket(this._nextId.getAndIncrement (), operation, sql, lane);
+   }//end admit
+
+   /**
+    * Lists the statement as running on the given connection, which was
+    * borrowed with the operation's statement timeout (see timeoutMs).
+    */
+   public void start (Ticket ticket, ConnectionPool.PooledConnection pc) throws SQLException {
+      pc.backendPid ();
+      synchronized (ticket) {
+         ticket._connection = pc;
+      }//end synchronized
+      this._running.put (ticket._id, ticket);
+   }//end start
+
+   /**
+    * Ends a statement, before its connection is released: gives back its
+    * lane's permit and counts it if it timed out or was cancelled.
+    *
+    * @param failure what the statement failed with, null if it succeeded
+    */
+   public void finish (Ticket ticket, SQLException failure) {
+      // waits for a cancel in flight, which must not reach the connection's
+      // next statement.
+      boolean cancelled;
+      synchronized (ticket) {
+         if (ticket._finished)
+            return;
+         ticket._finished = true;
+         cancelled = ticket._cancelled;
+      }//end synchronized
+      this._running.remove (ticket._id);
+      if (ticket._lane != null)
+         ticket._lane._permits.release ();
+      if (failure != null && isCancel (failure)) {
+         if (cancelled)
+            this._cancelled.incrementAndGet ();
+         else
+            this._timedOut.incrementAndGet ();
+      }//end if
+   }//end finish
+
+   /** Whether a statement failed because it was timed out or cancelled. */
+   static boolean isCancel (SQLException e) {
+      String message = e.getMessage ();
+      return "57014".equals (e.getSQLState ())
+         || (message != null && message.contains ("canceling") && message.contains ("statement"));
+   }//end isCancel
+
+   /** The statements running now, longest running first. */
+   public List<Ticket> running () {
+      List<Ticket> running = new ArrayList<Ticket>(this._running.values ());
+      Collections.sort (running, new Comparator<Ticket>() {
+         public int compare (Ticket a, Ticket b) {
+            return a._id - b._id;
+         }
+      });
+      return running;
+   }//end running
+
+   /**
+    * Cancels a running statement; it fails with a cancel error in the
+    * thread that ran it.
+    *
+    * @return false when there is no such statement (anymore)
+    * @throws java.sql.SQLException when the cancel request failed
+    */
+   public boolean cancel (int id) throws SQLException {
+      Ticket ticket = this._running.get (id);
+      if (ticket == null)
+         return false;
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      SQLException failure = null;
+      try{
+         synchronized (ticket) {
+            if (ticket._finished || ticket._connection == null)
+               return false;
+            ticket._cancelled = true;
+            PreparedStatement stmt = pc.statements ().prepare (CANCEL_SQL);
+            stmt.setInt (1, ticket._connection.backendPid ());
+            stmt.executeQuery ().close ();
+            return true;
+         }//end synchronized
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (failure == null)
+            this._pool.release (pc);
+         else
+            this._pool.release (pc, failure);
+      }//end try
+   }//end cancel
+
+   public long timedOut () { return this._timedOut.get (); }
+   public long cancelled () { return this._cancelled.get (); }
+
+   /** Rejections summed over the lanes. */
+   public long rejected () {
+      long rejected = 0;
+      for (Lane lane : this._laneList)
+         rejected += lane.rejected ();
+      return rejected;
+   }//end rejected
+
+   @Override
+   public String toString () {
+      StringBuilder out = new StringBuilder();
+      out.append ("running=").append (this._running.size ()).append (" timedOut=").append (timedOut ())
+         .append (" cancelled=").append (cancelled ()).append (" rejected=").append (rejected ());
+      for (Lane lane : this._laneList)
+         out.append ("\n   ").append (lane);
+      return out.toString ();
+   }//end toString
+
+}//end AdmissionControl
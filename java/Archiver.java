@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves Booking, Repair and Request rows older than a cutoff date into the
+ * archive tables BookingArchive, RepairArchive and RequestArchive (see
+ * sql/create.sql), so the tables the daily operations scan and index only
+ * hold the recent rows.
+ *
+ * Rows move in batches of batchSize, oldest IDs first, each batch a single
+ * DELETE ... RETURNING feeding an INSERT that commits on its own.  A batch
+ * only locks the rows it moves, and the job pauses pauseMs between batches
+ * so live traffic gets the connections and the disk in between.  Nothing is
+ * remembered between batches: a run that was stopped or failed is resumed by
+ * running it again with the same cutoff.  moved tells how many rows the
+ * last run moved so far, also after it failed.
+ *
+ * Requests move first.  A repair stays while a request that was not archived
+ * refers to it, since deleting it would reset the request's repairID.
+ *
+ * The rollup tables count the recent rows only, like the tables they
+ * summarize: the statement that moves a batch also takes its rows off
+ * RoomBookings, HotelBookedRooms, CompanyRepairs and RoomRepairsPerYear, in
+ * the same transaction.  Queries see the archives only through the
+ * *_HISTORY tables below.
+ */
+public class Archiver {
+
+   // in the order they are moved: referencing rows before referenced ones
+   static final String[] TABLES = { "Request", "Repair", "Booking" };
+
+   private static final String[] MOVE_SQL = {
+      "WITH moved AS (DELETE FROM Request WHERE reqID IN (SELECT reqID FROM Request WHERE requestDate < ? "
+      + "ORDER BY reqID LIMIT ?) RETURNING *) INSERT INTO RequestArchive SELECT * FROM moved",
+      "WITH moved AS (DELETE FROM Repair WHERE rID IN (SELECT R.rID FROM Repair R WHERE R.repairDate < ? "
+      + "AND NOT EXISTS (SELECT 1 FROM Request Q WHERE Q.repairID = R.rID) ORDER BY R.rID LIMIT ?) RETURNING *), "
+      + "companies AS (UPDATE CompanyRepairs C SET repairs = C.repairs - M.repairs "
+      + "FROM (SELECT MC.name, COUNT(*) AS repairs FROM moved, MaintenanceCompany MC "
+      + "WHERE MC.cmpID = moved.mCompany GROUP BY MC.name) M WHERE C.name = M.name), "
+      + "years AS (UPDATE RoomRepairsPerYear Y SET repairs = Y.repairs - M.repairs "
+      + "FROM (SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate) AS repairYear, COUNT(*) AS repairs FROM moved "
+      + "GROUP BY hotelID, roomNo, EXTRACT(YEAR FROM repairDate)) M "
+      + "WHERE Y.hotelID = M.hotelID AND Y.roomNo = M.roomNo AND Y.repairYear = M.repairYear) "
+      + "INSERT INTO RepairArchive SELECT * FROM moved",
+      // a room whose last recent booking moves no longer counts as booked
+      "WITH moved AS (DELETE FROM Booking WHERE bID IN (SELECT bID FROM Booking WHERE bookingDate < ? "
+      + "ORDER BY bID LIMIT ?) RETURNING *), "
+      + "rooms AS (UPDATE RoomBookings R SET bookings = R.bookings - M.bookings "
+      + "FROM (SELECT hotelID, roomNo, COUNT(*) AS bookings FROM moved GROUP BY hotelID, roomNo) M "
+      + "WHERE R.hotelID = M.hotelID AND R.roomNo = M.roomNo RETURNING R.hotelID, R.bookings), "
+      + "hotels AS (UPDATE HotelBookedRooms H SET bookedRooms = H.bookedRooms - E.rooms "
+      + "FROM (SELECT hotelID, COUNT(*) AS rooms FROM rooms WHERE bookings = 0 GROUP BY hotelID) E "
+      + "WHERE H.hotelID = E.hotelID) "
+      + "INSERT INTO BookingArchive SELECT * FROM moved" };
+
+   // the archived tables read together with their archives, to be named in
+   // a FROM list with an alias in place of the table.  Conditions on the
+   // union are pushed down into both sides, so each still uses its indexes.
+   static final String BOOKING_HISTORY = "(SELECT * FROM Booking UNION ALL SELECT * FROM BookingArchive)";
+   static final String REPAIR_HISTORY = "(SELECT * FROM Repair UNION ALL SELECT * FROM RepairArchive)";
+   static final String REQUEST_HISTORY = "(SELECT * FROM Request UNION ALL SELECT * FROM RequestArchive)";
+
+   private final DBProject _esql;
+   private final int _batchSize;
+   private final int _pauseMs;
+   private volatile boolean _stopped = false;
+   // rows moved by the current or last run, in committed batches.
+   private final AtomicLong _moved = new AtomicLong ();
+
+   /**
+    * @param esql the session to move the rows through
+    * @param batchSize rows moved per transaction
+    * @param pauseMs pause between batches
+    */
+   public Archiver (DBProject esql, int batchSize, int pauseMs) {
+      if (batchSize < 1 || pauseMs < 0)
+         throw new IllegalArgumentException("invalid archive settings");
+      this._esql = esql;
+      this._batchSize = batchSize;
+      this._pauseMs = pauseMs;
+   }//end Archiver
+
+   /**
+    * Moves every row older than the cutoff, table by table, and writes the
+    * rows moved per table to the sink (table, moved, batches).
+    *
+    * @return the number of rows moved
+    * @throws java.sql.SQLException when a batch failed; the batches before it
+    *         stay moved and are counted by moved
+    */
+   public int archive (Date cutoff, ResultSink sink) throws SQLException {
+      this._stopped = false;
+      this._moved.set (0);
+      int total = 0;
+      try{
+         sink.begin (new String[] { "table", "moved", "batches" });
+         for (int t = 0; t < TABLES.length; ++t) {
+            long moved = 0;
+            int batches = 0;
+            while (!this._stopped) {
+               int rows;
+               try{
+                  rows = this._esql.executeUpdate (MOVE_SQL[t], cutoff, this._batchSize);
+               }catch (SQLException e){
+                  throw new SQLException("Archiving stopped after moving " + this._moved.get () + " rows: "
+                     + e.getMessage (), e.getSQLState (), e);
+               }//end try
+               this._moved.addAndGet (rows);
+               moved += rows;
+               ++batches;
+               if (rows < this._batchSize)
+                  break;
+               pause ();
+            }//end while
+            total += moved;
+            sink.value (TABLES[t]);
+            sink.value (moved);
+            sink.value (batches);
+            sink.endRow ();
+         }//end for
+         sink.end ();
+      }catch (IOException e){
+         throw DBProject.sinkFailure (e);
+      }//end try
+      return total;
+   }//end archive
+
+   /** Returns the rows moved by the current or last run so far. */
+   public long moved () {
+      return this._moved.get ();
+   }//end moved
+
+   /** Makes a running archive stop after its current batch. */
+   public void stop () {
+      this._stopped = true;
+   }//end stop
+
+   private void pause () throws SQLException {
+      if (this._pauseMs == 0)
+         return;
+      try{
+         Thread.sleep (this._pauseMs);
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+         throw new SQLException("Interrupted while archiving");
+      }//end try
+   }//end pause
+
+}//end Archiver
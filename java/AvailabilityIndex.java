@@ -0,0 +1,405 @@
+import java.io.IOException;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Which days every room is booked, to answer "which rooms of hotel X are
+ * free from D1 to D2" without going to the database.
+ *
+ * Each room has a bitmap with one bit per day (days since 1970-01-01),
+ * stored as 64-day words starting at the first word the room was booked in.
+ * A room is free for a range when the range's words, masked to the range,
+ * OR together to zero, so a week costs one or two word tests per room.
+ *
+ * Rooms and bookings added through DBProject.addRoom and bookRoom are
+ * applied in place; changes made by other programs are seen after reload,
+ * which DBProject runs in the background at an interval.  A day the index
+ * holds booked may have been freed since, so confirmBooked asks the
+ * database before a booking is turned down.
+ *
+ * The tables are read through DBProject.executeQuery, under the
+ * reloadAvailability operation, so a load is admitted, timed out and
+ * releases a broken connection like any other query.
+ */
+public class AvailabilityIndex {
+
+   private static final String LOAD_ROOMS_SQL =
+      "SELECT hotelID, roomNo FROM Room ORDER BY hotelID, roomNo";
+   private static final String LOAD_BOOKINGS_SQL =
+      "SELECT hotelID, roomNo, bookingDate FROM Booking";
+   private static final String IS_BOOKED_SQL =
+      "SELECT 1 FROM Booking WHERE hotelID = ? AND roomNo = ? AND bookingDate = ?";
+
+   // rows fetched per round trip while loading the bookings.
+   private static final int LOAD_BATCH = 10000;
+
+   /** The rooms of one hotel, sorted by number, with their bitmaps. */
+   private static class Hotel {
+      private int[] _rooms = new int[8];
+      private long[][] _words = new long[8][];
+      // word number (day >> 6) of _words[i][0].
+      private int[] _firstWord = new int[8];
+      private int _size = 0;
+
+      /** Returns the position of a room, adding it if it is new. */
+      int room (int roomNo) {
+         int i = Arrays.binarySearch (this._rooms, 0, this._size, roomNo);
+         if (i >= 0)
+            return i;
+         i = -i - 1;
+         if (this._size == this._rooms.length) {
+            int capacity = this._size * 2;
+            this._rooms = Arrays.copyOf (this._rooms, capacity);
+            this._words = Arrays.copyOf (this._words, capacity);
+            this._firstWord = Arrays.copyOf (this._firstWord, capacity);
+         }//end if
+         System.arraycopy (this._rooms, i, this._rooms, i + 1, this._size - i);
+         System.arraycopy (this._words, i, this._words, i + 1, this._size - i);
+         System.arraycopy (this._firstWord, i, this._firstWord, i + 1, this._size - i);
+         this._rooms[i] = roomNo;
+         this._words[i] = new long[0];
+         this._firstWord[i] = 0;
+         ++this._size;
+         return i;
+      }//end room
+
+      /** Marks the room booked on the day; false if it already was. */
+      boolean book (int roomNo, int day) {
+         int i = room (roomNo);
+         int word = day >> 6;
+         long[] words = this._words[i];
+         if (words.length == 0) {
+            words = new long[1];
+            this._firstWord[i] = word;
+         } else if (word < this._firstWord[i]) {
+            // grow to the front
+            int shift = this._firstWord[i] - word;
+            long[] grown = new long[words.length + shift];
+            System.arraycopy (words, 0, grown, shift, words.length);
+            words = grown;
+            this._firstWord[i] = word;
+         } else if (word - this._firstWord[i] >= words.length) {
+            words = Arrays.copyOf (words, Math.max (word - this._firstWord[i] + 1, words.length * 3 / 2));
+         }//end if
+         long bit = 1L << (day & 63);
+         boolean added = (words[word - this._firstWord[i]] & bit) == 0;
+         words[word - this._firstWord[i]] |= bit;
+         this._words[i] = words;
+         return added;
+      }//end book
+
+      /** Clears the day of the room; false if it was not booked. */
+      boolean unbook (int roomNo, int day) {
+         int i = Arrays.binarySearch (this._rooms, 0, this._size, roomNo);
+         if (i < 0)
+            return false;
+         int w = (day >> 6) - this._firstWord[i];
+         long[] words = this._words[i];
+         if (w < 0 || w >= words.length)
+            return false;
+         long bit = 1L << (day & 63);
+         boolean removed = (words[w] & bit) != 0;
+         words[w] &= ~bit;
+         return removed;
+      }//end unbook
+
+      /** True if the room at position i has no booked day in [from, to]. */
+      boolean isFree (int i, int from, int to) {
+         long[] words = this._words[i];
+         int first = this._firstWord[i];
+         int lo = Math.max (from >> 6, first);
+         int hi = Math.min (to >> 6, first + words.length - 1);
+         long booked = 0;
+         for (int w = lo; w <= hi; ++w) {
+            long mask = -1L;
+            if (w == from >> 6)
+               mask &= -1L << (from & 63);
+            if (w == to >> 6)
+               mask &= -1L >>> (63 - (to & 63));
+            booked |= words[w - first] & mask;
+         }//end for
+         return booked == 0;
+      }//end isFree
+   }//end Hotel
+
+   private final DBProject _esql;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock ();
+   private Map<Integer, Hotel> _hotels = new HashMap<Integer, Hotel>();
+   private long _bookedDays = 0;
+
+   // rooms ({hotelID, roomNo}) and bookings ({hotelID, roomNo, day}) added
+   // while a reload reads the tables, null when none runs; guarded by _lock.
+   private List<int[]> _sinceReload = null;
+
+   /**
+    * Creates an empty index; call reload to fill it.
+    *
+    * @param esql the session whose queries load the index
+    */
+   public AvailabilityIndex (DBProject esql) {
+      this._esql = esql;
+   }//end AvailabilityIndex
+
+   /**
+    * Replaces the index with the current content of Room and Booking.
+    * Rooms and bookings added while the tables are read may have committed
+    * after the read's snapshot was taken, so they are kept aside and marked
+    * again in the new index.
+    *
+    * @throws java.sql.SQLException when reading the tables failed
+    */
+   public synchronized void reload () throws SQLException {
+      this._lock.writeLock ().lock ();
+      try{
+         this._sinceReload = new ArrayList<int[]>();
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+      try{
+         load ();
+      }finally{
+         this._lock.writeLock ().lock ();
+         try{
+            this._sinceReload = null;
+         }finally{
+            this._lock.writeLock ().unlock ();
+         }//end try
+      }//end try
+   }//end reload
+
+   private void load () throws SQLException {
+      final Map<Integer, Hotel> hotels = new HashMap<Integer, Hotel>();
+      final long[] bookedDays = new long[1];
+      final Calendar calendar = Calendar.getInstance ();
+
+      Metrics.Operation op = this._esql.metrics ().begin ("reloadAvailability");
+      try{
+         this._esql.executeQuery (new ResultSink.Each() {
+            protected void row (String[] values) {
+               hotel (hotels, Integer.parseInt (values[0])).room (Integer.parseInt (values[1]));
+            }
+         }, LOAD_BATCH, LOAD_ROOMS_SQL);
+         op.done (this._esql.executeQuery (new ResultSink.Each() {
+            protected void row (String[] values) {
+               if (hotel (hotels, Integer.parseInt (values[0])).book (Integer.parseInt (values[1]),
+                     BookingSnapshot.epochDay (Date.valueOf (values[2]), calendar)))
+                  ++bookedDays[0];
+            }
+         }, LOAD_BATCH, LOAD_BOOKINGS_SQL));
+      }finally{
+         op.end ();
+      }//end try
+
+      this._lock.writeLock ().lock ();
+      try{
+         for (int[] added : this._sinceReload) {
+            Hotel hotel = hotel (hotels, added[0]);
+            if (added.length == 2)
+               hotel.room (added[1]);
+            else if (hotel.book (added[1], added[2]))
+               ++bookedDays[0];
+         }//end for
+         this._hotels = hotels;
+         this._bookedDays = bookedDays[0];
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end load
+
+   private static Hotel hotel (Map<Integer, Hotel> hotels, int hotelID) {
+      Hotel hotel = hotels.get (hotelID);
+      if (hotel == null) {
+         hotel = new Hotel();
+         hotels.put (hotelID, hotel);
+      }//end if
+      return hotel;
+   }//end hotel
+
+   /**
+    * Adds a room that was just written to the database.
+    */
+   public void addRoom (int hotelID, int roomNo) {
+      this._lock.writeLock ().lock ();
+      try{
+         if (this._sinceReload != null)
+            this._sinceReload.add (new int[] { hotelID, roomNo });
+         hotel (this._hotels, hotelID).room (roomNo);
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end addRoom
+
+   /**
+    * Marks a room booked on a day, after the booking was written to the
+    * database.
+    */
+   public void book (int hotelID, int roomNo, Date bookingDate) {
+      int day = BookingSnapshot.epochDay (bookingDate, Calendar.getInstance ());
+      this._lock.writeLock ().lock ();
+      try{
+         if (this._sinceReload != null)
+            this._sinceReload.add (new int[] { hotelID, roomNo, day });
+         if (hotel (this._hotels, hotelID).book (roomNo, day))
+            ++this._bookedDays;
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end book
+
+   /**
+    * True if the room is known to be booked on the day.
+    */
+   public boolean isBooked (int hotelID, int roomNo, Date day) {
+      int d = BookingSnapshot.epochDay (day, Calendar.getInstance ());
+      this._lock.readLock ().lock ();
+      try{
+         Hotel hotel = this._hotels.get (hotelID);
+         if (hotel == null)
+            return false;
+         int i = Arrays.binarySearch (hotel._rooms, 0, hotel._size, roomNo);
+         return i >= 0 && !hotel.isFree (i, d, d);
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end isBooked
+
+   /**
+    * Asks the database whether the room is booked on the day, for a day the
+    * index holds booked; when the booking is gone (deleted or archived by
+    * another program) the day is cleared in the index.
+    *
+    * @throws java.sql.SQLException when the query failed
+    */
+   public boolean confirmBooked (int hotelID, int roomNo, Date day) throws SQLException {
+      if (this._esql.executeQuery (new ResultSink.Count(null), IS_BOOKED_SQL, hotelID, roomNo, day) > 0)
+         return true;
+      int d = BookingSnapshot.epochDay (day, Calendar.getInstance ());
+      this._lock.writeLock ().lock ();
+      try{
+         Hotel hotel = this._hotels.get (hotelID);
+         if (hotel != null && hotel.unbook (roomNo, d))
+            --this._bookedDays;
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+      return false;
+   }//end confirmBooked
+
+   /**
+    * Returns the rooms of a hotel that are not booked on any day from start
+    * to end (both included), in ascending order.
+    */
+   public int[] freeRooms (int hotelID, Date start, Date end) {
+      Calendar calendar = Calendar.getInstance ();
+      int from = BookingSnapshot.epochDay (start, calendar);
+      int to = BookingSnapshot.epochDay (end, calendar);
+      this._lock.readLock ().lock ();
+      try{
+         Hotel hotel = this._hotels.get (hotelID);
+         if (hotel == null || from > to)
+            return new int[0];
+         int[] free = new int[hotel._size];
+         int count = 0;
+         for (int i = 0; i < hotel._size; ++i) {
+            if (hotel.isFree (i, from, to))
+               free[count++] = hotel._rooms[i];
+         }//end for
+         return Arrays.copyOf (free, count);
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end freeRooms
+
+   /**
+    * Writes the free rooms of a hotel from start to end to a sink, in a
+    * roomno column.
+    *
+    * @return the number of free rooms
+    */
+   public int freeRooms (int hotelID, Date start, Date end, ResultSink sink) throws IOException {
+      int[] free = freeRooms (hotelID, start, end);
+      sink.begin (new String[] { "roomno" });
+      for (int roomNo : free) {
+         sink.value (roomNo);
+         sink.endRow ();
+      }//end for
+      sink.end ();
+      return free.length;
+   }//end freeRooms
+
+   @Override
+   public String toString () {
+      this._lock.readLock ().lock ();
+      try{
+         int rooms = 0;
+         long words = 0;
+         for (Hotel hotel : this._hotels.values ()) {
+            rooms += hotel._size;
+            for (int i = 0; i < hotel._size; ++i)
+               words += hotel._words[i].length;
+         }//end for
+         return String.format ("hotels=%d rooms=%d bookedDays=%d bitmapBytes=%d",
+            this._hotels.size (), rooms, this._bookedDays, words * 8);
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end toString
+
+   /**
+    * Self-check of the bitmaps; needs no database.
+    *
+    *    java AvailabilityIndex
+    */
+   public static void main (String[] args) {
+      AvailabilityIndex empty = new AvailabilityIndex (null);
+      check (empty.freeRooms (1, Date.valueOf ("2024-01-01"), Date.valueOf ("2024-01-07")).length == 0, "empty index");
+      check (!empty.isBooked (1, 101, Date.valueOf ("2024-01-01")), "nothing booked");
+
+      // around the word boundaries: day 63 is the last bit of word 0, day
+      // 64 the first of word 1, and word 2 is booked in full
+      Hotel hotel = new Hotel();
+      int room = hotel.room (7);
+      check (hotel.isFree (room, 0, 1000), "room without bookings");
+      check (hotel.book (7, 63) && !hotel.book (7, 63), "book a day once");
+      check (hotel.isFree (room, 0, 62) && !hotel.isFree (room, 63, 63) && hotel.isFree (room, 64, 127), "day 63");
+      check (!hotel.isFree (room, 60, 70) && !hotel.isFree (room, 0, 1000), "range over day 63");
+      hotel.book (7, 64);
+      check (!hotel.isFree (room, 64, 64) && hotel.isFree (room, 65, 127), "day 64");
+      for (int day = 128; day < 192; ++day)
+         hotel.book (7, day);
+      check (!hotel.isFree (room, 128, 191) && !hotel.isFree (room, 191, 191), "full word");
+      check (hotel.isFree (room, 65, 127) && hotel.isFree (room, 192, 255), "around the full word");
+      // grows to the front, also before 1970
+      hotel.book (7, -1);
+      check (!hotel.isFree (room, -1, -1) && hotel.isFree (room, -64, -2) && hotel.isFree (room, 0, 62), "day -1");
+      check (!hotel.isFree (room, 128, 128) && !hotel.isFree (room, 63, 63), "bookings kept when grown");
+      check (hotel.unbook (7, 63) && !hotel.unbook (7, 63) && hotel.isFree (room, 63, 63), "unbook");
+      check (!hotel.unbook (7, 5000) && !hotel.unbook (8, 64), "unbook outside the bitmap");
+
+      AvailabilityIndex index = new AvailabilityIndex (null);
+      index.addRoom (1, 102);
+      index.addRoom (1, 101);
+      index.book (1, 101, Date.valueOf ("2024-01-01"));
+      check (Arrays.equals (index.freeRooms (1, Date.valueOf ("2023-12-25"), Date.valueOf ("2023-12-31")), new int[] { 101, 102 }),
+         "free before the booking");
+      check (Arrays.equals (index.freeRooms (1, Date.valueOf ("2023-12-31"), Date.valueOf ("2024-01-01")), new int[] { 102 }),
+         "booked room taken out");
+      check (index.freeRooms (1, Date.valueOf ("2024-01-02"), Date.valueOf ("2024-01-01")).length == 0, "empty range");
+      check (index.isBooked (1, 101, Date.valueOf ("2024-01-01")) && !index.isBooked (1, 102, Date.valueOf ("2024-01-01")),
+         "isBooked");
+      System.out.println ("AvailabilityIndex: ok");
+   }//end main
+
+   private static void check (boolean ok, String what) {
+      if (!ok)
+         throw new IllegalStateException("self-check failed: " + what);
+   }//end check
+
+}//end AvailabilityIndex
@@ -0,0 +1,163 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Makes sure a room is booked at most once per day when many threads book
+ * at the same time, without serializing bookings of different rooms.
+ *
+ * Within this process, bookings of the same room take turns on one of a
+ * fixed number of striped locks, picked by hashing (hotelID, roomNo).  Two
+ * rooms share a stripe only by chance, so with enough stripes the bookings
+ * of distinct rooms run in parallel.  Holding the stripe, a booking first
+ * checks the availability index, if there is one, and fails fast when the
+ * day is taken and the database still holds the booking.
+ *
+ * Other processes are not covered by the stripes, so the unique constraint
+ * on Booking (hotelID, roomNo, bookingDate) is the backstop: a duplicate
+ * insert fails and is reported as the room being taken.  Failures that a
+ * second try may cure (deadlocks, serialization failures, lock timeouts)
+ * are retried up to maxAttempts times, waiting between tries for a random
+ * time of up to baseBackoffMs doubled per try and capped at maxBackoffMs.
+ * The stripe is released while waiting.
+ */
+public class BookingGuard {
+
+   /** One attempt at writing a booking. */
+   public interface Attempt {
+      int run () throws SQLException;
+   }//end Attempt
+
+   // a booking rejected because its room is already booked that day
+   static final String TAKEN_STATE = "23505";
+
+   private final ReentrantLock[] _stripes;
+   private final AvailabilityIndex _availability;
+   private final int _maxAttempts;
+   private final long _baseBackoffMs;
+   private final long _maxBackoffMs;
+
+   private final AtomicLong _booked = new AtomicLong ();
+   private final AtomicLong _taken = new AtomicLong ();
+   private final AtomicLong _retries = new AtomicLong ();
+   private final AtomicLong _contended = new AtomicLong ();
+
+   /**
+    * @param stripes the number of locks, rounded up to a power of two
+    * @param availability the index to check first, or null
+    * @param maxAttempts tries of a booking before its failure is reported
+    * @param baseBackoffMs the longest wait before the first retry
+    * @param maxBackoffMs the longest wait before any retry
+    */
+   public BookingGuard (int stripes, AvailabilityIndex availability, int maxAttempts,
+         int baseBackoffMs, int maxBackoffMs) {
+      if (stripes < 1 || maxAttempts < 1 || baseBackoffMs < 0 || maxBackoffMs < baseBackoffMs)
+         throw new IllegalArgumentException("invalid booking guard settings");
+      int size = Integer.highestOneBit (stripes);
+      if (size < stripes)
+         size <<= 1;
+      this._stripes = new ReentrantLock[size];
+      for (int i = 0; i < size; ++i)
+         this._stripes[i] = new ReentrantLock ();
+      this._availability = availability;
+      this._maxAttempts = maxAttempts;
+      this._baseBackoffMs = baseBackoffMs;
+      this._maxBackoffMs = maxBackoffMs;
+   }//end BookingGuard
+
+   /** The stripe of a room. */
+   int stripe (int hotelID, int roomNo) {
+      int h = hotelID * 0x9E3779B9 + roomNo;
+      h ^= h >>> 16;
+      h *= 0x85EBCA6B;
+      h ^= h >>> 13;
+      return h & (this._stripes.length - 1);
+   }//end stripe
+
+   /**
+    * Writes a booking of a room on a day with the given attempt, holding
+    * the room's stripe.
+    *
+    * @return what the successful attempt returned
+    * @throws java.sql.SQLException with SQLState 23505 when the room is
+    *         already booked that day, or the attempt's failure otherwise
+    */
+   public int book (int hotelID, int roomNo, Date day, Attempt attempt) throws SQLException {
+      ReentrantLock stripe = this._stripes[stripe (hotelID, roomNo)];
+      for (int tries = 1; ; ++tries) {
+         if (!stripe.tryLock ()) {
+            this._contended.incrementAndGet ();
+            stripe.lock ();
+         }//end if
+         boolean free = false;
+         try{
+            free = this._availability == null || !this._availability.isBooked (hotelID, roomNo, day)
+               || !this._availability.confirmBooked (hotelID, roomNo, day);
+            if (free) {
+               int rows = attempt.run ();
+               this._booked.incrementAndGet ();
+               return rows;
+            }//end if
+         }catch (SQLException e){
+            if (isDuplicate (e))
+               throw taken (hotelID, roomNo, day);
+            if (!isTransient (e) || tries >= this._maxAttempts)
+               throw e;
+         }finally{
+            stripe.unlock ();
+         }//end try
+         if (!free)
+            throw taken (hotelID, roomNo, day);
+         this._retries.incrementAndGet ();
+         backoff (tries);
+      }//end for
+   }//end book
+
+   private SQLException taken (int hotelID, int roomNo, Date day) {
+      this._taken.incrementAndGet ();
+      return new SQLException("Room " + roomNo + " of hotel " + hotelID + " is already booked on " + day, TAKEN_STATE);
+   }//end taken
+
+   private void backoff (int tries) throws SQLException {
+      long ceiling = Math.min (this._maxBackoffMs, this._baseBackoffMs << Math.min (tries - 1, 20));
+      if (ceiling <= 0)
+         return;
+      try{
+         Thread.sleep (ThreadLocalRandom.current ().nextLong (ceiling + 1));
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+         throw new SQLException("Interrupted while retrying a booking");
+      }//end try
+   }//end backoff
+
+   /** Whether a write failed on a unique constraint. */
+   static boolean isDuplicate (SQLException e) {
+      String message = e.getMessage ();
+      return "23505".equals (e.getSQLState ())
+         || (message != null && message.contains ("duplicate key"));
+   }//end isDuplicate
+
+   /** Whether a write failed in a way another try may not. */
+   static boolean isTransient (SQLException e) {
+      String state = e.getSQLState ();
+      String message = e.getMessage ();
+      if ("40001".equals (state) || "40P01".equals (state) || "55P03".equals (state))
+         return true;
+      return message != null && (message.contains ("deadlock detected")
+         || message.contains ("could not serialize") || message.contains ("could not obtain lock"));
+   }//end isTransient
+
+   public long booked () { return this._booked.get (); }
+   public long taken () { return this._taken.get (); }
+   public long retries () { return this._retries.get (); }
+   public long contended () { return this._contended.get (); }
+
+   @Override
+   public String toString () {
+      return String.format ("stripes=%d booked=%d taken=%d retries=%d contended=%d", this._stripes.length,
+         booked (), taken (), retries (), contended ());
+   }//end toString
+
+}//end BookingGuard
@@ -0,0 +1,618 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory, column-oriented copy of the Booking table that answers the
+ * analytical menu queries (10 to 13) without going to the database.
+ *
+ * Each column is a primitive array: hotelID, roomNo, customer, the booking
+ * date as a day number (days since 1970-01-01) and the price in cents.  Rows
+ * are sorted by date, so a date range is found with two binary searches; a
+ * second array lists the rows ordered by customer for the per-customer
+ * queries.  Top k queries keep a bounded heap of k rows.
+ *
+ * Bookings made through DBProject.bookRoom after loading go into a small
+ * unsorted delta that every query also scans; once it grows past its limit
+ * it is merged into the sorted arrays.  Bookings written by other programs
+ * are seen after reload, which DBProject runs in the background at an
+ * interval.  The table is read through DBProject.executeQuery, under the
+ * reloadBookingSnapshot operation, so a load is admitted, timed out and
+ * releases a broken connection like any other query.
+ *
+ * The join with Room in topKHighestRoomPriceForADateRange is dropped: the
+ * foreign key on Booking(hotelID, roomNo) guarantees the room exists.  The
+ * per-customer queries take customer IDs; DBProject resolves names to IDs
+ * with its CustomerNameResolver.
+ */
+public class BookingSnapshot {
+
+   private static final String LOAD_BOOKINGS_SQL =
+      "SELECT hotelID, roomNo, customer, bookingDate, price FROM Booking ORDER BY bookingDate";
+
+   // rows fetched per round trip while loading.
+   private static final int LOAD_BATCH = 10000;
+
+   private final DBProject _esql;
+   private final int _deltaLimit;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock ();
+
+   // sorted part, ordered by _day.
+   private int[] _hotel = new int[0];
+   private int[] _room = new int[0];
+   private int[] _customer = new int[0];
+   private int[] _day = new int[0];
+   private long[] _cents = new long[0];
+   private int _size = 0;
+
+   // rows of the sorted part ordered by customer.
+   private int[] _byCustomer = new int[0];
+
+   // bookings added since the last merge, in insertion order.
+   private int[] _dHotel, _dRoom, _dCustomer, _dDay;
+   private long[] _dCents;
+   private int _dSize = 0;
+
+   // bookings added while a reload reads the table, null when none runs;
+   // guarded by _lock.
+   private List<long[]> _sinceReload = null;
+
+   /**
+    * Creates an empty snapshot; call reload to fill it.
+    *
+    * @param esql the session whose queries load the snapshot
+    * @param deltaLimit the number of new bookings kept before a merge
+    */
+   public BookingSnapshot (DBProject esql, int deltaLimit) {
+      this._esql = esql;
+      this._deltaLimit = Math.max (1, deltaLimit);
+      this._dHotel = new int[this._deltaLimit];
+      this._dRoom = new int[this._deltaLimit];
+      this._dCustomer = new int[this._deltaLimit];
+      this._dDay = new int[this._deltaLimit];
+      this._dCents = new long[this._deltaLimit];
+   }//end BookingSnapshot
+
+   /**
+    * Replaces the snapshot with the current content of Booking and Customer.
+    * Bookings added while the table is read may have committed after the
+    * read's snapshot was taken, so they are kept aside and added again
+    * afterwards unless the read saw them (a room is booked once a day).
+    *
+    * @throws java.sql.SQLException when reading the tables failed
+    */
+   public synchronized void reload () throws SQLException {
+      this._lock.writeLock ().lock ();
+      try{
+         this._sinceReload = new ArrayList<long[]>();
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+      try{
+         load ();
+      }finally{
+         this._lock.writeLock ().lock ();
+         try{
+            this._sinceReload = null;
+         }finally{
+            this._lock.writeLock ().unlock ();
+         }//end try
+      }//end try
+   }//end reload
+
+   /** The columns of Booking as they are read, grown as needed. */
+   private static class Columns extends ResultSink.Each {
+      private final Calendar _calendar = Calendar.getInstance ();
+      int[] hotel = new int[1024], room = new int[1024], customer = new int[1024], day = new int[1024];
+      long[] cents = new long[1024];
+      int size = 0;
+
+      protected void row (String[] values) {
+         if (this.size == this.hotel.length) {
+            int capacity = this.size * 2;
+            this.hotel = Arrays.copyOf (this.hotel, capacity);
+            this.room = Arrays.copyOf (this.room, capacity);
+            this.customer = Arrays.copyOf (this.customer, capacity);
+            this.day = Arrays.copyOf (this.day, capacity);
+            this.cents = Arrays.copyOf (this.cents, capacity);
+         }//end if
+         this.hotel[this.size] = Integer.parseInt (values[0]);
+         this.room[this.size] = Integer.parseInt (values[1]);
+         this.customer[this.size] = Integer.parseInt (values[2]);
+         this.day[this.size] = epochDay (Date.valueOf (values[3]), this._calendar);
+         this.cents[this.size] = toCents (new BigDecimal(values[4]));
+         ++this.size;
+      }//end row
+   }//end Columns
+
+   private void load () throws SQLException {
+      Columns read = new Columns();
+      Metrics.Operation op = this._esql.metrics ().begin ("reloadBookingSnapshot");
+      try{
+         op.done (this._esql.executeQuery (read, LOAD_BATCH, LOAD_BOOKINGS_SQL));
+      }finally{
+         op.end ();
+      }//end try
+
+      this._lock.writeLock ().lock ();
+      try{
+         this._hotel = read.hotel;
+         this._room = read.room;
+         this._customer = read.customer;
+         this._day = read.day;
+         this._cents = read.cents;
+         this._size = read.size;
+         this._byCustomer = orderByCustomer (read.customer, read.size);
+         this._dSize = 0;
+         for (long[] booking : this._sinceReload) {
+            if (!isBooked ((int) booking[0], (int) booking[1], (int) booking[3]))
+               addLocked ((int) booking[0], (int) booking[1], (int) booking[2], (int) booking[3], booking[4]);
+         }//end for
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end load
+
+   /**
+    * Adds a booking that was just written to the database.
+    */
+   public void add (int hotelID, int roomNo, int customer, Date bookingDate, BigDecimal price) {
+      int day = epochDay (bookingDate, Calendar.getInstance ());
+      long cents = toCents (price);
+      this._lock.writeLock ().lock ();
+      try{
+         if (this._sinceReload != null)
+            this._sinceReload.add (new long[] { hotelID, roomNo, customer, day, cents });
+         addLocked (hotelID, roomNo, customer, day, cents);
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end add
+
+   /** Appends a booking to the delta; the write lock must be held. */
+   private void addLocked (int hotelID, int roomNo, int customer, int day, long cents) {
+      if (this._dSize == this._deltaLimit)
+         merge ();
+      this._dHotel[this._dSize] = hotelID;
+      this._dRoom[this._dSize] = roomNo;
+      this._dCustomer[this._dSize] = customer;
+      this._dDay[this._dSize] = day;
+      this._dCents[this._dSize] = cents;
+      ++this._dSize;
+   }//end addLocked
+
+   /** Whether the sorted part has a booking of the room on the day. */
+   private boolean isBooked (int hotelID, int roomNo, int day) {
+      for (int i = lowerBound (day); i < this._size && this._day[i] == day; ++i) {
+         if (this._hotel[i] == hotelID && this._room[i] == roomNo)
+            return true;
+      }//end for
+      return false;
+   }//end isBooked
+
+   /** Merges the delta into the sorted arrays; the write lock must be held. */
+   private void merge () {
+      // order the delta by date, then merge it with the sorted part.
+      long[] keys = new long[this._dSize];
+      for (int i = 0; i < this._dSize; ++i)
+         keys[i] = ((long) this._dDay[i] << 32) | i;
+      Arrays.sort (keys);
+
+      int n = this._size + this._dSize;
+      int[] hotel = new int[n], room = new int[n], customer = new int[n], day = new int[n];
+      long[] cents = new long[n];
+      int a = 0, b = 0;
+      for (int out = 0; out < n; ++out) {
+         int d = b < keys.length ? (int) keys[b] : -1;
+         if (d < 0 || (a < this._size && this._day[a] <= this._dDay[d])) {
+            hotel[out] = this._hotel[a];
+            room[out] = this._room[a];
+            customer[out] = this._customer[a];
+            day[out] = this._day[a];
+            cents[out] = this._cents[a];
+            ++a;
+         } else {
+            hotel[out] = this._dHotel[d];
+            room[out] = this._dRoom[d];
+            customer[out] = this._dCustomer[d];
+            day[out] = this._dDay[d];
+            cents[out] = this._dCents[d];
+            ++b;
+         }//end if
+      }//end for
+      this._hotel = hotel;
+      this._room = room;
+      this._customer = customer;
+      this._day = day;
+      this._cents = cents;
+      this._size = n;
+      this._byCustomer = orderByCustomer (customer, n);
+      this._dSize = 0;
+   }//end merge
+
+   private static int[] orderByCustomer (int[] customer, int size) {
+      long[] keys = new long[size];
+      for (int i = 0; i < size; ++i)
+         keys[i] = ((long) customer[i] << 32) | i;
+      Arrays.sort (keys);
+      int[] rows = new int[size];
+      for (int i = 0; i < size; ++i)
+         rows[i] = (int) keys[i];
+      return rows;
+   }//end orderByCustomer
+
+   // ------------------------------------------------------------------
+   // queries; each writes the same columns as its SQL counterpart.
+   // ------------------------------------------------------------------
+
+   /**
+    * Rooms of a hotel booked in the week starting on the given date.
+    */
+   public int listHotelRoomBookingsForAWeek (int hotelID, Date start, ResultSink sink) throws IOException {
+      int from = epochDay (start, Calendar.getInstance ());
+      int to = from + 6;
+      this._lock.readLock ().lock ();
+      try{
+         sink.begin (new String[]{"rooms_for_week"});
+         int rows = 0;
+         for (int i = lowerBound (from), end = lowerBound (to + 1); i < end; ++i) {
+            if (this._hotel[i] == hotelID) {
+               sink.value (this._room[i]);
+               sink.endRow ();
+               ++rows;
+            }//end if
+         }//end for
+         for (int i = 0; i < this._dSize; ++i) {
+            if (this._dHotel[i] == hotelID && this._dDay[i] >= from && this._dDay[i] <= to) {
+               sink.value (this._dRoom[i]);
+               sink.endRow ();
+               ++rows;
+            }//end if
+         }//end for
+         sink.end ();
+         return rows;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   /**
+    * The k highest priced bookings in a date range, with their rooms.
+    */
+   public int topKHighestRoomPriceForADateRange (Date start, Date end, int k, ResultSink sink) throws IOException {
+      Calendar calendar = Calendar.getInstance ();
+      int from = epochDay (start, calendar);
+      int to = epochDay (end, calendar);
+      TopK top = new TopK(k);
+      this._lock.readLock ().lock ();
+      try{
+         for (int i = lowerBound (from), last = lowerBound (to + 1); i < last; ++i)
+            top.offer (this._cents[i], i);
+         for (int i = 0; i < this._dSize; ++i) {
+            if (this._dDay[i] >= from && this._dDay[i] <= to)
+               top.offer (this._dCents[i], ~i);
+         }//end for
+         sink.begin (new String[]{"hotelid", "roomno", "price"});
+         int[] rows = top.rowsDescending ();
+         for (int row : rows) {
+            sink.value (row >= 0 ? this._hotel[row] : this._dHotel[~row]);
+            sink.value (row >= 0 ? this._room[row] : this._dRoom[~row]);
+            sink.value (formatCents (row >= 0 ? this._cents[row] : this._dCents[~row]));
+            sink.endRow ();
+         }//end for
+         sink.end ();
+         return rows.length;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   /**
+    * The k highest booking prices of the given customers.
+    */
+   public int topKHighestPriceBookingsForCustomers (int[] ids, int k, ResultSink sink) throws IOException {
+      TopK top = new TopK(k);
+      this._lock.readLock ().lock ();
+      try{
+         for (int id : ids) {
+            for (int i = firstOfCustomer (id); i < this._size && this._customer[this._byCustomer[i]] == id; ++i) {
+               int row = this._byCustomer[i];
+               top.offer (this._cents[row], row);
+            }//end for
+         }//end for
+         for (int i = 0; i < this._dSize; ++i) {
+            if (contains (ids, this._dCustomer[i]))
+               top.offer (this._dCents[i], ~i);
+         }//end for
+         sink.begin (new String[]{"price"});
+         int[] rows = top.rowsDescending ();
+         for (int row : rows) {
+            sink.value (formatCents (row >= 0 ? this._cents[row] : this._dCents[~row]));
+            sink.endRow ();
+         }//end for
+         sink.end ();
+         return rows.length;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end topKHighestPriceBookingsForCustomers
+
+   /**
+    * The total price of the bookings of the given customers at one hotel in
+    * a date range.  Like SUM in SQL this always yields one row, holding NULL
+    * when nothing matched.
+    */
+   public int totalCostForCustomers (int[] ids, Date start, Date end, int hotelID, ResultSink sink) throws IOException {
+      Calendar calendar = Calendar.getInstance ();
+      int from = epochDay (start, calendar);
+      int to = epochDay (end, calendar);
+      long total = 0;
+      boolean any = false;
+      this._lock.readLock ().lock ();
+      try{
+         for (int id : ids) {
+            for (int i = firstOfCustomer (id); i < this._size && this._customer[this._byCustomer[i]] == id; ++i) {
+               int row = this._byCustomer[i];
+               if (this._hotel[row] == hotelID && this._day[row] >= from && this._day[row] <= to) {
+                  total += this._cents[row];
+                  any = true;
+               }//end if
+            }//end for
+         }//end for
+         for (int i = 0; i < this._dSize; ++i) {
+            if (this._dHotel[i] == hotelID && this._dDay[i] >= from && this._dDay[i] <= to
+                && contains (ids, this._dCustomer[i])) {
+               total += this._dCents[i];
+               any = true;
+            }//end if
+         }//end for
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+      sink.begin (new String[]{"total"});
+      sink.value (any ? formatCents (total) : null);
+      sink.endRow ();
+      sink.end ();
+      return 1;
+   }//end totalCostForCustomers
+
+   /** Returns the number of bookings in the snapshot. */
+   public int size () {
+      this._lock.readLock ().lock ();
+      try{
+         return this._size + this._dSize;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end size
+
+   // ------------------------------------------------------------------
+   // helpers
+   // ------------------------------------------------------------------
+
+   /** First index into the date-sorted arrays whose day is >= the given day. */
+   private int lowerBound (int day) {
+      int lo = 0, hi = this._size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (this._day[mid] < day)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }//end while
+      return lo;
+   }//end lowerBound
+
+   /** First index into _byCustomer whose row belongs to the customer. */
+   private int firstOfCustomer (int customer) {
+      int lo = 0, hi = this._size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (this._customer[this._byCustomer[mid]] < customer)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }//end while
+      return lo;
+   }//end firstOfCustomer
+
+   private static boolean contains (int[] values, int value) {
+      for (int v : values) {
+         if (v == value)
+            return true;
+      }//end for
+      return false;
+   }//end contains
+
+   /** Days since 1970-01-01 of a date in the default time zone. */
+   static int epochDay (java.util.Date date, Calendar calendar) {
+      calendar.setTime (date);
+      return epochDay (calendar.get (Calendar.YEAR), calendar.get (Calendar.MONTH) + 1,
+         calendar.get (Calendar.DAY_OF_MONTH));
+   }//end epochDay
+
+   /** Days since 1970-01-01 of a proleptic Gregorian date. */
+   static int epochDay (int year, int month, int day) {
+      // shift the year to start in March so the leap day comes last.
+      int y = month <= 2 ? year - 1 : year;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yoe = y - era * 400;
+      int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }//end epochDay
+
+   static long toCents (BigDecimal price) {
+      return price.movePointRight (2).setScale (0, RoundingMode.HALF_UP).longValueExact ();
+   }//end toCents
+
+   /** Formats cents the way PostgreSQL prints a NUMERIC(6,2), e.g. 1501.00. */
+   static String formatCents (long cents) {
+      StringBuilder sb = new StringBuilder(12);
+      if (cents < 0) {
+         sb.append ('-');
+         cents = -cents;
+      }//end if
+      long fraction = cents % 100;
+      sb.append (cents / 100).append ('.');
+      if (fraction < 10)
+         sb.append ('0');
+      return sb.append (fraction).toString ();
+   }//end formatCents
+
+   /**
+    * Keeps the k rows with the highest price seen so far, in a min-heap of
+    * (price, row) pairs so the cheapest kept row is replaced first.
+    */
+   static class TopK {
+      private final long[] _price;
+      private final int[] _row;
+      private int _size = 0;
+
+      TopK (int k) {
+         this._price = new long[Math.max (k, 0)];
+         this._row = new int[Math.max (k, 0)];
+      }//end TopK
+
+      void offer (long price, int row) {
+         if (this._size < this._price.length) {
+            int i = this._size++;
+            this._price[i] = price;
+            this._row[i] = row;
+            siftUp (i);
+         } else if (this._size > 0 && price > this._price[0]) {
+            this._price[0] = price;
+            this._row[0] = row;
+            siftDown (0);
+         }//end if
+      }//end offer
+
+      /** Returns the kept rows from the highest price down; empties the heap. */
+      int[] rowsDescending () {
+         int[] rows = new int[this._size];
+         for (int i = rows.length - 1; i >= 0; --i) {
+            rows[i] = this._row[0];
+            --this._size;
+            this._price[0] = this._price[this._size];
+            this._row[0] = this._row[this._size];
+            siftDown (0);
+         }//end for
+         return rows;
+      }//end rowsDescending
+
+      private void siftUp (int i) {
+         while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (this._price[parent] <= this._price[i])
+               break;
+            swap (i, parent);
+            i = parent;
+         }//end while
+      }//end siftUp
+
+      private void siftDown (int i) {
+         while (true) {
+            int left = 2 * i + 1;
+            if (left >= this._size)
+               break;
+            int child = left + 1 < this._size && this._price[left + 1] < this._price[left] ? left + 1 : left;
+            if (this._price[i] <= this._price[child])
+               break;
+            swap (i, child);
+            i = child;
+         }//end while
+      }//end siftDown
+
+      private void swap (int a, int b) {
+         long p = this._price[a];
+         this._price[a] = this._price[b];
+         this._price[b] = p;
+         int r = this._row[a];
+         this._row[a] = this._row[b];
+         this._row[b] = r;
+      }//end swap
+   }//end TopK
+
+   /**
+    * Self-check of the top k heap and of merging the delta; needs no
+    * database.
+    *
+    *    java BookingSnapshot
+    */
+   public static void main (String[] args) throws IOException {
+      check (epochDay (1970, 1, 1) == 0 && epochDay (1969, 12, 31) == -1, "epoch day around 1970");
+      check (epochDay (2024, 2, 29) == 19782 && epochDay (2024, 3, 1) == 19783, "leap day");
+      check (epochDay (Date.valueOf ("2024-02-29"), Calendar.getInstance ()) == 19782, "epoch day of a Date");
+      check (toCents (new BigDecimal("12.345")) == 1235 && formatCents (5).equals ("0.05")
+         && formatCents (-150).equals ("-1.50") && formatCents (150100).equals ("1501.00"), "cents");
+
+      // the heap keeps the k highest prices, ties included, highest first
+      check (new TopK(0).rowsDescending ().length == 0, "top 0");
+      TopK none = new TopK(3);
+      none.offer (5, 1);
+      check (Arrays.equals (none.rowsDescending (), new int[] { 1 }), "fewer rows than k");
+      long[] prices = { 40, 10, 90, 40, 70, 10, 90, 20, 60 };
+      TopK top = new TopK(4);
+      for (int row = 0; row < prices.length; ++row)
+         top.offer (prices[row], row);
+      int[] kept = top.rowsDescending ();
+      check (kept.length == 4 && prices[kept[0]] == 90 && prices[kept[1]] == 90 && prices[kept[2]] == 70
+         && prices[kept[3]] == 60, "top 4 of " + Arrays.toString (prices));
+
+      BookingSnapshot empty = new BookingSnapshot (null, 2);
+      ResultSink.Rows total = new ResultSink.Rows();
+      check (empty.size () == 0 && empty.totalCostForCustomers (new int[] { 1 }, Date.valueOf ("2024-01-01"),
+         Date.valueOf ("2024-12-31"), 1, total) == 1 && total.recorded ().get (0)[0] == null, "total of nothing");
+      check (empty.topKHighestRoomPriceForADateRange (Date.valueOf ("2024-01-01"), Date.valueOf ("2024-12-31"), 5,
+         new ResultSink.Rows()) == 0, "top k of nothing");
+
+      // a delta of 2: the third booking merges the first two into the
+      // sorted part, out of date order, and so on
+      BookingSnapshot snapshot = new BookingSnapshot (null, 2);
+      snapshot.add (1, 101, 7, Date.valueOf ("2024-01-05"), new BigDecimal("100.00"));
+      snapshot.add (1, 102, 8, Date.valueOf ("2024-01-01"), new BigDecimal("250.50"));
+      snapshot.add (1, 103, 7, Date.valueOf ("2024-01-09"), new BigDecimal("80.00"));
+      snapshot.add (2, 101, 7, Date.valueOf ("1969-12-31"), new BigDecimal("300.00"));
+      snapshot.add (1, 104, 9, Date.valueOf ("2024-01-03"), new BigDecimal("120.00"));
+      check (snapshot.size () == 5 && snapshot._size == 4 && snapshot._dSize == 1, "merged twice");
+      for (int i = 1; i < snapshot._size; ++i)
+         check (snapshot._day[i - 1] <= snapshot._day[i], "sorted by date after merging");
+      for (int i = 1; i < snapshot._size; ++i)
+         check (snapshot._customer[snapshot._byCustomer[i - 1]] <= snapshot._customer[snapshot._byCustomer[i]],
+            "ordered by customer after merging");
+
+      ResultSink.Rows week = new ResultSink.Rows();
+      snapshot.listHotelRoomBookingsForAWeek (1, Date.valueOf ("2024-01-01"), week);
+      check (column (week, 0).equals ("[102, 101, 104]"), "week of hotel 1: " + column (week, 0));
+      ResultSink.Rows highest = new ResultSink.Rows();
+      snapshot.topKHighestRoomPriceForADateRange (Date.valueOf ("1969-01-01"), Date.valueOf ("2024-01-09"), 3, highest);
+      check (column (highest, 2).equals ("[300.00, 250.50, 120.00]"), "top 3 prices: " + column (highest, 2));
+      ResultSink.Rows customer = new ResultSink.Rows();
+      snapshot.topKHighestPriceBookingsForCustomers (new int[] { 7, 9 }, 10, customer);
+      check (column (customer, 0).equals ("[300.00, 120.00, 100.00, 80.00]"), "customers 7 and 9: " + column (customer, 0));
+      total = new ResultSink.Rows();
+      snapshot.totalCostForCustomers (new int[] { 7 }, Date.valueOf ("2024-01-01"), Date.valueOf ("2024-01-31"), 1, total);
+      check ("180.00".equals (total.recorded ().get (0)[0]), "total of customer 7");
+      System.out.println ("BookingSnapshot: ok");
+   }//end main
+
+   private static String column (ResultSink.Rows rows, int column) {
+      List<String> values = new ArrayList<String>();
+      for (String[] row : rows.recorded ())
+         values.add (row[column]);
+      return values.toString ();
+   }//end column
+
+   private static void check (boolean ok, String what) {
+      if (!ok)
+         throw new IllegalStateException("self-check failed: " + what);
+   }//end check
+
+}//end BookingSnapshot
@@ -0,0 +1,168 @@
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test of concurrent bookRoom calls: a number of workers book a
+ * small set of rooms as fast as they can, on days drawn at random, so they
+ * keep meeting on the same rooms, and the run is repeated for a growing
+ * number of distinct rooms.  Bookings of one room take turns on its stripe
+ * of the booking guard while different rooms proceed in parallel, so the
+ * throughput should grow with the number of rooms until the workers or the
+ * database are the limit.
+ *
+ * After every run the database is checked for rooms booked twice on a day,
+ * which must never happen, and the run's bookings are deleted again.  Runs
+ * book days from stress.firstDate on, which should be clear of other
+ * bookings; still, run it against a scratch database.
+ *
+ * One CSV line is printed per run:
+ *
+ *    rooms,workers,seconds,booked,taken,errors,bookings_per_s,retries,contended,duplicates
+ *
+ * Usage: java BookingStress <dbname> <port> <user>
+ *
+ * Settings (system properties): stress.workers (default 16), stress.rooms
+ * (distinct rooms per run, default "1,2,4,8,16,64"), stress.durationS (per
+ * run, default 10), stress.days (days per room to draw from, default 3650),
+ * stress.firstDate (default 2100-01-01), stress.seed (default 42).  Give the
+ * pool as many connections as there are workers (-Ddbproject.pool.max).
+ */
+public class BookingStress {
+
+   static final String CSV_HEADER =
+      "rooms,workers,seconds,booked,taken,errors,bookings_per_s,retries,contended,duplicates";
+
+   private static final String ROOMS_SQL =
+      "SELECT hotelID, roomNo FROM Room WHERE hotelID > 0 ORDER BY hotelID, roomNo LIMIT ?";
+   private static final String CUSTOMER_SQL =
+      "SELECT MIN(customerID) FROM Customer WHERE customerID > 0";
+   private static final String DUPLICATES_SQL =
+      "SELECT COUNT(*) FROM (SELECT 1 FROM Booking WHERE bookingDate >= ? "
+      + "GROUP BY hotelID, roomNo, bookingDate HAVING COUNT(*) > 1) d";
+   private static final String CLEANUP_SQL =
+      "DELETE FROM Booking WHERE bookingDate >= ?";
+
+   private final DBProject _esql;
+   private final int[][] _rooms;
+   private final int _customer;
+   private final Date _firstDate;
+   private final int _days;
+
+   /**
+    * Reads the rooms to book and a customer to book them for.
+    *
+    * @param maxRooms the most distinct rooms a run will use
+    */
+   public BookingStress (DBProject esql, int maxRooms, Date firstDate, int days) throws SQLException {
+      this._esql = esql;
+      this._firstDate = firstDate;
+      this._days = days;
+      List<String[]> rooms = query (ROOMS_SQL, maxRooms);
+      if (rooms.size () < maxRooms)
+         throw new IllegalArgumentException("Only " + rooms.size () + " rooms to book, " + maxRooms + " asked for");
+      this._rooms = new int[rooms.size ()][];
+      for (int i = 0; i < this._rooms.length; ++i)
+         this._rooms[i] = new int[] { Integer.parseInt (rooms.get (i)[0]), Integer.parseInt (rooms.get (i)[1]) };
+      this._customer = Integer.parseInt (query (CUSTOMER_SQL).get (0)[0]);
+   }//end BookingStress
+
+   private List<String[]> query (String sql, Object... params) throws SQLException {
+      ResultSink.Rows recorder = new ResultSink.Rows();
+      this._esql.executeQuery (recorder, sql, params);
+      return recorder.recorded ();
+   }//end query
+
+   /**
+    * Books the first rooms of the sample from several workers for a while,
+    * checks the result and deletes the bookings.
+    *
+    * @return the CSV line of the run
+    */
+   public String run (final int rooms, int workers, long durationMs, final long seed) throws Exception {
+      final BookingGuard guard = this._esql.bookings ();
+      final AtomicLong booked = new AtomicLong ();
+      final AtomicLong taken = new AtomicLong ();
+      final AtomicLong errors = new AtomicLong ();
+      long retries = guard.retries ();
+      long contended = guard.contended ();
+      final long deadline = System.nanoTime () + durationMs * 1000000L;
+      final BigDecimal price = new BigDecimal ("100.00");
+
+      Thread[] threads = new Thread[workers];
+      long start = System.nanoTime ();
+      for (int w = 0; w < workers; ++w) {
+         final int worker = w;
+         threads[w] = new Thread("stress-" + w) {
+            public void run () {
+               Random random = new Random (seed * 31 + worker);
+               while (System.nanoTime () < deadline) {
+                  int[] room = BookingStress.this._rooms[random.nextInt (rooms)];
+                  Date day = DBProject.addDays (BookingStress.this._firstDate, random.nextInt (BookingStress.this._days));
+                  try{
+                     BookingStress.this._esql.bookRoom (room[0], room[1], BookingStress.this._customer, day, price);
+                     booked.incrementAndGet ();
+                  }catch (SQLException e){
+                     if (BookingGuard.TAKEN_STATE.equals (e.getSQLState ()))
+                        taken.incrementAndGet ();
+                     else
+                        errors.incrementAndGet ();
+                  }//end try
+               }//end while
+            }
+         };
+         threads[w].start ();
+      }//end for
+      for (Thread thread : threads)
+         thread.join ();
+      double seconds = (System.nanoTime () - start) / 1e9;
+
+      long duplicates = Long.parseLong (query (DUPLICATES_SQL, this._firstDate).get (0)[0]);
+      this._esql.executeUpdate (CLEANUP_SQL, this._firstDate);
+      return String.format ("%d,%d,%.1f,%d,%d,%d,%.1f,%d,%d,%d", rooms, workers, seconds, booked.get (),
+         taken.get (), errors.get (), booked.get () / seconds, guard.retries () - retries,
+         guard.contended () - contended, duplicates);
+   }//end run
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println ("Usage: java [-classpath <classpath>] " + BookingStress.class.getName () + " <dbname> <port> <user>");
+         return;
+      }//end if
+      PrintStream out = System.out;
+      DBProject esql = null;
+      try{
+         String[] counts = System.getProperty ("stress.rooms", "1,2,4,8,16,64").split (",");
+         int[] rooms = new int[counts.length];
+         int maxRooms = 0;
+         for (int i = 0; i < counts.length; ++i) {
+            rooms[i] = Integer.parseInt (counts[i].trim ());
+            maxRooms = Math.max (maxRooms, rooms[i]);
+         }//end for
+         Class.forName ("org.postgresql.Driver");
+         esql = new DBProject (args[0], args[1], args[2], "");
+         BookingStress stress = new BookingStress (esql, maxRooms,
+            Date.valueOf (System.getProperty ("stress.firstDate", "2100-01-01")),
+            DBProject.intSetting ("stress.days", 3650));
+         int workers = DBProject.intSetting ("stress.workers", 16);
+         long durationMs = DBProject.intSetting ("stress.durationS", 10) * 1000L;
+         int seed = DBProject.intSetting ("stress.seed", 42);
+         out.println (CSV_HEADER);
+         for (int count : rooms)
+            out.println (stress.run (count, workers, durationMs, seed));
+         // the deleted bookings were counted in the rollup tables
+         esql.rebuildRollups ();
+         System.err.println (esql.statistics ());
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end BookingStress
@@ -0,0 +1,350 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Loads the data/*.csv files into the database from the client, as an
+ * alternative to the server-side COPY statements of sql/create.sql (which
+ * need the files copied into $PGDATA first).
+ *
+ * Each file is streamed through a CsvReader and inserted on one pooled
+ * connection, batchSize rows per INSERT ... VALUES (...), (...), ...
+ * statement.  The bundled driver's executeBatch sends every queued row as
+ * an executeUpdate of its own, one round trip per row, whereas it fills the
+ * parameters of a single statement in on the client and sends it in one
+ * go.  The full-size statement comes from the connection's statement cache
+ * (so it is prepared on the server once); only the last, shorter batch of a
+ * file is a statement of its own.  Batches are committed every commit
+ * interval rows, and the achieved rows per second is reported for every
+ * table.
+ *
+ * Usage: java BulkLoader <dbname> <port> <user> <data dir> [table ...]
+ *
+ * Settings (system properties): dbproject.load.batchSize (default 1000),
+ * dbproject.load.commitInterval (default 50000 rows), dbproject.load.truncate
+ * (empty the tables first, default false), dbproject.partitioned (the
+ * schema was converted by sql/partition.sql, default false).
+ */
+public class BulkLoader {
+
+   // column kinds, used to bind each field with the matching setter.
+   static final char INT = 'i';
+   static final char LONG = 'l';
+   static final char TEXT = 't';
+   static final char DATE = 'd';
+   static final char DECIMAL = 'm';
+   static final char BOOL = 'b';
+
+   /**
+    * One table to load: the file it comes from, its columns in file order
+    * and the kind of each column.
+    */
+   static class Table {
+      final String name;
+      final String file;
+      final String[] columns;
+      final String kinds;
+      private final String _prefix;
+      private final String _row;
+
+      /**
+       * @param casts SQL placeholder of each column, "?" or a cast such as
+       *        "CAST(? AS StaffRole)"
+       * @param identity whether the first column is an identity column
+       */
+      Table (String name, String file, String[] columns, String kinds, String[] casts, boolean identity) {
+         this.name = name;
+         this.file = file;
+         this.columns = columns;
+         this.kinds = kinds;
+         StringBuilder sql = new StringBuilder("INSERT INTO ").append (name).append (" (");
+         for (int i = 0; i < columns.length; ++i)
+            sql.append (i == 0 ? "" : ", ").append (columns[i]);
+         this._prefix = sql.append (identity ? ") OVERRIDING SYSTEM VALUE VALUES " : ") VALUES ").toString ();
+         StringBuilder row = new StringBuilder("(");
+         for (int i = 0; i < casts.length; ++i)
+            row.append (i == 0 ? "" : ", ").append (casts[i]);
+         this._row = row.append (")").toString ();
+      }//end Table
+
+      /** The INSERT statement of the given number of rows. */
+      String sql (int rows) {
+         StringBuilder sql = new StringBuilder(this._prefix.length () + rows * (this._row.length () + 2));
+         sql.append (this._prefix);
+         for (int i = 0; i < rows; ++i)
+            sql.append (i == 0 ? "" : ", ").append (this._row);
+         return sql.toString ();
+      }//end sql
+   }//end Table
+
+   // the tables in load order (referenced tables first), with the same
+   // columns as the COPY statements of sql/create.sql.
+   static final Table[] TABLES = {
+      new Table("Hotel", "hotel.csv", new String[]{"hotelID", "address", "manager"},
+         "itl", new String[]{"?", "?", "?"}, false),
+      new Table("Staff", "staff.csv", new String[]{"SSN", "fName", "lName", "address", "role", "employerID"},
+         "lttttl", new String[]{"?", "?", "?", "?", "CAST(? AS StaffRole)", "?"}, false),
+      new Table("Room", "room.csv", new String[]{"hotelID", "roomNo", "roomType"},
+         "iit", new String[]{"?", "?", "?"}, false),
+      new Table("Customer", "customer.csv", new String[]{"customerID", "fName", "lName", "Address", "phNo", "DOB", "gender"},
+         "itttldt", new String[]{"?", "?", "?", "?", "?", "?", "CAST(? AS GenderType)"}, true),
+      new Table("MaintenanceCompany", "maintenanceCompany.csv", new String[]{"cmpID", "name", "address", "isCertified"},
+         "ittb", new String[]{"?", "?", "?", "?"}, true),
+      new Table("Booking", "booking.csv", new String[]{"bID", "customer", "hotelID", "roomNo", "bookingDate", "noOfPeople", "price"},
+         "iiiidlm", new String[]{"?", "?", "?", "?", "?", "?", "?"}, true),
+      new Table("Repair", "repair.csv", new String[]{"rID", "hotelID", "roomNo", "mCompany", "repairDate", "description", "repairType"},
+         "iiiidtt", new String[]{"?", "?", "?", "?", "?", "?", "?"}, true),
+      new Table("Request", "request.csv", new String[]{"reqID", "managerID", "repairID", "requestDate", "description"},
+         "ilidt", new String[]{"?", "?", "?", "?", "?"}, true),
+      new Table("Assigned", "assigned.csv", new String[]{"asgID", "staffID", "hotelID", "roomNo"},
+         "ilii", new String[]{"?", "?", "?", "?"}, true),
+   };
+
+   // statements run after the data is in, as in sql/create.sql.
+   static final String[] FINISH_SQL = {
+      "UPDATE hotel SET manager = Staff.ssn FROM Staff WHERE hotel.hotelID = Staff.employerID AND Staff.role = 'Manager'",
+      "SELECT setval(pg_get_serial_sequence('customer', 'customerid'), (SELECT MAX(customerID) FROM Customer))",
+      "SELECT setval(pg_get_serial_sequence('maintenancecompany', 'cmpid'), (SELECT MAX(cmpID) FROM MaintenanceCompany))",
+      "SELECT setval(pg_get_serial_sequence('repair', 'rid'), (SELECT MAX(rID) FROM Repair))",
+      "SELECT setval(pg_get_serial_sequence('booking', 'bid'), (SELECT MAX(bID) FROM Booking))",
+      "SELECT setval(pg_get_serial_sequence('assigned', 'asgid'), (SELECT MAX(asgID) FROM Assigned))",
+      "SELECT setval(pg_get_serial_sequence('request', 'reqid'), (SELECT MAX(reqID) FROM Request))",
+      DBProject.REBUILD_ROLLUPS_SQL,
+   };
+
+   // on the partitioned schema, gives the rows that landed in the default
+   // partitions a partition of their own.
+   static final String[] PARTITION_SQL = {
+      "SELECT create_partitions('booking', MIN(bookingDate), MAX(bookingDate)) FROM booking_default",
+      "SELECT create_partitions('repair', MIN(repairDate), MAX(repairDate)) FROM repair_default",
+   };
+
+   private static final Charset UTF8 = Charset.forName ("UTF-8");
+
+   private final DBProject _esql;
+   private final int _batchSize;
+   private final int _commitInterval;
+
+   /**
+    * @param esql the session whose connection pool is used
+    * @param batchSize the number of rows sent per INSERT statement
+    * @param commitInterval the number of rows per transaction
+    */
+   public BulkLoader (DBProject esql, int batchSize, int commitInterval) {
+      if (batchSize < 1 || commitInterval < 1)
+         throw new IllegalArgumentException("batch size and commit interval must be positive");
+      this._esql = esql;
+      this._batchSize = batchSize;
+      this._commitInterval = commitInterval;
+   }//end BulkLoader
+
+   /**
+    * Loads the given tables (all of them when none are named) from the files
+    * in a directory, then sets the hotel managers and identity sequences.
+    *
+    * @param dir the directory holding the data files
+    * @param tableNames the tables to load, case-insensitive
+    * @param truncate whether to empty the tables first
+    * @throws java.sql.SQLException when an insert failed
+    * @throws java.io.IOException when a file could not be read
+    */
+   public void load (File dir, List<String> tableNames, boolean truncate) throws SQLException, IOException {
+      List<Table> tables = new ArrayList<Table>();
+      for (Table table : TABLES) {
+         if (tableNames.isEmpty () || containsIgnoreCase (tableNames, table.name))
+            tables.add (table);
+      }//end for
+      if (tables.isEmpty ())
+         throw new IllegalArgumentException("No such table: " + tableNames);
+
+      ConnectionPool.PooledConnection pc = this._esql.pool ().borrow ();
+      try{
+         Connection connection = pc.connection ();
+         if (truncate) {
+            StringBuilder sql = new StringBuilder("TRUNCATE ");
+            for (int i = 0; i < tables.size (); ++i)
+               sql.append (i == 0 ? "" : ", ").append (tables.get (i).name);
+            Statement stmt = connection.createStatement ();
+            stmt.executeUpdate (sql.append (" CASCADE").toString ());
+            stmt.close ();
+         }//end if
+
+         long totalRows = 0;
+         long start = System.nanoTime ();
+         for (Table table : tables)
+            totalRows += load (pc, table, new File(dir, table.file));
+
+         Statement stmt = connection.createStatement ();
+         for (String sql : FINISH_SQL)
+            stmt.execute (sql);
+         if (Boolean.getBoolean ("dbproject.partitioned")) {
+            for (String sql : PARTITION_SQL)
+               stmt.execute (sql);
+         }//end if
+         stmt.close ();
+         report ("all tables", totalRows, System.nanoTime () - start);
+      }finally{
+         this._esql.pool ().release (pc);
+      }//end try
+   }//end load
+
+   /**
+    * Streams one file into its table.
+    *
+    * @return the number of rows loaded
+    */
+   long load (ConnectionPool.PooledConnection pc, Table table, File file) throws SQLException, IOException {
+      long start = System.nanoTime ();
+      long rows = 0;
+      int pending = 0;
+      int uncommitted = 0;
+      Connection connection = pc.connection ();
+      connection.setAutoCommit (false);
+      PreparedStatement stmt = pc.statements ().prepare (table.sql (this._batchSize));
+      CsvReader reader = new CsvReader(new InputStreamReader(new FileInputStream(file), UTF8), ',', 1 << 16);
+      // fields of the rows of a batch, bound once the batch is full.
+      Object[] batch = new Object[this._batchSize * table.columns.length];
+      boolean loaded = false;
+      try{
+         while (reader.next ()) {
+            if (reader.fieldCount () != table.columns.length)
+               throw new IllegalArgumentException(file.getName () + " line " + reader.lineNumber () + ": expected "
+                  + table.columns.length + " fields but found " + reader.fieldCount ());
+            read (batch, pending * table.columns.length, table.kinds, reader);
+            ++rows;
+            if (++pending == this._batchSize) {
+               bind (stmt, table.kinds, batch, pending);
+               stmt.executeUpdate ();
+               uncommitted += pending;
+               pending = 0;
+               if (uncommitted >= this._commitInterval) {
+                  connection.commit ();
+                  uncommitted = 0;
+               }//end if
+            }//end if
+         }//end while
+         if (pending > 0) {
+            PreparedStatement last = connection.prepareStatement (table.sql (pending));
+            try{
+               bind (last, table.kinds, batch, pending);
+               last.executeUpdate ();
+            }finally{
+               last.close ();
+            }//end try
+         }//end if
+         connection.commit ();
+         loaded = true;
+      }catch (SQLException e){
+         throw new SQLException("Loading " + table.name + " failed in the batch ending at line "
+            + reader.lineNumber () + ": " + e.getMessage (), e.getSQLState (), e);
+      }finally{
+         reader.close ();
+         // whatever failed, turning autocommit back on would commit the
+         // batches written since the last commit.
+         if (!loaded)
+            connection.rollback ();
+         connection.setAutoCommit (true);
+      }//end try
+      report (table.name, rows, System.nanoTime () - start);
+      return rows;
+   }//end load
+
+   // converts the fields of the current line into batch, from offset on.
+   private static void read (Object[] batch, int offset, String kinds, CsvReader reader) {
+      for (int i = 0; i < kinds.length (); ++i) {
+         if (reader.isNull (i)) {
+            batch[offset + i] = null;
+            continue;
+         }//end if
+         switch (kinds.charAt (i)) {
+            case INT: batch[offset + i] = reader.getInt (i); break;
+            case LONG: batch[offset + i] = reader.getLong (i); break;
+            case DATE: batch[offset + i] = reader.getDate (i); break;
+            case DECIMAL: batch[offset + i] = reader.getDecimal (i); break;
+            case BOOL: batch[offset + i] = reader.getBoolean (i); break;
+            default: batch[offset + i] = reader.getString (i); break;
+         }//end switch
+      }//end for
+   }//end read
+
+   // binds the first rows rows of batch to a statement of that many rows.
+   private static void bind (PreparedStatement stmt, String kinds, Object[] batch, int rows) throws SQLException {
+      for (int p = 0; p < rows * kinds.length (); ++p) {
+         char kind = kinds.charAt (p % kinds.length ());
+         Object value = batch[p];
+         if (value == null) {
+            stmt.setNull (p + 1, sqlType (kind));
+            continue;
+         }//end if
+         switch (kind) {
+            case INT: stmt.setInt (p + 1, (Integer) value); break;
+            case LONG: stmt.setLong (p + 1, (Long) value); break;
+            case DATE: stmt.setDate (p + 1, (Date) value); break;
+            case DECIMAL: stmt.setBigDecimal (p + 1, (BigDecimal) value); break;
+            case BOOL: stmt.setBoolean (p + 1, (Boolean) value); break;
+            default: stmt.setString (p + 1, (String) value); break;
+         }//end switch
+      }//end for
+   }//end bind
+
+   private static int sqlType (char kind) {
+      switch (kind) {
+         case INT: return Types.INTEGER;
+         case LONG: return Types.BIGINT;
+         case DATE: return Types.DATE;
+         case DECIMAL: return Types.NUMERIC;
+         case BOOL: return Types.BOOLEAN;
+         default: return Types.VARCHAR;
+      }//end switch
+   }//end sqlType
+
+   private static void report (String what, long rows, long nanos) {
+      double seconds = nanos / 1e9;
+      System.out.println (String.format ("%-20s %,12d rows %10.2f s %,14.0f rows/s",
+         what, rows, seconds, seconds == 0 ? 0.0 : rows / seconds));
+   }//end report
+
+   private static boolean containsIgnoreCase (List<String> names, String name) {
+      for (String n : names) {
+         if (n.equalsIgnoreCase (name))
+            return true;
+      }//end for
+      return false;
+   }//end containsIgnoreCase
+
+   public static void main (String[] args) {
+      if (args.length < 4) {
+         System.err.println ("Usage: java [-classpath <classpath>] " + BulkLoader.class.getName ()
+            + " <dbname> <port> <user> <data dir> [table ...]");
+         return;
+      }//end if
+      DBProject esql = null;
+      try{
+         Class.forName ("org.postgresql.Driver");
+         esql = new DBProject (args[0], args[1], args[2], "");
+         BulkLoader loader = new BulkLoader (esql,
+            DBProject.intSetting ("dbproject.load.batchSize", 1000),
+            DBProject.intSetting ("dbproject.load.commitInterval", 50000));
+         loader.load (new File(args[3]), Arrays.asList (args).subList (4, args.length),
+            Boolean.getBoolean ("dbproject.load.truncate"));
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end BulkLoader
@@ -0,0 +1,545 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of physical connections to one database.  Threads borrow a
+ * connection for the duration of an operation and give it back afterwards;
+ * when all connections are in use a borrower waits up to the borrow timeout
+ * for one to be returned.
+ *
+ * Connections that sat idle for a while are validated before they are handed
+ * out, and connections idle longer than the idle timeout are closed as long
+ * as more than the minimum number are open.
+ */
+public class ConnectionPool {
+
+   /**
+    * A pooled connection together with its statement cache.  Only the
+    * thread that borrowed it may use it until it is released.
+    */
+   public static class PooledConnection {
+      private final Connection _connection;
+      private final StatementCache _statements;
+      private long _lastUsed;
+      private volatile int _backendPid = 0;
+      private int _statementTimeoutMs = 0;
+      // set when an operation failed without telling why; validated before
+      // the connection is handed out again.
+      private volatile boolean _suspect = false;
+
+      PooledConnection (Connection connection, int statementCacheSize, boolean serverPrepare) {
+         this._connection = connection;
+         this._statements = new StatementCache(connection, statementCacheSize, serverPrepare);
+         this._lastUsed = System.nanoTime ();
+      }//end PooledConnection
+
+      public Connection connection () { return this._connection; }
+      public StatementCache statements () { return this._statements; }
+
+      /**
+       * The process ID of the server backend of this connection, as
+       * pg_cancel_backend takes it; asked for on the first call only, so any
+       * thread may call it afterwards.
+       */
+      public int backendPid () throws SQLException {
+         if (this._backendPid == 0) {
+            ResultSet rs = this._statements.prepare (BACKEND_PID_SQL).executeQuery ();
+            try{
+               rs.next ();
+               this._backendPid = rs.getInt (1);
+            }finally{
+               rs.close ();
+            }//end try
+         }//end if
+         return this._backendPid;
+      }//end backendPid
+
+      /**
+       * Sets the server-side statement_timeout of the connection, 0 for none;
+       * only issued when it differs from the last one set.  Outside a
+       * transaction only, as a rollback would undo it.
+       */
+      public void statementTimeout (int timeoutMs) throws SQLException {
+         if (timeoutMs == this._statementTimeoutMs || !this._connection.getAutoCommit ())
+            return;
+         Statement stmt = this._connection.createStatement ();
+         try{
+            stmt.executeUpdate ("SET statement_timeout = " + timeoutMs);
+         }finally{
+            stmt.close ();
+         }//end try
+         this._statementTimeoutMs = timeoutMs;
+      }//end statementTimeout
+   }//end PooledConnection
+
+   // query used to check that an idle connection is still alive.
+   private static final String VALIDATION_SQL = "SELECT 1";
+
+   private static final String BACKEND_PID_SQL = "SELECT pg_backend_pid()";
+
+   // messages of the bundled driver when the socket to the server failed or
+   // the connection was closed; it raises them without an SQLState.
+   private static final String[] BROKEN_MESSAGES = {
+      "IO erro", "I/O error", "broken the connection", "Connection is closed" };
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _idleTimeoutNanos;
+   private final long _borrowTimeoutNanos;
+   private final long _validationIdleNanos;
+   private final int _statementCacheSize;
+   private final boolean _serverPrepare;
+
+   private final ReentrantLock _lock = new ReentrantLock ();
+   private final Condition _returned = this._lock.newCondition ();
+
+   // connections ready to be borrowed, most recently returned first.
+   private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+
+   // every open connection, idle or borrowed.
+   private final List<PooledConnection> _all = new ArrayList<PooledConnection>();
+
+   // connections being opened right now, counted against the maximum.
+   private int _opening = 0;
+   private boolean _closed = false;
+
+   private final ScheduledExecutorService _evictor;
+
+   // metrics, guarded by _lock.
+   private long _borrows = 0;
+   private long _waits = 0;
+   private long _timeouts = 0;
+   private long _waitNanos = 0;
+   private long _maxWaitNanos = 0;
+   private long _created = 0;
+   private long _destroyed = 0;
+   private long _validationFailures = 0;
+   private long _idleEvictions = 0;
+   // statement cache counters of connections that were already closed.
+   private long _retiredStatementHits = 0;
+   private long _retiredStatementMisses = 0;
+   private long _retiredServerPrepared = 0;
+
+   /**
+    * Creates a pool and opens its minimum number of connections.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize the number of connections kept open even when idle
+    * @param maxSize the maximum number of open connections
+    * @param idleTimeoutMs how long a connection above the minimum may stay idle
+    * @param borrowTimeoutMs how long a borrower waits for a free connection
+    * @param validationIdleMs idle time after which a connection is validated on borrow
+    * @param statementCacheSize the statement cache capacity of each connection
+    * @param serverPrepare whether the statement caches prepare on the server
+    * @throws java.sql.SQLException when the initial connections could not be opened
+    */
+   public ConnectionPool (String url, String user, String passwd, int minSize, int maxSize,
+                          long idleTimeoutMs, long borrowTimeoutMs, long validationIdleMs,
+                          int statementCacheSize, boolean serverPrepare) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("invalid pool size: min=" + minSize + " max=" + maxSize);
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos (idleTimeoutMs);
+      this._borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos (borrowTimeoutMs);
+      this._validationIdleNanos = TimeUnit.MILLISECONDS.toNanos (validationIdleMs);
+      this._statementCacheSize = statementCacheSize;
+      this._serverPrepare = serverPrepare;
+
+      for (int i = 0; i < minSize; ++i) {
+         PooledConnection pc = open ();
+         this._all.add (pc);
+         this._idle.push (pc);
+      }//end for
+
+      this._evictor = Executors.newSingleThreadScheduledExecutor (new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "pool-evictor");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      long period = Math.max (1000L, idleTimeoutMs / 2);
+      this._evictor.scheduleWithFixedDelay (new Runnable () {
+         public void run () { evictIdle (); }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection with no statement timeout.
+    *
+    * @see #borrow(int)
+    */
+   public PooledConnection borrow () throws SQLException {
+      return borrow (0);
+   }//end borrow
+
+   /**
+    * Borrows a connection, opening a new one if none is idle and the pool is
+    * not full, or waiting for one to be released otherwise, and sets its
+    * statement_timeout.  The setting outlives the borrow, so every borrower
+    * states the timeout it wants instead of inheriting the last one's.
+    *
+    * @param statementTimeoutMs the statement timeout, 0 for none
+    * @return a connection for the exclusive use of the caller
+    * @throws java.sql.SQLException when no connection became available within
+    *         the borrow timeout, a new connection could not be opened or the
+    *         timeout could not be set
+    */
+   public PooledConnection borrow (int statementTimeoutMs) throws SQLException {
+      PooledConnection pc = take ();
+      try{
+         pc.statementTimeout (statementTimeoutMs);
+      }catch (SQLException e){
+         release (pc, e);
+         throw e;
+      }//end try
+      return pc;
+   }//end borrow
+
+   private PooledConnection take () throws SQLException {
+      long start = System.nanoTime ();
+      boolean waited = false;
+      while (true) {
+         PooledConnection candidate = null;
+         boolean mayOpen = false;
+         this._lock.lock ();
+         try{
+            long remaining = this._borrowTimeoutNanos - (System.nanoTime () - start);
+            while (!this._closed && this._idle.isEmpty ()
+                   && this._all.size () + this._opening >= this._maxSize) {
+               if (remaining <= 0) {
+                  ++this._timeouts;
+                  recordWait (start, waited);
+                  throw new SQLException("Timed out after " + TimeUnit.NANOSECONDS.toMillis (this._borrowTimeoutNanos)
+                     + " ms waiting for a database connection (" + this._maxSize + " in use)");
+               }//end if
+               waited = true;
+               try{
+                  remaining = this._returned.awaitNanos (remaining);
+               }catch (InterruptedException e){
+                  Thread.currentThread ().interrupt ();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }//end try
+            }//end while
+            if (this._closed)
+               throw new SQLException("Connection pool is closed");
+            if (!this._idle.isEmpty ()) {
+               candidate = this._idle.pop ();
+            } else {
+               ++this._opening;
+               mayOpen = true;
+            }//end if
+         }finally{
+            this._lock.unlock ();
+         }//end try
+
+         if (mayOpen) {
+            PooledConnection pc = null;
+            try{
+               pc = open ();
+            }finally{
+               this._lock.lock ();
+               try{
+                  --this._opening;
+                  if (pc != null) {
+                     this._all.add (pc);
+                     ++this._borrows;
+                     recordWait (start, waited);
+                  } else {
+                     this._returned.signal ();
+                  }//end if
+               }finally{
+                  this._lock.unlock ();
+               }//end try
+            }//end try
+            return pc;
+         }//end if
+
+         boolean validate = candidate._suspect || System.nanoTime () - candidate._lastUsed >= this._validationIdleNanos;
+         if (!validate || isValid (candidate)) {
+            candidate._suspect = false;
+            this._lock.lock ();
+            try{
+               ++this._borrows;
+               recordWait (start, waited);
+            }finally{
+               this._lock.unlock ();
+            }//end try
+            return candidate;
+         }//end if
+
+         // the idle connection went stale (e.g. the socket was dropped):
+         // discard it and try again with the next one.
+         this._lock.lock ();
+         try{
+            ++this._validationFailures;
+         }finally{
+            this._lock.unlock ();
+         }//end try
+         destroy (candidate);
+      }//end while
+   }//end take
+
+   /**
+    * Returns a borrowed connection to the pool.  A connection left in a
+    * transaction is rolled back first.
+    *
+    * @param pc the connection to return
+    */
+   public void release (PooledConnection pc) {
+      try{
+         if (!pc._connection.getAutoCommit ()) {
+            pc._connection.rollback ();
+            pc._connection.setAutoCommit (true);
+         }//end if
+      }catch (SQLException e){
+         destroy (pc);
+         return;
+      }//end try
+      pc._lastUsed = System.nanoTime ();
+      boolean close = false;
+      this._lock.lock ();
+      try{
+         if (this._closed) {
+            close = true;
+         } else {
+            this._idle.push (pc);
+            this._returned.signal ();
+         }//end if
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      if (close)
+         destroy (pc);
+   }//end release
+
+   /**
+    * Returns a borrowed connection after an operation on it failed.  When the
+    * failure was a connection error the connection is closed instead of
+    * being reused.  The bundled driver raises most errors, server errors
+    * included, without an SQLState, so a connection whose failure does not
+    * say what it was is validated before it is borrowed again.
+    *
+    * @param pc the connection to return
+    * @param error the failure raised while using it
+    */
+   public void release (PooledConnection pc, SQLException error) {
+      if (isBroken (error)) {
+         destroy (pc);
+         return;
+      }//end if
+      if (error.getSQLState () == null)
+         pc._suspect = true;
+      release (pc);
+   }//end release
+
+   /**
+    * Tells whether a failure means the connection itself is unusable: a
+    * connection exception (SQLState class 08) or one of the driver's I/O
+    * and closed-connection errors.
+    */
+   public static boolean isBroken (SQLException error) {
+      String state = error.getSQLState ();
+      if (state != null)
+         return state.startsWith ("08");
+      String message = error.getMessage ();
+      if (message == null)
+         return false;
+      for (String broken : BROKEN_MESSAGES) {
+         if (message.contains (broken))
+            return true;
+      }//end for
+      return false;
+   }//end isBroken
+
+   /**
+    * Closes all idle connections and stops handing out new ones.  Borrowed
+    * connections are closed when they are released.
+    */
+   public void close () {
+      List<PooledConnection> idle;
+      this._lock.lock ();
+      try{
+         this._closed = true;
+         idle = new ArrayList<PooledConnection>(this._idle);
+         this._idle.clear ();
+         this._returned.signalAll ();
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      this._evictor.shutdownNow ();
+      for (PooledConnection pc : idle)
+         destroy (pc);
+   }//end close
+
+   private PooledConnection open () throws SQLException {
+      Connection connection = DriverManager.getConnection (this._url, this._user, this._passwd);
+      this._lock.lock ();
+      try{
+         ++this._created;
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      return new PooledConnection(connection, this._statementCacheSize, this._serverPrepare);
+   }//end open
+
+   private void destroy (PooledConnection pc) {
+      this._lock.lock ();
+      try{
+         if (this._all.remove (pc)) {
+            ++this._destroyed;
+            this._retiredStatementHits += pc._statements.hits ();
+            this._retiredStatementMisses += pc._statements.misses ();
+            this._retiredServerPrepared += pc._statements.serverPrepared ();
+         }//end if
+         this._returned.signal ();
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      pc._statements.close ();
+      try{
+         pc._connection.close ();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end destroy
+
+   private boolean isValid (PooledConnection pc) {
+      try{
+         PreparedStatement stmt = pc._statements.prepare (VALIDATION_SQL);
+         ResultSet rs = stmt.executeQuery ();
+         rs.close ();
+         return true;
+      }catch (SQLException e){
+         return false;
+      }//end try
+   }//end isValid
+
+   private void evictIdle () {
+      List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+      long now = System.nanoTime ();
+      this._lock.lock ();
+      try{
+         // the deque holds the most recently returned connections first, so
+         // the longest idle ones are at its tail.
+         Iterator<PooledConnection> it = this._idle.descendingIterator ();
+         while (it.hasNext () && this._all.size () - evicted.size () > this._minSize) {
+            PooledConnection pc = it.next ();
+            if (now - pc._lastUsed < this._idleTimeoutNanos)
+               break;
+            it.remove ();
+            evicted.add (pc);
+            ++this._idleEvictions;
+         }//end while
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      for (PooledConnection pc : evicted)
+         destroy (pc);
+   }//end evictIdle
+
+   private void recordWait (long start, boolean waited) {
+      if (!waited)
+         return;
+      long wait = System.nanoTime () - start;
+      ++this._waits;
+      this._waitNanos += wait;
+      this._maxWaitNanos = Math.max (this._maxWaitNanos, wait);
+   }//end recordWait
+
+   /**
+    * Returns the statement cache hits summed over every connection the pool
+    * has opened.
+    */
+   public long statementHits () {
+      this._lock.lock ();
+      try{
+         long hits = this._retiredStatementHits;
+         for (PooledConnection pc : this._all)
+            hits += pc._statements.hits ();
+         return hits;
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end statementHits
+
+   /**
+    * Returns the statement cache misses summed over every connection the
+    * pool has opened.
+    */
+   public long statementMisses () {
+      this._lock.lock ();
+      try{
+         long misses = this._retiredStatementMisses;
+         for (PooledConnection pc : this._all)
+            misses += pc._statements.misses ();
+         return misses;
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end statementMisses
+
+   /**
+    * Returns the number of statements prepared on the server, summed over
+    * every connection the pool has opened.
+    */
+   public long serverPrepared () {
+      this._lock.lock ();
+      try{
+         long prepared = this._retiredServerPrepared;
+         for (PooledConnection pc : this._all)
+            prepared += pc._statements.serverPrepared ();
+         return prepared;
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end serverPrepared
+
+   public long borrowTimeouts () {
+      this._lock.lock ();
+      try{
+         return this._timeouts;
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end borrowTimeouts
+
+   @Override
+   public String toString () {
+      this._lock.lock ();
+      try{
+         double avgWaitMs = this._waits == 0 ? 0.0 : this._waitNanos / 1e6 / this._waits;
+         return String.format ("open=%d idle=%d min=%d max=%d borrows=%d waits=%d avgWait=%.2fms maxWait=%.2fms "
+            + "timeouts=%d created=%d closed=%d validationFailures=%d idleEvictions=%d",
+            this._all.size (), this._idle.size (), this._minSize, this._maxSize, this._borrows, this._waits,
+            avgWaitMs, this._maxWaitNanos / 1e6, this._timeouts, this._created, this._destroyed,
+            this._validationFailures, this._idleEvictions);
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end toString
+
+}//end ConnectionPool
@@ -0,0 +1,366 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.Calendar;
+
+/**
+ * Reads delimited records in the text format used by the files in data/ (the
+ * PostgreSQL COPY text format: one record per line, no quoting, backslash
+ * escapes and \N for NULL).
+ *
+ * The reader keeps one character buffer for the current record and the
+ * offsets of its fields, so stepping through a file allocates nothing per
+ * row.  Numbers and dates are parsed straight from that buffer; a String is
+ * only created when a text field is asked for.
+ */
+public class CsvReader implements Closeable {
+
+   private final Reader _in;
+   private final char _delimiter;
+
+   // raw input buffer.
+   private final char[] _buf;
+   private int _pos = 0;
+   private int _limit = 0;
+   private boolean _eof = false;
+
+   // the current record, unescaped, with the bounds and NULL flag of each field.
+   private char[] _line = new char[256];
+   private int[] _start = new int[16];
+   private int[] _end = new int[16];
+   private boolean[] _null = new boolean[16];
+   private int _fields = 0;
+   private long _lineNumber = 0;
+
+   // reused to turn parsed dates into java.sql.Date values.
+   private final Calendar _calendar = Calendar.getInstance ();
+
+   /**
+    * Creates a reader over the given input.
+    *
+    * @param in the input to read records from
+    * @param delimiter the field delimiter
+    * @param bufferSize the size of the input buffer in characters
+    */
+   public CsvReader (Reader in, char delimiter, int bufferSize) {
+      this._in = in;
+      this._delimiter = delimiter;
+      this._buf = new char[bufferSize];
+   }//end CsvReader
+
+   /**
+    * Advances to the next record.  Empty lines are skipped.
+    *
+    * @return false when the end of the input was reached
+    * @throws java.io.IOException when reading the input failed
+    */
+   public boolean next () throws IOException {
+      while (true) {
+         int length = 0;
+         int fields = 0;
+         int fieldStart = 0;
+         boolean escaped = false;
+         boolean sawData = false;
+         boolean rawNull = false;
+         while (true) {
+            if (this._pos == this._limit && !fill ())
+               break;
+            char c = this._buf[this._pos++];
+            sawData = true;
+            if (escaped) {
+               escaped = false;
+               if (c == 'N' && length == fieldStart) {
+                  rawNull = true;
+                  continue;
+               }//end if
+               c = unescape (c);
+            } else if (c == '\\') {
+               escaped = true;
+               continue;
+            } else if (c == '\n') {
+               break;
+            } else if (c == this._delimiter) {
+               fields = endField (fields, fieldStart, length, rawNull);
+               fieldStart = length;
+               rawNull = false;
+               continue;
+            }//end if
+            if (length == this._line.length)
+               this._line = Arrays.copyOf (this._line, length * 2);
+            this._line[length++] = c;
+         }//end while
+         if (!sawData)
+            return false;
+         ++this._lineNumber;
+         if (length > fieldStart && this._line[length - 1] == '\r')
+            --length;
+         if (length == 0 && fields == 0 && !rawNull)
+            continue;
+         this._fields = endField (fields, fieldStart, length, rawNull);
+         return true;
+      }//end while
+   }//end next
+
+   private int endField (int fields, int start, int end, boolean rawNull) {
+      if (fields == this._start.length) {
+         this._start = Arrays.copyOf (this._start, fields * 2);
+         this._end = Arrays.copyOf (this._end, fields * 2);
+         this._null = Arrays.copyOf (this._null, fields * 2);
+      }//end if
+      this._start[fields] = start;
+      this._end[fields] = end;
+      this._null[fields] = rawNull && start == end;
+      return fields + 1;
+   }//end endField
+
+   private static char unescape (char c) {
+      switch (c) {
+         case 'n': return '\n';
+         case 't': return '\t';
+         case 'r': return '\r';
+         case 'b': return '\b';
+         case 'f': return '\f';
+         default: return c;
+      }//end switch
+   }//end unescape
+
+   private boolean fill () throws IOException {
+      if (this._eof)
+         return false;
+      int n = this._in.read (this._buf, 0, this._buf.length);
+      if (n <= 0) {
+         this._eof = true;
+         return false;
+      }//end if
+      this._pos = 0;
+      this._limit = n;
+      return true;
+   }//end fill
+
+   public int fieldCount () { return this._fields; }
+
+   /** Returns the 1-based line number of the current record. */
+   public long lineNumber () { return this._lineNumber; }
+
+   public boolean isNull (int field) {
+      check (field);
+      return this._null[field];
+   }//end isNull
+
+   public String getString (int field) {
+      check (field);
+      if (this._null[field])
+         return null;
+      return new String(this._line, this._start[field], this._end[field] - this._start[field]);
+   }//end getString
+
+   public long getLong (int field) {
+      check (field);
+      int i = this._start[field];
+      int end = this._end[field];
+      boolean negative = false;
+      if (i < end && (this._line[i] == '-' || this._line[i] == '+'))
+         negative = this._line[i++] == '-';
+      if (i == end)
+         throw error (field, "number");
+      long value = 0;
+      for (; i < end; ++i) {
+         int digit = this._line[i] - '0';
+         if (digit < 0 || digit > 9)
+            throw error (field, "number");
+         value = value * 10 + digit;
+      }//end for
+      return negative ? -value : value;
+   }//end getLong
+
+   public int getInt (int field) {
+      long value = getLong (field);
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+         throw error (field, "integer");
+      return (int) value;
+   }//end getInt
+
+   /**
+    * Parses a decimal number such as 1501 or 99.95.
+    */
+   public BigDecimal getDecimal (int field) {
+      check (field);
+      int i = this._start[field];
+      int end = this._end[field];
+      boolean negative = false;
+      if (i < end && (this._line[i] == '-' || this._line[i] == '+'))
+         negative = this._line[i++] == '-';
+      long unscaled = 0;
+      int scale = -1;
+      int digits = 0;
+      for (; i < end; ++i) {
+         char c = this._line[i];
+         if (c == '.' && scale < 0) {
+            scale = 0;
+            continue;
+         }//end if
+         int digit = c - '0';
+         if (digit < 0 || digit > 9 || digits == 18)
+            return new BigDecimal(getString (field));
+         unscaled = unscaled * 10 + digit;
+         ++digits;
+         if (scale >= 0)
+            ++scale;
+      }//end for
+      if (digits == 0)
+         throw error (field, "decimal");
+      return BigDecimal.valueOf (negative ? -unscaled : unscaled, Math.max (scale, 0));
+   }//end getDecimal
+
+   /**
+    * Parses a date written as M/D/YYYY (the format of the data files) or as
+    * YYYY-MM-DD.
+    */
+   public Date getDate (int field) {
+      check (field);
+      int first = 0;
+      int second = 0;
+      int part = 0;
+      char separator = 0;
+      int value = 0;
+      int digits = 0;
+      for (int i = this._start[field]; i < this._end[field]; ++i) {
+         char c = this._line[i];
+         if (c == '/' || c == '-') {
+            if (digits == 0 || part == 2 || (separator != 0 && c != separator))
+               throw error (field, "date");
+            separator = c;
+            if (part++ == 0)
+               first = value;
+            else
+               second = value;
+            value = 0;
+            digits = 0;
+            continue;
+         }//end if
+         int digit = c - '0';
+         if (digit < 0 || digit > 9)
+            throw error (field, "date");
+         value = value * 10 + digit;
+         ++digits;
+      }//end for
+      if (digits == 0 || part != 2)
+         throw error (field, "date");
+      int year = separator == '/' ? value : first;
+      int month = separator == '/' ? first : second;
+      int day = separator == '/' ? second : value;
+      this._calendar.clear ();
+      this._calendar.setLenient (false);
+      this._calendar.set (year, month - 1, day);
+      try{
+         return new Date(this._calendar.getTimeInMillis ());
+      }catch (IllegalArgumentException e){
+         throw error (field, "date");
+      }//end try
+   }//end getDate
+
+   /**
+    * Parses a boolean written as TRUE/FALSE, T/F, Y/N, YES/NO or 1/0.
+    */
+   public boolean getBoolean (int field) {
+      check (field);
+      int length = this._end[field] - this._start[field];
+      if (length == 0)
+         throw error (field, "boolean");
+      char c = Character.toUpperCase (this._line[this._start[field]]);
+      if (c == 'T' || c == 'Y' || c == '1')
+         return true;
+      if (c == 'F' || c == 'N' || c == '0')
+         return false;
+      throw error (field, "boolean");
+   }//end getBoolean
+
+   private void check (int field) {
+      if (field < 0 || field >= this._fields)
+         throw new IllegalArgumentException("line " + this._lineNumber + " has " + this._fields
+            + " fields, field " + (field + 1) + " requested");
+   }//end check
+
+   private IllegalArgumentException error (int field, String expected) {
+      return new IllegalArgumentException("line " + this._lineNumber + ", field " + (field + 1)
+         + ": expected a " + expected + " but got '" + getString (field) + "'");
+   }//end error
+
+   public void close () throws IOException {
+      this._in.close ();
+   }//end close
+
+   /**
+    * Self-check of the record format and the field parsers; needs no
+    * database.
+    *
+    *    java CsvReader
+    */
+   public static void main (String[] args) throws IOException {
+      CsvReader empty = new CsvReader (new StringReader (""), ',', 4);
+      check (!empty.next () && !empty.next (), "empty input");
+      CsvReader blank = new CsvReader (new StringReader ("\n\r\n\n"), ',', 4);
+      check (!blank.next (), "only empty lines");
+
+      // a buffer of 4 characters splits most records and escapes across
+      // reads; escaped delimiters and newlines stay inside their field, and
+      // \N is NULL only as a whole field
+      String input = "1,plain,\\N\r\n"
+         + "2,a\\,b,\\\\N\n"
+         + "\n"
+         + "3,line\\none\\\nline two,\n"
+         + "4,tab\\there,,\\N\n"
+         + "5,last";
+      CsvReader in = new CsvReader (new StringReader (input), ',', 4);
+      check (in.next () && in.fieldCount () == 3 && in.getInt (0) == 1 && "plain".equals (in.getString (1))
+         && in.isNull (2) && in.getString (2) == null, "NULL and CRLF");
+      check (in.next () && in.fieldCount () == 3 && "a,b".equals (in.getString (1)) && !in.isNull (2)
+         && "\\N".equals (in.getString (2)), "escaped delimiter and backslash");
+      check (in.next () && in.lineNumber () == 4 && in.fieldCount () == 3
+         && "line\none\nline two".equals (in.getString (1)) && "".equals (in.getString (2)) && !in.isNull (2),
+         "escaped newlines and a trailing empty field");
+      check (in.next () && in.fieldCount () == 4 && "tab\there".equals (in.getString (1)) && "".equals (in.getString (2))
+         && in.isNull (3), "empty field and NULL");
+      check (in.next () && in.fieldCount () == 2 && "last".equals (in.getString (1)), "last line without a newline");
+      check (!in.next (), "end of input");
+
+      CsvReader values = new CsvReader (new StringReader ("-42|+7|99.95|-0.5|12345678901234567890.5|2/29/2024|2024-02-29|yes|0"),
+         '|', 64);
+      check (values.next () && values.getLong (0) == -42 && values.getInt (1) == 7, "integers");
+      check (values.getDecimal (2).equals (new BigDecimal("99.95")) && values.getDecimal (3).equals (new BigDecimal("-0.5"))
+         && values.getDecimal (4).equals (new BigDecimal("12345678901234567890.5")), "decimals");
+      check (values.getDate (5).toString ().equals ("2024-02-29") && values.getDate (6).toString ().equals ("2024-02-29"),
+         "dates");
+      check (values.getBoolean (7) && !values.getBoolean (8), "booleans");
+
+      CsvReader bad = new CsvReader (new StringReader ("x,2/30/2023,3000000000,1-2/3,,maybe"), ',', 64);
+      bad.next ();
+      for (int field = 0; field <= 6; ++field) {
+         try{
+            switch (field) {
+               case 0: bad.getInt (0); break;
+               case 1: bad.getDate (1); break;
+               case 2: bad.getInt (2); break;
+               case 3: bad.getDate (3); break;
+               case 4: bad.getDecimal (4); break;
+               case 5: bad.getBoolean (5); break;
+               default: bad.getString (6); break;
+            }//end switch
+            check (false, "accepted field " + (field + 1) + " of " + "x,2/30/2023,3000000000,1-2/3,,maybe");
+         }catch (IllegalArgumentException e){
+            // expected
+         }//end try
+      }//end for
+      System.out.println ("CsvReader: ok");
+   }//end main
+
+   private static void check (boolean ok, String what) {
+      if (!ok)
+         throw new IllegalStateException("self-check failed: " + what);
+   }//end check
+
+}//end CsvReader
@@ -0,0 +1,343 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resolves customer names to customer IDs without going to the database.
+ *
+ * Every customer is kept twice in sorted arrays, once ordered by last then
+ * first name and once by first then last name, both lower case.  A lookup
+ * by full name or by the beginning of a name is a binary search for the
+ * first candidate followed by a walk over the matching ones.
+ *
+ * Names are compared like the CHAR(30) columns they come from, that is
+ * without trailing blanks.  Exact lookups are case sensitive like the SQL
+ * they replace; prefix lookups are not.  Customers added through
+ * DBProject.addCustomer are added in place.  Customers written by other
+ * programs are found by an exact lookup that misses, which asks the
+ * database (through customer_name_idx) and adds what it finds, and by
+ * every lookup after reload, which DBProject runs in the background at an
+ * interval.  A name the database does not have either is remembered as
+ * missing until the next reload, so a mistyped name is looked up once.
+ *
+ * Both queries go through DBProject.executeQuery, the load streamed
+ * through a server-side cursor, so they are admitted, timed out and
+ * release a broken connection like any other query.
+ */
+public class CustomerNameResolver {
+
+   private static final String LOAD_CUSTOMERS_SQL =
+      "SELECT customerID, fname, lname FROM Customer";
+   private static final String FIND_CUSTOMERS_SQL =
+      "SELECT customerID, fname, lname FROM Customer WHERE fname = ? AND lname = ?";
+
+   // rows fetched per round trip while loading.
+   private static final int LOAD_BATCH = 10000;
+
+   // names remembered as missing at most; past it they are forgotten.
+   private static final int MAX_MISSING = 4096;
+
+   /** A customer as the resolver knows it. */
+   public static class Customer {
+      private final int _id;
+      private final String _fname;
+      private final String _lname;
+      // lower case "lname\0fname" and "fname\0lname"
+      private final String _lastKey;
+      private final String _firstKey;
+
+      Customer (int id, String fname, String lname) {
+         this._id = id;
+         this._fname = rtrim (fname);
+         this._lname = rtrim (lname);
+         this._lastKey = lower (this._lname) + '\u0000' + lower (this._fname);
+         this._firstKey = lower (this._fname) + '\u0000' + lower (this._lname);
+      }//end Customer
+
+      public int id () { return this._id; }
+      public String fname () { return this._fname; }
+      public String lname () { return this._lname; }
+
+      @Override
+      public String toString () {
+         return this._id + "\t" + this._fname + " " + this._lname;
+      }//end toString
+   }//end Customer
+
+   private static final Comparator<Customer> BY_LAST = new Comparator<Customer>() {
+      public int compare (Customer a, Customer b) {
+         int c = a._lastKey.compareTo (b._lastKey);
+         return c != 0 ? c : a._id - b._id;
+      }
+   };
+
+   private static final Comparator<Customer> BY_FIRST = new Comparator<Customer>() {
+      public int compare (Customer a, Customer b) {
+         int c = a._firstKey.compareTo (b._firstKey);
+         return c != 0 ? c : a._id - b._id;
+      }
+   };
+
+   private final DBProject _esql;
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock ();
+   private Customer[] _byLast = new Customer[0];
+   private Customer[] _byFirst = new Customer[0];
+   private int _size = 0;
+
+   // exact names ("fname\0lname") the database had no customer of when
+   // last asked; cleared by reload.
+   private final Set<String> _missing = new HashSet<String>();
+
+   // customers added while a reload reads the table, null when none runs;
+   // guarded by _lock.
+   private List<Customer> _sinceReload = null;
+
+   /**
+    * Creates an empty resolver; call reload to fill it.
+    *
+    * @param esql the session whose queries load the resolver
+    */
+   public CustomerNameResolver (DBProject esql) {
+      this._esql = esql;
+   }//end CustomerNameResolver
+
+   /**
+    * Replaces the resolver's customers with the content of Customer.
+    * Customers added while the table is read may have committed after the
+    * read's snapshot was taken, so they are kept aside and added again.
+    *
+    * @throws java.sql.SQLException when reading the table failed
+    */
+   public synchronized void reload () throws SQLException {
+      this._lock.writeLock ().lock ();
+      try{
+         this._sinceReload = new ArrayList<Customer>();
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+      try{
+         load ();
+      }finally{
+         this._lock.writeLock ().lock ();
+         try{
+            this._sinceReload = null;
+         }finally{
+            this._lock.writeLock ().unlock ();
+         }//end try
+      }//end try
+   }//end reload
+
+   private void load () throws SQLException {
+      final List<Customer> customers = new ArrayList<Customer>();
+      Metrics.Operation op = this._esql.metrics ().begin ("reloadCustomers");
+      try{
+         op.done (this._esql.executeQuery (new ResultSink.Each() {
+            protected void row (String[] values) {
+               customers.add (new Customer(Integer.parseInt (values[0]), values[1], values[2]));
+            }
+         }, LOAD_BATCH, LOAD_CUSTOMERS_SQL));
+      }finally{
+         op.end ();
+      }//end try
+
+      Customer[] byLast = customers.toArray (new Customer[customers.size ()]);
+      Customer[] byFirst = byLast.clone ();
+      Arrays.sort (byLast, BY_LAST);
+      Arrays.sort (byFirst, BY_FIRST);
+      this._lock.writeLock ().lock ();
+      try{
+         this._byLast = byLast;
+         this._byFirst = byFirst;
+         this._size = byLast.length;
+         this._missing.clear ();
+         for (Customer customer : this._sinceReload)
+            insert (customer);
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end load
+
+   /**
+    * Adds a customer that was just written to the database.
+    */
+   public void add (int customerID, String fname, String lname) {
+      Customer customer = new Customer(customerID, fname, lname);
+      this._lock.writeLock ().lock ();
+      try{
+         if (this._sinceReload != null)
+            this._sinceReload.add (customer);
+         insert (customer);
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end add
+
+   /** Adds a customer unless it is known already; holding the write lock. */
+   private void insert (Customer customer) {
+      this._missing.remove (customer._fname + '\u0000' + customer._lname);
+      if (Arrays.binarySearch (this._byLast, 0, this._size, customer, BY_LAST) >= 0)
+         return;
+      if (this._size == this._byLast.length) {
+         int capacity = Math.max (16, this._size * 3 / 2);
+         this._byLast = Arrays.copyOf (this._byLast, capacity);
+         this._byFirst = Arrays.copyOf (this._byFirst, capacity);
+      }//end if
+      insert (this._byLast, this._size, customer, BY_LAST);
+      insert (this._byFirst, this._size, customer, BY_FIRST);
+      ++this._size;
+   }//end insert
+
+   private static void insert (Customer[] sorted, int size, Customer customer, Comparator<Customer> order) {
+      int i = Arrays.binarySearch (sorted, 0, size, customer, order);
+      i = i < 0 ? -i - 1 : i;
+      System.arraycopy (sorted, i, sorted, i + 1, size - i);
+      sorted[i] = customer;
+   }//end insert
+
+   /**
+    * Returns the IDs of the customers with exactly this name, in ascending
+    * order.  When the resolver knows nobody of that name and the name is
+    * not remembered as missing, the database is asked and the customers it
+    * has are added.
+    *
+    * @throws java.sql.SQLException when reading the table failed
+    */
+   public int[] exact (String fname, String lname) throws SQLException {
+      int[] ids = known (fname, lname);
+      if (ids.length > 0)
+         return ids;
+      String name = rtrim (fname) + '\u0000' + rtrim (lname);
+      this._lock.readLock ().lock ();
+      try{
+         if (this._missing.contains (name))
+            return ids;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+
+      Metrics.Operation op = this._esql.metrics ().begin ("findCustomer");
+      try{
+         op.done (this._esql.executeQuery (new ResultSink.Each() {
+            protected void row (String[] values) {
+               add (Integer.parseInt (values[0]), values[1], values[2]);
+            }
+         }, FIND_CUSTOMERS_SQL, fname, lname));
+      }finally{
+         op.end ();
+      }//end try
+
+      this._lock.writeLock ().lock ();
+      try{
+         ids = known (fname, lname);
+         if (ids.length == 0) {
+            if (this._missing.size () >= MAX_MISSING)
+               this._missing.clear ();
+            this._missing.add (name);
+         }//end if
+         return ids;
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end exact
+
+   private int[] known (String fname, String lname) {
+      String first = rtrim (fname);
+      String last = rtrim (lname);
+      String key = lower (last) + '\u0000' + lower (first);
+      this._lock.readLock ().lock ();
+      try{
+         int[] ids = new int[4];
+         int count = 0;
+         for (int i = lowerBound (this._byLast, key, true); i < this._size && this._byLast[i]._lastKey.equals (key); ++i) {
+            Customer c = this._byLast[i];
+            if (c._fname.equals (first) && c._lname.equals (last)) {
+               if (count == ids.length)
+                  ids = Arrays.copyOf (ids, count * 2);
+               ids[count++] = c._id;
+            }//end if
+         }//end for
+         return Arrays.copyOf (ids, count);
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end known
+
+   /**
+    * Returns the customers whose first and last names start with the given
+    * prefixes, ignoring case, ordered by name.  An empty prefix matches any
+    * name, but not both may be empty.
+    *
+    * @param limit the maximum number of customers returned
+    */
+   public List<Customer> prefix (String fnamePrefix, String lnamePrefix, int limit) {
+      String first = lower (fnamePrefix.trim ());
+      String last = lower (lnamePrefix.trim ());
+      if (first.isEmpty () && last.isEmpty ())
+         throw new IllegalArgumentException("Enter at least the beginning of a first or last name");
+      List<Customer> matches = new ArrayList<Customer>();
+      this._lock.readLock ().lock ();
+      try{
+         // walk the customers in last name order when a last name prefix is
+         // given, in first name order otherwise, and filter on the other one.
+         boolean byLast = !last.isEmpty ();
+         Customer[] sorted = byLast ? this._byLast : this._byFirst;
+         String start = byLast ? last : first;
+         for (int i = lowerBound (sorted, start, byLast); i < this._size && matches.size () < limit; ++i) {
+            Customer c = sorted[i];
+            String key = byLast ? c._lastKey : c._firstKey;
+            if (!key.startsWith (start))
+               break;
+            if (lower (c._fname).startsWith (first) && lower (c._lname).startsWith (last))
+               matches.add (c);
+         }//end for
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+      return matches;
+   }//end prefix
+
+   /** First index whose key is >= the given key. */
+   private int lowerBound (Customer[] sorted, String key, boolean byLast) {
+      int lo = 0, hi = this._size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         String k = byLast ? sorted[mid]._lastKey : sorted[mid]._firstKey;
+         if (k.compareTo (key) < 0)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }//end while
+      return lo;
+   }//end lowerBound
+
+   /** Returns the number of customers known. */
+   public int size () {
+      this._lock.readLock ().lock ();
+      try{
+         return this._size;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end size
+
+   /** Trailing blanks do not count in CHAR comparisons. */
+   static String rtrim (String s) {
+      if (s == null)
+         return "";
+      int end = s.length ();
+      while (end > 0 && s.charAt (end - 1) == ' ')
+         --end;
+      return s.substring (0, end);
+   }//end rtrim
+
+   static String lower (String s) {
+      return s.toLowerCase (Locale.ROOT);
+   }//end lower
+
+}//end CustomerNameResolver
@@ -0,0 +1,413 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks for DBProject, in two suites:
+ *
+ *   micro  client-side hot paths in isolation: parsing and binding the
+ *          arguments of each menu operation, writing results through each
+ *          ResultSink (from a stub ResultSet) and parsing data/booking.csv.
+ *          Needs no database.
+ *   e2e    latency of each of the 16 menu operations against a database
+ *          loaded from sql/create.sql.  The insert operations add rows, so
+ *          run it against a scratch database.  The prepare.* benchmarks run
+ *          a few read queries through a statement cache that prepares them
+ *          on the server and through one that does not, on one connection,
+ *          to show what server-side prepare saves per execution.
+ *
+ * Every benchmark is warmed up and then measured for a number of timed
+ * iterations.  Results are written as CSV (one line per benchmark) so runs
+ * of different commits can be compared with any diff or spreadsheet tool.
+ *
+ * Usage: java DBBenchmark micro [name filter]
+ *        java DBBenchmark e2e <dbname> <port> <user> [name filter]
+ *
+ * Settings (system properties): bench.warmup (iterations, default 3),
+ * bench.iterations (default 5), bench.iterationMs (default 1000),
+ * bench.out (CSV file, default standard out), bench.label (a tag written on
+ * every line, e.g. the commit id), bench.data (data directory, default ../data).
+ */
+public class DBBenchmark {
+
+   /** One invocation of the code under test. */
+   interface Task {
+      void run () throws Exception;
+   }//end Task
+
+   static final String CSV_HEADER =
+      "label,suite,benchmark,iterations,invocations,ns_per_op,error_ns,p50_ns,p99_ns,max_ns";
+
+   private final int _warmup;
+   private final int _iterations;
+   private final long _iterationNanos;
+   private final String _label;
+   private final PrintStream _out;
+
+   // keeps results alive so the JIT cannot drop the work producing them.
+   static volatile long blackhole;
+
+   DBBenchmark (int warmup, int iterations, long iterationMs, String label, PrintStream out) {
+      this._warmup = warmup;
+      this._iterations = iterations;
+      this._iterationNanos = iterationMs * 1000000L;
+      this._label = label;
+      this._out = out;
+   }//end DBBenchmark
+
+   /**
+    * Runs a benchmark for the configured warmup and measurement iterations
+    * and writes its line.  When latencies is set every invocation is timed
+    * on its own, for the percentile columns; otherwise only the mean time
+    * per operation is reported.
+    *
+    * @param opsPerInvocation operations done by one task invocation
+    */
+   void measure (String suite, String name, int opsPerInvocation, boolean latencies, Task task) throws Exception {
+      for (int i = 0; i < this._warmup; ++i)
+         iteration (task, null);
+      double[] nsPerOp = new double[this._iterations];
+      long invocations = 0;
+      LongList samples = latencies ? new LongList() : null;
+      for (int i = 0; i < this._iterations; ++i) {
+         long[] run = iteration (task, samples);
+         invocations += run[0];
+         nsPerOp[i] = (double) run[1] / run[0] / opsPerInvocation;
+      }//end for
+
+      double mean = 0;
+      for (double v : nsPerOp)
+         mean += v;
+      mean /= nsPerOp.length;
+      double variance = 0;
+      for (double v : nsPerOp)
+         variance += (v - mean) * (v - mean);
+      double error = nsPerOp.length > 1 ? Math.sqrt (variance / (nsPerOp.length - 1)) : 0.0;
+
+      String p50 = "", p99 = "", max = "";
+      if (samples != null && samples.size () > 0) {
+         long[] sorted = samples.sorted ();
+         p50 = Long.toString (sorted[(int) (0.50 * (sorted.length - 1))]);
+         p99 = Long.toString (sorted[(int) (0.99 * (sorted.length - 1))]);
+         max = Long.toString (sorted[sorted.length - 1]);
+      }//end if
+      this._out.println (String.format ("%s,%s,%s,%d,%d,%.1f,%.1f,%s,%s,%s",
+         this._label, suite, name, this._iterations, invocations, mean, error, p50, p99, max));
+      this._out.flush ();
+   }//end measure
+
+   /** Runs the task until the iteration time is up; returns {invocations, nanos}. */
+   private long[] iteration (Task task, LongList samples) throws Exception {
+      long count = 0;
+      long start = System.nanoTime ();
+      long deadline = start + this._iterationNanos;
+      long now = start;
+      while (now < deadline) {
+         task.run ();
+         ++count;
+         long end = System.nanoTime ();
+         if (samples != null)
+            samples.add (end - now);
+         now = end;
+      }//end while
+      return new long[]{count, now - start};
+   }//end iteration
+
+   // ------------------------------------------------------------------
+   // micro suite
+   // ------------------------------------------------------------------
+
+   void micro (String filter, File dataDir) throws Exception {
+      final PreparedStatement stmt = stubStatement ();
+
+      // argument parsing and binding of each menu operation, with the
+      // inputs an operator would type.
+      Map<String, Task> ops = new LinkedHashMap<String, Task>();
+      ops.put ("bind.addCustomer", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{"John", "Smith", "1 Main St", Long.parseLong ("9515551234"),
+            DBProject.parseDate ("1980-01-31", "yyyy-MM-dd"), "Male"}); }});
+      ops.put ("bind.addRoom", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Integer.parseInt ("12"), Integer.parseInt ("101"), "Suite"}); }});
+      ops.put ("bind.addMaintenanceCompany", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{"Fixit", "2 Elm St", DBProject.parseFlag ("Y")}); }});
+      ops.put ("bind.addRepair", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Integer.parseInt ("12"), Integer.parseInt ("101"), Integer.parseInt ("3"),
+            DBProject.parseDate ("2015-04-09", "yyyy-MM-dd"), "leak", "Small"}); }});
+      ops.put ("bind.bookRoom", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Integer.parseInt ("12"), Integer.parseInt ("101"), Integer.parseInt ("42"),
+            DBProject.parseDate ("2015-05-12", "yyyy-MM-dd"), new BigDecimal("150.00")}); }});
+      ops.put ("bind.assignHouseCleaningToRoom", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Long.parseLong ("7"), Integer.parseInt ("12"), Integer.parseInt ("101")}); }});
+      ops.put ("bind.repairRequest", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Long.parseLong ("1"), Integer.parseInt ("5"),
+            DBProject.parseDate ("2015-05-02", "yyyy-MM-dd"), "please fix"}); }});
+      ops.put ("bind.numberOfAvailableRooms", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Integer.parseInt ("12")}); }});
+      ops.put ("bind.numberOfBookedRooms", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Integer.parseInt ("12")}); }});
+      ops.put ("bind.listHotelRoomBookingsForAWeek", new Task () { public void run () throws Exception {
+         Date start = DBProject.parseDate ("05/12/2015", "MM/dd/yyyy");
+         DBProject.bind (stmt, new Object[]{Integer.parseInt ("12"), start, DBProject.addDays (start, 6)}); }});
+      ops.put ("bind.topKHighestRoomPriceForADateRange", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{DBProject.parseDate ("01/01/2015", "MM/dd/yyyy"),
+            DBProject.parseDate ("12/31/2015", "MM/dd/yyyy"), Integer.parseInt ("10")}); }});
+      ops.put ("bind.topKHighestPriceBookingsForACustomer", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{DBProject.idArray (new int[]{Integer.parseInt ("381")}),
+            Integer.parseInt ("10")}); }});
+      ops.put ("bind.totalCostForCustomer", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{DBProject.idArray (new int[]{Integer.parseInt ("381")}),
+            DBProject.parseDate ("01/01/2015", "MM/dd/yyyy"),
+            DBProject.parseDate ("12/31/2015", "MM/dd/yyyy"), Integer.parseInt ("12")}); }});
+      ops.put ("bind.listRepairsMade", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{"iqcq"}); }});
+      ops.put ("bind.topKMaintenanceCompany", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Integer.parseInt ("5")}); }});
+      ops.put ("bind.numberOfRepairsForEachRoomPerYear", new Task () { public void run () throws Exception {
+         DBProject.bind (stmt, new Object[]{Integer.parseInt ("12"), Integer.parseInt ("101")}); }});
+      for (Map.Entry<String, Task> op : ops.entrySet ()) {
+         if (op.getKey ().contains (filter))
+            measure ("micro", op.getKey (), 1, false, op.getValue ());
+      }//end for
+
+      // result formatting: a booking-shaped result written through each sink.
+      final int rows = 10000;
+      final String[][] data = new String[rows][];
+      Random random = new Random(42);
+      for (int i = 0; i < rows; ++i)
+         data[i] = new String[]{Integer.toString (random.nextInt (1000)), Integer.toString (random.nextInt (10)),
+            (100 + random.nextInt (1900)) + ".00"};
+      final String[] columns = {"hotelid", "roomno", "price"};
+      for (final String format : new String[]{"tab", "csv", "count"}) {
+         String name = "format." + format;
+         if (!name.contains (filter))
+            continue;
+         measure ("micro", name, rows, false, new Task () { public void run () throws Exception {
+            ResultSink sink = ResultSink.forName (format, NULL_WRITER);
+            blackhole += DBProject.writeResult (stubResultSet (columns, data), sink); }});
+      }//end for
+
+      // CSV parsing: data/booking.csv held in memory, so only parsing is timed.
+      File bookings = new File(dataDir, "booking.csv");
+      if ("parse.booking".contains (filter) && bookings.isFile ()) {
+         final String text = new String(Files.readAllBytes (bookings.toPath ()), Charset.forName ("UTF-8"));
+         int lines = 0;
+         for (int i = 0; i < text.length (); ++i)
+            lines += text.charAt (i) == '\n' ? 1 : 0;
+         measure ("micro", "parse.booking", Math.max (lines, 1), false, new Task () { public void run () throws Exception {
+            CsvReader reader = new CsvReader(new StringReader(text), ',', 1 << 16);
+            long sum = 0;
+            while (reader.next ()) {
+               sum += reader.getInt (0) + reader.getInt (1) + reader.getInt (2) + reader.getInt (3);
+               sum += reader.getDate (4).getTime () + reader.getLong (5) + reader.getDecimal (6).scale ();
+            }//end while
+            blackhole += sum; }});
+      }//end if
+   }//end micro
+
+   // ------------------------------------------------------------------
+   // end-to-end suite
+   // ------------------------------------------------------------------
+
+   void e2e (final DBProject esql, String filter) throws Exception {
+      final Random random = new Random(42);
+      final ResultSink sink = new ResultSink.Count(null);
+      final Date day = DBProject.parseDate ("2015-05-12", "yyyy-MM-dd");
+      final Date yearEnd = DBProject.parseDate ("2015-12-31", "yyyy-MM-dd");
+      final Date yearStart = DBProject.parseDate ("2015-01-01", "yyyy-MM-dd");
+      // room numbers well above those of data/room.csv, so addRoom does not collide.
+      final int[] nextRoom = {1000000 + random.nextInt (1000000)};
+      // days a century and more after those of data/booking.csv, one per call
+      // on the same room, so bookRoom does not hit bookingSlotConstraint.
+      final int[] nextDay = {36500 + random.nextInt (100000)};
+
+      // IDs below are present in the bundled data/ files.
+      Map<String, Task> ops = new LinkedHashMap<String, Task>();
+      ops.put ("op01.addCustomer", new Task () { public void run () throws Exception {
+         esql.addCustomer ("bench", "customer", "1 Bench St", 9515550000L, day, "Other"); }});
+      ops.put ("op02.addRoom", new Task () { public void run () throws Exception {
+         esql.addRoom (1, nextRoom[0]++, "Suite"); }});
+      ops.put ("op03.addMaintenanceCompany", new Task () { public void run () throws Exception {
+         esql.addMaintenanceCompany ("bench", "1 Bench St", true); }});
+      ops.put ("op04.addRepair", new Task () { public void run () throws Exception {
+         esql.addRepair (1, 1, 1, day, "bench repair", "Small"); }});
+      ops.put ("op05.bookRoom", new Task () { public void run () throws Exception {
+         esql.bookRoom (1, 1, 1 + random.nextInt (2000),
+            DBProject.addDays (day, nextDay[0]++), new BigDecimal(100 + random.nextInt (1900))); }});
+      ops.put ("op06.assignHouseCleaningToRoom", new Task () { public void run () throws Exception {
+         esql.assignHouseCleaningToRoom (2, 1, 1); }});
+      ops.put ("op07.repairRequest", new Task () { public void run () throws Exception {
+         esql.repairRequest (1, 1, day, "bench request"); }});
+      ops.put ("op08.numberOfAvailableRooms", new Task () { public void run () throws Exception {
+         blackhole += esql.numberOfAvailableRooms (1 + random.nextInt (1000), sink); }});
+      ops.put ("op09.numberOfBookedRooms", new Task () { public void run () throws Exception {
+         blackhole += esql.numberOfBookedRooms (1 + random.nextInt (1000), sink); }});
+      ops.put ("op10.listHotelRoomBookingsForAWeek", new Task () { public void run () throws Exception {
+         blackhole += esql.listHotelRoomBookingsForAWeek (1 + random.nextInt (1000),
+            DBProject.addDays (day, -random.nextInt (5000)), sink); }});
+      ops.put ("op11.topKHighestRoomPriceForADateRange", new Task () { public void run () throws Exception {
+         blackhole += esql.topKHighestRoomPriceForADateRange (yearStart, yearEnd, 10, sink); }});
+      ops.put ("op12.topKHighestPriceBookingsForACustomer", new Task () { public void run () throws Exception {
+         blackhole += esql.topKHighestPriceBookingsForACustomer ("rzqs", "eyeg", 10, sink); }});
+      ops.put ("op13.totalCostForCustomer", new Task () { public void run () throws Exception {
+         blackhole += esql.totalCostForCustomer ("rzqs", "eyeg", yearStart, yearEnd, 381, sink); }});
+      ops.put ("op14.listRepairsMade", new Task () { public void run () throws Exception {
+         blackhole += esql.listRepairsMade ("iqcq", sink); }});
+      ops.put ("op15.topKMaintenanceCompany", new Task () { public void run () throws Exception {
+         blackhole += esql.topKMaintenanceCompany (5, sink); }});
+      ops.put ("op16.numberOfRepairsForEachRoomPerYear", new Task () { public void run () throws Exception {
+         blackhole += esql.numberOfRepairsForEachRoomPerYear (145, 4, sink); }});
+      for (Map.Entry<String, Task> op : ops.entrySet ()) {
+         if (op.getKey ().contains (filter))
+            measure ("e2e", op.getKey (), 1, true, op.getValue ());
+      }//end for
+
+      Map<String, Object[]> queries = new LinkedHashMap<String, Object[]>();
+      queries.put ("availableRooms", new Object[]{DBProject.AVAILABLE_ROOMS_SQL, 1});
+      queries.put ("bookingsForAWeek", new Object[]{DBProject.BOOKINGS_FOR_A_WEEK_SQL, 1, day, DBProject.addDays (day, 6)});
+      queries.put ("topKRoomPrice", new Object[]{DBProject.TOP_K_ROOM_PRICE_SQL, yearStart, yearEnd, 10});
+      queries.put ("topKCompany", new Object[]{DBProject.TOP_K_COMPANY_SQL, 5});
+      ConnectionPool.PooledConnection pc = esql.pool ().borrow ();
+      try{
+         for (final boolean server : new boolean[]{true, false}) {
+            final StatementCache statements = new StatementCache(pc.connection (), 16, server);
+            try{
+               for (Map.Entry<String, Object[]> query : queries.entrySet ()) {
+                  String name = "prepare." + query.getKey () + (server ? ".server" : ".client");
+                  if (!name.contains (filter))
+                     continue;
+                  final String sql = (String) query.getValue ()[0];
+                  final Object[] params = Arrays.copyOfRange (query.getValue (), 1, query.getValue ().length);
+                  measure ("e2e", name, 1, true, new Task () { public void run () throws Exception {
+                     PreparedStatement stmt = statements.prepare (sql);
+                     DBProject.bind (stmt, params);
+                     blackhole += DBProject.writeResult (stmt.executeQuery (), sink); }});
+               }//end for
+            }finally{
+               statements.close ();
+            }//end try
+         }//end for
+      }finally{
+         esql.pool ().release (pc);
+      }//end try
+   }//end e2e
+
+   // ------------------------------------------------------------------
+   // stubs and helpers
+   // ------------------------------------------------------------------
+
+   static final Writer NULL_WRITER = new Writer () {
+      public void write (char[] buf, int off, int len) { blackhole += len; }
+      public void flush () {}
+      public void close () {}
+   };
+
+   /** A PreparedStatement that accepts and drops every call. */
+   static PreparedStatement stubStatement () {
+      return (PreparedStatement) Proxy.newProxyInstance (DBBenchmark.class.getClassLoader (),
+         new Class<?>[]{PreparedStatement.class}, new InvocationHandler () {
+            public Object invoke (Object proxy, Method method, Object[] args) {
+               if (args != null)
+                  blackhole += args.length;
+               return null;
+            }
+         });
+   }//end stubStatement
+
+   /** A forward-only ResultSet over the given rows. */
+   static ResultSet stubResultSet (final String[] columns, final String[][] rows) {
+      final ResultSetMetaData rsmd = (ResultSetMetaData) Proxy.newProxyInstance (DBBenchmark.class.getClassLoader (),
+         new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler () {
+            public Object invoke (Object proxy, Method method, Object[] args) {
+               if (method.getName ().equals ("getColumnCount"))
+                  return columns.length;
+               return columns[(Integer) args[0] - 1];
+            }
+         });
+      return (ResultSet) Proxy.newProxyInstance (DBBenchmark.class.getClassLoader (),
+         new Class<?>[]{ResultSet.class}, new InvocationHandler () {
+            int row = -1;
+            public Object invoke (Object proxy, Method method, Object[] args) {
+               String name = method.getName ();
+               if (name.equals ("next"))
+                  return ++this.row < rows.length;
+               if (name.equals ("getString"))
+                  return rows[this.row][(Integer) args[0] - 1];
+               if (name.equals ("getMetaData"))
+                  return rsmd;
+               return null;
+            }
+         });
+   }//end stubResultSet
+
+   /** A growable list of primitive longs. */
+   static class LongList {
+      private long[] _values = new long[1024];
+      private int _size = 0;
+
+      void add (long value) {
+         if (this._size == this._values.length)
+            this._values = Arrays.copyOf (this._values, this._size * 2);
+         this._values[this._size++] = value;
+      }//end add
+
+      int size () { return this._size; }
+
+      long[] sorted () {
+         long[] copy = Arrays.copyOf (this._values, this._size);
+         Arrays.sort (copy);
+         return copy;
+      }//end sorted
+   }//end LongList
+
+   public static void main (String[] args) {
+      if (args.length < 1 || !(args[0].equals ("micro") || (args[0].equals ("e2e") && args.length >= 4))) {
+         System.err.println ("Usage: java [-classpath <classpath>] " + DBBenchmark.class.getName () + " micro [filter]\n"
+            + "       java [-classpath <classpath>] " + DBBenchmark.class.getName () + " e2e <dbname> <port> <user> [filter]");
+         return;
+      }//end if
+      PrintStream out = System.out;
+      DBProject esql = null;
+      try{
+         String file = System.getProperty ("bench.out");
+         if (file != null)
+            out = new PrintStream(new FileOutputStream(file, true), true, "UTF-8");
+         DBBenchmark bench = new DBBenchmark (
+            DBProject.intSetting ("bench.warmup", 3),
+            DBProject.intSetting ("bench.iterations", 5),
+            DBProject.intSetting ("bench.iterationMs", 1000),
+            System.getProperty ("bench.label", "local"), out);
+         out.println (CSV_HEADER);
+         if (args[0].equals ("micro")) {
+            bench.micro (args.length > 1 ? args[1] : "", new File(System.getProperty ("bench.data", "../data")));
+         } else {
+            Class.forName ("org.postgresql.Driver");
+            esql = new DBProject (args[1], args[2], args[3], "");
+            bench.e2e (esql, args.length > 4 ? args[4] : "");
+         }//end if
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+         if (out != System.out)
+            out.close ();
+      }//end try
+   }//end main
+
+}//end DBBenchmark
@@ -11,16 +11,31 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -29,8 +44,68 @@ import java.io.InputStreamReader;
  */
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by all operations.
+   private ConnectionPool _pool = null;
+
+   // rows fetched per round trip when streaming a result; 0 reads the whole
+   // result at once.
+   private int _fetchSize = intSetting("dbproject.fetchSize", 0);
+
+   // rows per page of the menu listings 10 and 14; 0 prints them whole.
+   private int _pageSize = intSetting("dbproject.pageSize", 20);
+
+   // format of the results printed by the menu (tab, csv or count).
+   private String _outputFormat = System.getProperty("dbproject.output", "tab");
+
+   // cached results of the count and repair reports; null when disabled
+   // with dbproject.resultCache.size=0.
+   private ResultCache _resultCache = null;
+
+   // customer names to customer IDs, for the per-customer queries.
+   private CustomerNameResolver _customers = null;
+
+   // in-memory copy of Booking answering menu queries 10 to 13; null unless
+   // enabled with dbproject.analytics=true.
+   private BookingSnapshot _analytics = null;
+
+   // booked days of every room, answering free room queries; null unless
+   // enabled with dbproject.availability=true.
+   private AvailabilityIndex _availability = null;
+
+   // reloads the in-memory indexes in the background, each at its interval;
+   // null until one is scheduled.
+   private ScheduledExecutorService _reloader = null;
+   private final AtomicLong _reloadFailures = new AtomicLong();
+
+   // whether the queries on bookings and repairs also read the archives
+   // (menu option 25).
+   private volatile boolean _includeHistory = Boolean.getBoolean("dbproject.includeHistory");
+
+   // moves old rows into the archive tables (menu option 24).
+   private Archiver _archiver = null;
+
+   // one booking per room and day under concurrent bookRoom calls.
+   private BookingGuard _bookings = null;
+
+   // queue committing inserts in groups; null unless enabled with
+   // dbproject.groupCommit=true.
+   private GroupCommitWriter _writer = null;
+
+   // latency, row and error counts of every operation and statement.
+   private final Metrics _metrics = new Metrics();
+
+   // lanes, timeouts and cancellation of the statements (menu option 23).
+   private AdmissionControl _admission = null;
+
+   // reports running in the background (menu options 18 and 19).
+   private ReportJobs _reports = null;
+
+   // writes tables and results to files (menu options 19 and 21).
+   private Exporter _exporter = null;
+
+   // plans of slow statements (menu option 22); null unless enabled with
+   // dbproject.advisor.slowMs.
+   private QueryAdvisor _advisor = null;
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -54,8 +129,76 @@ public class DBProject {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the connection pool with its minimum number of connections
+         this._pool = new ConnectionPool(url, user, passwd,
+            intSetting("dbproject.pool.min", 1),
+            intSetting("dbproject.pool.max", 8),
+            intSetting("dbproject.pool.idleTimeoutMs", 300000),
+            intSetting("dbproject.pool.borrowTimeoutMs", 30000),
+            intSetting("dbproject.pool.validationIdleMs", 1000),
+            intSetting("dbproject.statementCache.size", 64),
+            Boolean.parseBoolean(System.getProperty("dbproject.statementCache.serverPrepare", "true")));
+         this._admission = newAdmissionControl(this._pool);
+         int cacheSize = intSetting("dbproject.resultCache.size", 1024);
+         if (cacheSize > 0)
+            this._resultCache = new ResultCache(cacheSize, intSetting("dbproject.resultCache.maxRows", 1000),
+               intSetting("dbproject.resultCache.ttlMs", 30000));
+         this._customers = new CustomerNameResolver(this);
+         this._customers.reload();
+         reloadEvery(new Reloadable() {
+            public void reload() throws SQLException { DBProject.this._customers.reload(); }
+         }, intSetting("dbproject.customers.refreshMs", 300000));
+         if (Boolean.getBoolean("dbproject.analytics")) {
+            this._analytics = new BookingSnapshot(this, intSetting("dbproject.analytics.deltaLimit", 4096));
+            this._analytics.reload();
+            reloadEvery(new Reloadable() {
+               public void reload() throws SQLException { DBProject.this._analytics.reload(); }
+            }, intSetting("dbproject.analytics.refreshMs", 60000));
+         }//end if
+         if (Boolean.getBoolean("dbproject.availability")) {
+            this._availability = new AvailabilityIndex(this);
+            this._availability.reload();
+            reloadEvery(new Reloadable() {
+               public void reload() throws SQLException { DBProject.this._availability.reload(); }
+            }, intSetting("dbproject.availability.refreshMs", 60000));
+         }//end if
+         this._bookings = new BookingGuard(intSetting("dbproject.booking.stripes", 1024), this._availability,
+            intSetting("dbproject.booking.maxAttempts", 5),
+            intSetting("dbproject.booking.baseBackoffMs", 5),
+            intSetting("dbproject.booking.maxBackoffMs", 200));
+         if (Boolean.getBoolean("dbproject.groupCommit")) {
+            this._writer = new GroupCommitWriter(this._pool, this._admission, this._metrics,
+               intSetting("dbproject.groupCommit.batchSize", 100),
+               intSetting("dbproject.groupCommit.maxDelayMs", 10));
+         }//end if
+         this._reports = new ReportJobs(intSetting("dbproject.reports.maxConcurrent", 4));
+         this._archiver = new Archiver(this,
+            intSetting("dbproject.archive.batchSize", 1000),
+            intSetting("dbproject.archive.pauseMs", 50));
+         this._exporter = new Exporter(this,
+            intSetting("dbproject.export.fetchSize", 10000),
+            intSetting("dbproject.export.bufferSize", 1 << 20),
+            intSetting("dbproject.export.threads", 4));
+         if (System.getProperty("dbproject.advisor.slowMs") != null) {
+            this._advisor = new QueryAdvisor(this._pool, this._admission,
+               intSetting("dbproject.advisor.slowMs", 100),
+               intSetting("dbproject.advisor.cooldownMs", 60000),
+               intSetting("dbproject.advisor.keep", 100),
+               System.getProperty("dbproject.advisor.file"));
+         }//end if
+         String statsFile = System.getProperty("dbproject.stats.file");
+         if (statsFile != null) {
+            this._metrics.dumpEvery(statsFile, intSetting("dbproject.stats.intervalMs", 60000), new Object() {
+               @Override
+               public String toString () { return resourceStatistics (); }
+            });
+         }//end if
+         if (Boolean.getBoolean("dbproject.partitioned")) {
+            // make sure the Booking and Repair partitions of the coming
+            // months exist (see sql/partition.sql).
+            executeQuery(new ResultSink.Count(null), CREATE_FUTURE_PARTITIONS_SQL,
+               intSetting("dbproject.partitions.monthsAhead", 12));
+         }//end if
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -72,16 +215,111 @@ public class DBProject {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Metrics.Operation op = this._metrics.begin ("executeUpdate");
+      SQLException failure = null;
+      ConnectionPool.PooledConnection pc = null;
+      AdmissionControl.Ticket ticket = null;
+      try{
+         ticket = this._admission.admit (outermost (op), sql);
+         pc = this._pool.borrow (this._admission.timeoutMs (ticket.operation ()));
+         this._admission.start (ticket, pc);
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         op.done (stmt.executeUpdate (sql));
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         finish (ticket, failure);
+         release (pc, failure);
+         op.end ();
+      }//end try
    }//end executeUpdate
 
+   /**
+    * Method to execute a parameterized update SQL statement.  The statement
+    * is taken from the statement cache so that repeated updates of the same
+    * shape are only parsed and planned once.
+    *
+    * @param sql the SQL string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      Metrics.Operation op = this._metrics.begin ("executeUpdate");
+      SQLException failure = null;
+      ConnectionPool.PooledConnection pc = null;
+      AdmissionControl.Ticket ticket = null;
+      try{
+         ticket = this._admission.admit (outermost (op), sql);
+         pc = this._pool.borrow (this._admission.timeoutMs (ticket.operation ()));
+         this._admission.start (ticket, pc);
+         PreparedStatement stmt = pc.statements ().prepare (sql);
+         bind (stmt, params);
+         int rowCount = stmt.executeUpdate ();
+         observe (op, sql, params);
+         return op.done (rowCount);
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         finish (ticket, failure);
+         release (pc, failure);
+         op.end ();
+      }//end try
+   }//end executeUpdate
+
+   /**
+    * Method to run a write: it is queued when group commit is on, and run
+    * in a transaction of its own otherwise.  In both cases the write is
+    * returned as the handle that tells its outcome.
+    *
+    * @param write the statements to run
+    * @return the write
+    * @throws java.sql.SQLException when the write could not be queued
+    */
+   public GroupCommitWriter.Write submit (GroupCommitWriter.Write write) throws SQLException {
+      if (this._writer != null)
+         return this._writer.enqueue (write);
+
+      Metrics.Operation op = this._metrics.begin ("executeUpdate");
+      SQLException failure = null;
+      ConnectionPool.PooledConnection pc = null;
+      AdmissionControl.Ticket ticket = null;
+      int rowCount = 0;
+      try{
+         ticket = this._admission.admit (outermost (op), write.sql ()[0]);
+         pc = this._pool.borrow (this._admission.timeoutMs (ticket.operation ()));
+         this._admission.start (ticket, pc);
+         boolean transaction = write.sql ().length > 1;
+         if (transaction)
+            pc.connection ().setAutoCommit (false);
+         rowCount = GroupCommitWriter.run (pc, write);
+         if (transaction)
+            pc.connection ().commit ();
+         for (int s = 0; s < write.sql ().length; ++s)
+            observe (op, write.sql ()[s], write.params ()[s]);
+         op.done (rowCount);
+      }catch (SQLException e){
+         failure = e;
+      }finally{
+         finish (ticket, failure);
+         release (pc, failure);
+         op.end ();
+      }//end try
+      if (failure != null)
+         write.fail (failure);
+      else
+         write.complete (rowCount, write.key ());
+      return write;
+   }//end submit
+
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
@@ -92,50 +330,462 @@ public class DBProject {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      Metrics.Operation op = this._metrics.begin ("executeQuery");
+      SQLException failure = null;
+      ConnectionPool.PooledConnection pc = null;
+      AdmissionControl.Ticket ticket = null;
+      try{
+         ticket = this._admission.admit (outermost (op), query);
+         pc = this._pool.borrow (this._admission.timeoutMs (ticket.operation ()));
+         this._admission.start (ticket, pc);
+         // creates a statement object
+         Statement stmt = pc.connection ().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         int rowCount = writeResult (rs, console ());
+         stmt.close ();
+         return op.done (rowCount);
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         finish (ticket, failure);
+         release (pc, failure);
+         op.end ();
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Method to execute a parameterized query through the statement cache
+    * and output the results to standard out.
+    *
+    * @param query the query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      return executeQuery (console (), query, params);
+   }//end executeQuery
+
+   /**
+    * Method to execute a parameterized query through the statement cache
+    * and hand its rows to a result sink.  When a fetch size is set the
+    * query runs in a transaction through a server-side cursor (DECLARE, then
+    * FETCH of fetch size rows per round trip), instead of the whole result
+    * being held in memory.
+    *
+    * @param sink where the rows go
+    * @param query the query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (ResultSink sink, String query, Object... params) throws SQLException {
+      return executeQuery (sink, this._fetchSize, query, params);
+   }//end executeQuery
+
+   /**
+    * Like executeQuery (sink, query, params), with the given fetch size
+    * instead of the session's, e.g. to stream a large export through a
+    * cursor whatever the session setting.
+    *
+    * @param fetchSize the rows fetched per round trip, 0 to read the whole result at once
+    */
+   public int executeQuery (ResultSink sink, int fetchSize, String query, Object... params) throws SQLException {
+      Metrics.Operation op = this._metrics.begin ("executeQuery");
+      SQLException failure = null;
+      ConnectionPool.PooledConnection pc = null;
+      AdmissionControl.Ticket ticket = null;
+      int rowCount;
+      try{
+         ticket = this._admission.admit (outermost (op), query);
+         pc = this._pool.borrow (this._admission.timeoutMs (ticket.operation ()));
+         this._admission.start (ticket, pc);
+         if (fetchSize > 0) {
+            // the driver reads every result whole, so stream through a
+            // cursor of our own; an error rolls the transaction back on release.
+            pc.connection ().setAutoCommit (false);
+            ServerCursor cursor = new ServerCursor(pc, fetchSize, query, params);
+            rowCount = writeResult (cursor, sink);
+            cursor.close ();
+            pc.connection ().commit ();
+         } else {
+            PreparedStatement stmt = pc.statements ().prepare (query);
+            bind (stmt, params);
+            ResultSet rs = stmt.executeQuery ();
+            try{
+               rowCount = writeResult (rs, sink);
+            }finally{
+               rs.close ();
+            }//end try
+         }//end if
+         observe (op, query, params);
+         return op.done (rowCount);
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         finish (ticket, failure);
+         release (pc, failure);
+         op.end ();
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Runs a query through the result cache: a cached result for the key is
+    * replayed into the sink, otherwise the query runs and its result is
+    * cached under the key.
+    *
+    * @param key the operation and arguments the result depends on
+    * @param sink where the rows go
+    * @param query the query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   private int executeCachedQuery (String key, ResultSink sink, String query, Object... params) throws SQLException {
+      if (this._resultCache == null)
+         return executeQuery (sink, query, params);
+      ResultCache.Entry entry = this._resultCache.get (key);
+      if (entry != null) {
+         try{
+            return entry.replay (sink);
+         }catch (IOException e){
+            throw sinkFailure (e);
+         }//end try
+      }//end if
+      long version = this._resultCache.version (key);
+      ResultCache.Recorder recorder = this._resultCache.recorder (sink);
+      int rowCount = executeQuery (recorder, query, params);
+      this._resultCache.put (key, recorder, version);
+      return rowCount;
+   }//end executeCachedQuery
+
+   /**
+    * Returns the booking snapshot, or null when it is disabled.
+    */
+   public BookingSnapshot analytics () {
+      return this._analytics;
+   }//end analytics
+
+   /**
+    * Returns the customer name resolver of this session.
+    */
+   public CustomerNameResolver customers () {
+      return this._customers;
+   }//end customers
+
+   /**
+    * Returns the room availability index, or null when it is disabled.
+    */
+   public AvailabilityIndex availability () {
+      return this._availability;
+   }//end availability
+
+   /**
+    * Returns the result cache, or null when it is disabled.
+    */
+   public ResultCache resultCache () {
+      return this._resultCache;
+   }//end resultCache
+
+   /**
+    * Returns the admission control of this session's statements.
+    */
+   public AdmissionControl admission () {
+      return this._admission;
+   }//end admission
+
+   /**
+    * Returns the archiver of this session.
+    */
+   public Archiver archiver () {
+      return this._archiver;
+   }//end archiver
+
+   /**
+    * Returns the booking guard of this session.
+    */
+   public BookingGuard bookings () {
+      return this._bookings;
+   }//end bookings
+
+   /**
+    * Returns the background report jobs of this session.
+    */
+   public ReportJobs reports () {
+      return this._reports;
+   }//end reports
+
+   /**
+    * Returns the exporter writing tables and results of this session to
+    * files.
+    */
+   public Exporter exporter () {
+      return this._exporter;
+   }//end exporter
+
+   /**
+    * Returns the slow query advisor of this session, or null when it is
+    * off.
+    */
+   public QueryAdvisor advisor () {
+      return this._advisor;
+   }//end advisor
+
+   /**
+    * Returns the latency, row and error counters of this session.
+    */
+   public Metrics metrics () {
+      return this._metrics;
+   }//end metrics
+
+   /**
+    * Returns the operation statistics followed by the counters of the
+    * connection pool, the statement caches and the result cache.
+    */
+   public String statistics () {
+      return this._metrics.report () + resourceStatistics ();
+   }//end statistics
+
+   private String resourceStatistics () {
+      StringBuilder out = new StringBuilder();
+      long lookups = this._pool.statementHits () + this._pool.statementMisses ();
+      out.append ("connection pool: ").append (this._pool).append ('\n');
+      out.append (String.format ("statement caches: hits=%d misses=%d hitRatio=%.1f%% serverPrepared=%d%n",
+         this._pool.statementHits (), this._pool.statementMisses (),
+         lookups == 0 ? 0.0 : 100.0 * this._pool.statementHits () / lookups,
+         this._pool.serverPrepared ()));
+      out.append ("admission: ").append (this._admission).append ('\n');
+      out.append ("result cache: ").append (this._resultCache == null ? "disabled" : this._resultCache.toString ()).append ('\n');
+      if (this._writer != null)
+         out.append ("group commit: ").append (this._writer).append ('\n');
+      out.append ("customer names: ").append (this._customers.size ()).append ('\n');
+      out.append ("bookings: ").append (this._bookings).append ('\n');
+      if (this._reloader != null)
+         out.append ("background reloads: failed=").append (this._reloadFailures.get ()).append ('\n');
+      if (this._availability != null)
+         out.append ("availability index: ").append (this._availability).append ('\n');
+      if (this._analytics != null)
+         out.append ("booking snapshot: rows=").append (this._analytics.size ()).append ('\n');
+      if (this._advisor != null)
+         out.append ("query advisor: ").append (this._advisor).append ('\n');
+      return out.toString ();
+   }//end resourceStatistics
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Hands a statement that ran for an operation to the query advisor, if
+    * it is on, under the name of the outermost (menu) operation.
+    */
+   private void observe (Metrics.Operation op, String sql, Object[] params) {
+      if (this._advisor == null)
+         return;
+      this._advisor.observe (outermost (op), sql, params, op.elapsed ());
+   }//end observe
+
+   /**
+    * Returns the name of the outermost (menu) operation an operation runs
+    * within.
+    */
+   private static String outermost (Metrics.Operation op) {
+      Metrics.Operation outer = op;
+      while (outer.outer () != null)
+         outer = outer.outer ();
+      return outer.name ();
+   }//end outermost
+
+   /**
+    * Ends a statement's admission, if it was admitted.
+    */
+   private void finish (AdmissionControl.Ticket ticket, SQLException failure) {
+      if (ticket != null)
+         this._admission.finish (ticket, failure);
+   }//end finish
 
+   /**
+    * Hands a result set to a sink, column names first.
+    *
+    * @param rs the result set to read
+    * @param sink where the rows go
+    * @return the number of rows read
+    * @throws java.sql.SQLException when reading the result or writing the rows failed
+    */
+   static int writeResult (ResultSet rs, ResultSink sink) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
        */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
+      String[] columns = columnNames (rs.getMetaData ());
+      int numCol = columns.length;
       int rowCount = 0;
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-	 if(outputHeader){
-	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
-	    }
-	    System.out.println();
-	    outputHeader = false;
-	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
+      try{
+         sink.begin (columns);
+         while (rs.next ()){
+            for (int i = 1; i <= numCol; ++i)
+               sink.value (rs.getString (i));
+            sink.endRow ();
+            ++rowCount;
+         }//end while
+         sink.end ();
+      }catch (IOException e){
+         throw sinkFailure (e);
+      }//end try
       return rowCount;
-   }//end executeQuery
+   }//end writeResult
 
    /**
-    * Method to close the physical connection if it is open.
+    * Hands the rows of a server-side cursor to a sink, column names first,
+    * one fetched batch at a time.
+    *
+    * @param cursor the cursor to read
+    * @param sink where the rows go
+    * @return the number of rows read
+    * @throws java.sql.SQLException when reading the result or writing the rows failed
     */
-   public void cleanup(){
+   static int writeResult (ServerCursor cursor, ResultSink sink) throws SQLException {
+      String[] columns = columnNames (cursor.metaData ());
+      int numCol = columns.length;
+      int rowCount = 0;
+
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
+         sink.begin (columns);
+         while (cursor.next ()){
+            for (int i = 1; i <= numCol; ++i)
+               sink.value (cursor.row ().getString (i));
+            sink.endRow ();
+            ++rowCount;
+         }//end while
+         sink.end ();
+      }catch (IOException e){
+         throw sinkFailure (e);
       }//end try
+      return rowCount;
+   }//end writeResult
+
+   private static String[] columnNames (ResultSetMetaData rsmd) throws SQLException {
+      String[] columns = new String[rsmd.getColumnCount ()];
+      for (int i = 1; i <= columns.length; ++i)
+         columns[i - 1] = rsmd.getColumnName (i);
+      return columns;
+   }//end columnNames
+
+   static SQLException sinkFailure (IOException e) {
+      return new SQLException("Unable to write the result: " + e.getMessage ());
+   }//end sinkFailure
+
+   /**
+    * Returns a new sink that prints to standard out in the configured
+    * output format.
+    */
+   public ResultSink console () {
+      return ResultSink.forName (this._outputFormat, new OutputStreamWriter(System.out));
+   }//end console
+
+   /**
+    * Sets the number of rows fetched per round trip by executeQuery; 0
+    * reads each result in one go.
+    */
+   public void setFetchSize (int fetchSize) {
+      if (fetchSize < 0)
+         throw new IllegalArgumentException("fetch size must not be negative: " + fetchSize);
+      this._fetchSize = fetchSize;
+   }//end setFetchSize
+
+   /**
+    * Gives a borrowed connection back to the pool, dropping it if the
+    * operation failed with a connection error.  Does nothing when the
+    * borrow itself failed.
+    */
+   private void release (ConnectionPool.PooledConnection pc, SQLException failure) {
+      if (pc == null)
+         return;
+      if (failure == null)
+         this._pool.release (pc);
+      else
+         this._pool.release (pc, failure);
+   }//end release
+
+   /**
+    * Binds the given values to the placeholders of a statement.
+    *
+    * @param stmt the statement to bind
+    * @param params the values, in placeholder order
+    * @throws java.sql.SQLException when a value could not be bound
+    */
+   static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      stmt.clearParameters ();
+      for (int i = 0; i < params.length; ++i) {
+         if (params[i] == null)
+            stmt.setNull (i + 1, Types.NULL);
+         else
+            stmt.setObject (i + 1, params[i]);
+      }//end for
+   }//end bind
+
+   /**
+    * Returns the connection pool of this session, for inspecting its
+    * metrics or borrowing a connection for a multi-statement transaction.
+    */
+   public ConnectionPool pool () {
+      return this._pool;
+   }//end pool
+
+   /** An in-memory copy of tables that is reloaded in the background. */
+   interface Reloadable {
+      void reload() throws SQLException;
+   }//end Reloadable
+
+   /*
+    * Reloads an in-memory index every intervalMs on the background reloader
+    * thread, so that the changes of other programs show up without a menu
+    * operation waiting for the load.  A failed reload is counted and leaves
+    * the index as it was until the next one; 0 never reloads.
+    */
+   private synchronized void reloadEvery(final Reloadable index, long intervalMs) {
+      if (intervalMs < 1)
+         return;
+      if (this._reloader == null) {
+         this._reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "index-reload");
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      }//end if
+      this._reloader.scheduleWithFixedDelay(new Runnable() {
+         public void run() {
+            try{
+               index.reload();
+            }catch (Exception e){
+               DBProject.this._reloadFailures.incrementAndGet();
+            }//end try
+         }
+      }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+   }//end reloadEvery
+
+   /**
+    * Method to close the physical connections if they are open.
+    */
+   public void cleanup(){
+      this._metrics.close ();
+      synchronized (this) {
+         if (this._reloader != null)
+            this._reloader.shutdownNow ();
+      }//end synchronized
+      if (this._reports != null)
+         this._reports.close ();
+      if (this._advisor != null)
+         this._advisor.close ();
+      // commits what is still queued
+      if (this._writer != null)
+         this._writer.close ();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -157,7 +807,7 @@ public class DBProject {
       DBProject esql = null;
       try{
          // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
+         Class.forName ("org.postgresql.Driver");
          // instantiate the DBProject object and creates a physical
          // connection.
          String dbname = args[0];
@@ -186,7 +836,17 @@ public class DBProject {
 				System.out.println("14. List the repairs made by maintenance company");
 				System.out.println("15. Get top k maintenance companies based on repair count");
 				System.out.println("16. Get number of repairs occurred per year for a given hotel room");
-				System.out.println("17. < EXIT");
+				System.out.println("17. Show statistics");
+				System.out.println("18. Run a report in the background");
+				System.out.println("19. Get the result of a background report");
+				System.out.println("20. Get free rooms of a hotel for a date range");
+				System.out.println("21. Export a table to a file");
+				System.out.println("22. Show slow query plans and advice");
+				System.out.println("23. Show running queries and cancel one");
+				System.out.println("24. Archive old bookings, repairs and requests");
+				System.out.println("25. Include history in queries (on/off)");
+				System.out.println("26. Search repair and request descriptions");
+				System.out.println("27. < EXIT");
 
             switch (readChoice()){
 				   case 1: addCustomer(esql); break;
@@ -205,7 +865,17 @@ public class DBProject {
 				   case 14: listRepairsMade(esql); break;
 				   case 15: topKMaintenanceCompany(esql); break;
 				   case 16: numberOfRepairsForEachRoomPerYear(esql); break;
-				   case 17: keepon = false; break;
+				   case 17: showStatistics(esql); break;
+				   case 18: submitReport(esql); break;
+				   case 19: fetchReport(esql); break;
+				   case 20: freeRooms(esql); break;
+				   case 21: exportTable(esql); break;
+				   case 22: showQueryAdvice(esql); break;
+				   case 23: cancelQuery(esql); break;
+				   case 24: archive(esql); break;
+				   case 25: includeHistory(esql); break;
+				   case 26: searchDescriptions(esql); break;
+				   case 27: keepon = false; break;
 				   default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
@@ -253,29 +923,788 @@ public class DBProject {
    }//end readChoice
 
    
+   /*
+    * Reads an integer system property, falling back to a default when the
+    * property is absent.
+    */
+   public static int intSetting(String name, int defaultValue) {
+      String value = System.getProperty(name);
+      if (value == null || value.trim().isEmpty())
+         return defaultValue;
+      return Integer.parseInt(value.trim());
+   }//end intSetting
+
+   /*
+    * Creates the admission control from the dbproject.admission settings:
+    * .heavy.*, .light.* and .maintenance.* size the lanes, .timeoutMs is the statement
+    * timeout of the other operations and .<operation>.timeoutMs overrides
+    * the timeout of one operation.
+    **/
+   static AdmissionControl newAdmissionControl(ConnectionPool pool) {
+      AdmissionControl admission = new AdmissionControl(pool, intSetting("dbproject.admission.timeoutMs", 0));
+      admission.addLane(new AdmissionControl.Lane("heavy",
+         intSetting("dbproject.admission.heavy.max", 2),
+         intSetting("dbproject.admission.heavy.queue", 16),
+         intSetting("dbproject.admission.heavy.waitMs", 30000),
+         intSetting("dbproject.admission.heavy.timeoutMs", 60000)), HEAVY_OPERATIONS);
+      admission.addLane(new AdmissionControl.Lane("light",
+         intSetting("dbproject.admission.light.max", 8),
+         intSetting("dbproject.admission.light.queue", 64),
+         intSetting("dbproject.admission.light.waitMs", 1000),
+         intSetting("dbproject.admission.light.timeoutMs", 5000)), LIGHT_OPERATIONS);
+      admission.addLane(new AdmissionControl.Lane("maintenance",
+         intSetting("dbproject.admission.maintenance.max", 1),
+         intSetting("dbproject.admission.maintenance.queue", 4),
+         intSetting("dbproject.admission.maintenance.waitMs", 60000),
+         intSetting("dbproject.admission.maintenance.timeoutMs", 300000)), MAINTENANCE_OPERATIONS);
+      for (String[] operations : new String[][] { HEAVY_OPERATIONS, LIGHT_OPERATIONS, MAINTENANCE_OPERATIONS }) {
+         for (String operation : operations) {
+            String timeout = System.getProperty("dbproject.admission." + operation + ".timeoutMs");
+            if (timeout != null)
+               admission.setTimeout(operation, Integer.parseInt(timeout.trim()));
+         }//end for
+      }//end for
+      return admission;
+   }//end newAdmissionControl
+
+   /*
+    * Parses a date typed by the user in the given SimpleDateFormat pattern.
+    **/
+   public static Date parseDate(String input, String pattern) throws ParseException {
+      SimpleDateFormat format = new SimpleDateFormat(pattern);
+      format.setLenient(false);
+      return new Date(format.parse(input.trim()).getTime());
+   }//end parseDate
+
+   /*
+    * Returns the date the given number of days after (or before) a date.
+    **/
+   public static Date addDays(Date date, int days) {
+      Calendar cal = Calendar.getInstance();
+      cal.setTime(date);
+      cal.add(Calendar.DAY_OF_MONTH, days);
+      return new Date(cal.getTimeInMillis());
+   }//end addDays
+
+   /*
+    * Parses a yes/no answer (Y, N, true, false, ...).
+    **/
+   public static boolean parseFlag(String input) {
+      String flag = input.trim().toUpperCase();
+      if (flag.equals("Y") || flag.equals("YES") || flag.equals("T") || flag.equals("TRUE"))
+         return true;
+      if (flag.equals("N") || flag.equals("NO") || flag.equals("F") || flag.equals("FALSE"))
+         return false;
+      throw new IllegalArgumentException("Expected Y or N but got: " + input);
+   }//end parseFlag
+
+   // SQL of the menu operations.  Each is prepared once per connection and
+   // reused through the statement cache.  Date ranges compare the bare
+   // bookingDate / repairDate column with date parameters, so that on the
+   // partitioned schema (sql/partition.sql) only the partitions overlapping
+   // the range are scanned.
+   static final String ADD_CUSTOMER_SQL =
+      "INSERT INTO Customer (fname, lname, Address, phNo, DOB, gender) VALUES (?, ?, ?, ?, ?, CAST(? AS GenderType)) " +
+      "RETURNING customerID";
+   static final String ADD_ROOM_SQL =
+      "INSERT INTO Room VALUES (?, ?, ?)";
+   static final String ADD_MAINTENANCE_COMPANY_SQL =
+      "INSERT INTO MaintenanceCompany (name, address, isCertified) VALUES (?, ?, ?)";
+   static final String ADD_REPAIR_SQL =
+      "INSERT INTO Repair (hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (?, ?, ?, ?, ?, ?)";
+   static final String BOOK_ROOM_SQL =
+      "INSERT INTO Booking (hotelID, roomNO, customer, bookingDate, price) VALUES (?, ?, ?, ?, ?)";
+   static final String ASSIGN_HOUSE_CLEANING_SQL =
+      "INSERT INTO Assigned (staffID, hotelID, roomNo) VALUES (?, ?, ?)";
+   static final String REPAIR_REQUEST_SQL =
+      "INSERT INTO Request (managerID, repairID, requestDate, description) VALUES (?, ?, ?, ?)";
+   static final String AVAILABLE_ROOMS_SQL =
+      "SELECT COUNT(*) AS Available_Rooms FROM Room WHERE hotelID = ?";
+   static final String BOOKED_ROOMS_SQL =
+      "SELECT COALESCE((SELECT bookedRooms FROM HotelBookedRooms WHERE hotelID = ?), 0) AS booked_rooms";
+   static final String BOOKINGS_FOR_A_WEEK_SQL =
+      "SELECT roomNo AS rooms_for_week FROM Booking WHERE hotelID = ? AND bookingDate BETWEEN ? AND ?";
+   static final String TOP_K_ROOM_PRICE_SQL =
+      "SELECT B.hotelID, B.roomNo, B.price FROM Room R, Booking B WHERE B.bookingDate BETWEEN ? AND ? " +
+      "AND R.roomNo = B.roomNo AND R.hotelID = B.hotelID ORDER BY B.price DESC LIMIT ?";
+   // the customers are given as an array literal ("{1,2}") of the IDs the
+   // name resolved to, so one statement serves any number of namesakes and
+   // Customer is not joined.
+   static final String TOP_K_CUSTOMER_PRICE_SQL =
+      "SELECT price FROM Booking WHERE customer = ANY (CAST(? AS INT[])) ORDER BY price DESC LIMIT ?";
+   static final String TOTAL_COST_SQL =
+      "SELECT SUM(price) AS total FROM Booking WHERE customer = ANY (CAST(? AS INT[])) " +
+      "AND bookingDate BETWEEN ? AND ? AND hotelID = ?";
+   static final String REPAIRS_MADE_SQL =
+      "SELECT R.repairType, R.hotelID, R.roomNo FROM Repair R, MaintenanceCompany M WHERE M.name = ? AND M.cmpID = R.mCompany";
+   static final String COMPANY_IDS_SQL =
+      "SELECT cmpID FROM MaintenanceCompany WHERE name = ? ORDER BY cmpID";
+   static final String TOP_K_COMPANY_SQL =
+      "SELECT name, repairs AS count FROM CompanyRepairs WHERE repairs > 0 ORDER BY repairs DESC LIMIT ?";
+   static final String CREATE_FUTURE_PARTITIONS_SQL =
+      "SELECT create_future_partitions(?)";
+   static final String FREE_ROOMS_SQL =
+      "SELECT R.roomNo FROM Room R WHERE R.hotelID = ? AND NOT EXISTS (SELECT 1 FROM Booking B " +
+      "WHERE B.hotelID = R.hotelID AND B.roomNo = R.roomNo AND B.bookingDate BETWEEN ? AND ?) ORDER BY R.roomNo";
+   static final String HOTEL_IDS_SQL =
+      "SELECT hotelID FROM Hotel ORDER BY hotelID";
+   static final String REPAIRS_PER_YEAR_SQL =
+      "SELECT COALESCE(AVG(repairs), 0) AS Repairs_per_year FROM RoomRepairsPerYear WHERE hotelID = ? AND roomNo = ? " +
+      "AND repairs > 0";
+
+   // Upkeep of the rollup tables (see sql/create.sql), run in the same
+   // transaction as the insert they count.  A room's first booking also
+   // counts it as booked in its hotel.
+   static final String COUNT_BOOKING_SQL =
+      "WITH room AS (INSERT INTO RoomBookings VALUES (?, ?, 1) ON CONFLICT (hotelID, roomNo) " +
+      "DO UPDATE SET bookings = RoomBookings.bookings + 1 RETURNING bookings) " +
+      "INSERT INTO HotelBookedRooms SELECT CAST(? AS Numeric), 1 FROM room WHERE bookings = 1 " +
+      "ON CONFLICT (hotelID) DO UPDATE SET bookedRooms = HotelBookedRooms.bookedRooms + 1";
+   static final String COUNT_COMPANY_REPAIR_SQL =
+      "INSERT INTO CompanyRepairs SELECT name, 1 FROM MaintenanceCompany WHERE cmpID = ? " +
+      "ON CONFLICT (name) DO UPDATE SET repairs = CompanyRepairs.repairs + 1";
+   static final String COUNT_ROOM_REPAIR_SQL =
+      "INSERT INTO RoomRepairsPerYear VALUES (?, ?, EXTRACT(YEAR FROM CAST(? AS DATE)), 1) " +
+      "ON CONFLICT (hotelID, roomNo, repairYear) DO UPDATE SET repairs = RoomRepairsPerYear.repairs + 1";
+   static final String REBUILD_ROLLUPS_SQL =
+      "SELECT rebuild_rollups()";
+
+   // the lanes of the admission control: reports and searches that may scan
+   // a lot, the bookings and availability checks a clerk waits for, and the
+   // maintenance jobs that rewrite whole tables.
+   static final String[] HEAVY_OPERATIONS = {
+      "listHotelRoomBookingsForAWeek", "listHotelRoomBookingsForAWeekPage", "topKHighestRoomPriceForADateRange",
+      "topKHighestPriceBookingsForACustomer", "totalCostForCustomer", "listRepairsMade", "listRepairsMadePage",
+      "topKMaintenanceCompany", "numberOfRepairsForEachRoomPerYear", "searchDescriptions", "searchDescriptionsPage" };
+   static final String[] LIGHT_OPERATIONS = {
+      "bookRoom", "numberOfAvailableRooms", "numberOfBookedRooms", "freeRooms", "findCustomer",
+      GroupCommitWriter.OPERATION };
+   static final String[] MAINTENANCE_OPERATIONS = {
+      "archive", "rebuildRollups", "reloadAvailability", "reloadBookingSnapshot", "reloadCustomers" };
+
+   // paged forms of menu queries 10 and 14 (see KeysetPager), which seek in
+   // booking_idx and maintenance_company_idx; the repairs of a name are paged
+   // one company after the other, so each page is an index range scan.
+   static final KeysetPager BOOKINGS_FOR_A_WEEK_PAGES = bookingsForAWeekPages("FROM Booking");
+   static final KeysetPager REPAIRS_MADE_PAGES = repairsMadePages("FROM Repair");
+
+   private static KeysetPager bookingsForAWeekPages(String from) {
+      return new KeysetPager(
+         new String[] { "roomNo AS rooms_for_week", "bookingDate" },
+         from + " WHERE hotelID = ? AND bookingDate BETWEEN ? AND ?",
+         new String[] { "bookingDate", "roomNo", "bID" }, "dii");
+   }//end bookingsForAWeekPages
+
+   private static KeysetPager repairsMadePages(String from) {
+      return new KeysetPager(
+         new String[] { "repairType", "hotelID", "roomNo", "repairDate" },
+         from + " WHERE mCompany = ?",
+         new String[] { "hotelID", "roomNo", "repairDate", "rID" }, "iidi");
+   }//end repairsMadePages
+
+   // full-text search of the repair and request descriptions, best matches
+   // first, through the GIN indexes repair_description_idx and
+   // request_description_idx (see sql/create.sql); a request is placed in
+   // the hotel and room of its repair.  The date range and the hotel are
+   // filtered outside the union, which the planner pushes into both sides.
+   // The rank is cast to numeric so that it reads back exactly from a page
+   // token.
+   static final String SEARCH_FROM_SQL = searchFrom("Repair", "Request");
+   static final String SEARCH_HOTEL_FROM_SQL = SEARCH_FROM_SQL + " AND hotelID = ?";
+   static final String[] SEARCH_COLUMNS = {
+      "kind", "id", "hotelID", "roomNo", "date", "description", "rank" };
+   static final String SEARCH_ORDER_SQL =
+      " ORDER BY rank DESC, kind, id";
+   static final String SEARCH_ALL_SQL =
+      searchSelect(SEARCH_FROM_SQL) + SEARCH_ORDER_SQL;
+   static final String SEARCH_HOTEL_ALL_SQL =
+      searchSelect(SEARCH_HOTEL_FROM_SQL) + SEARCH_ORDER_SQL;
+   // the pages of the matches, by keyset on (rank DESC, kind, id); the rank
+   // is not indexed, so each page still ranks every match, but it keeps only
+   // the page's rows of them instead of sorting and skipping all the rows
+   // before the page the way OFFSET does.
+   static final KeysetPager SEARCH_PAGES = searchPages(SEARCH_FROM_SQL);
+   static final KeysetPager SEARCH_HOTEL_PAGES = searchPages(SEARCH_HOTEL_FROM_SQL);
+
+   private static String searchFrom(String repair, String request) {
+      return "FROM (" +
+         "SELECT 'repair' AS kind, R.rID AS id, R.hotelID, R.roomNo, R.repairDate AS date, R.description, " +
+         "CAST(ts_rank(to_tsvector('english', COALESCE(R.description, '')), T.query) AS NUMERIC) AS rank " +
+         "FROM " + repair + " R, plainto_tsquery('english', ?) T(query) " +
+         "WHERE to_tsvector('english', COALESCE(R.description, '')) @@ T.query " +
+         "UNION ALL " +
+         "SELECT 'request', Q.reqID, R.hotelID, R.roomNo, Q.requestDate, Q.description, " +
+         "CAST(ts_rank(to_tsvector('english', COALESCE(Q.description, '')), T.query) AS NUMERIC) " +
+         "FROM " + request + " Q, " + repair + " R, plainto_tsquery('english', ?) T(query) " +
+         "WHERE to_tsvector('english', COALESCE(Q.description, '')) @@ T.query AND R.rID = Q.repairID" +
+         ") M WHERE date BETWEEN ? AND ?";
+   }//end searchFrom
+
+   private static String searchSelect(String from) {
+      StringBuilder select = new StringBuilder("SELECT ");
+      for (int i = 0; i < SEARCH_COLUMNS.length; ++i)
+         select.append(i == 0 ? "" : ", ").append(SEARCH_COLUMNS[i]);
+      return select.append(' ').append(from).toString();
+   }//end searchSelect
+
+   private static KeysetPager searchPages(String from) {
+      return new KeysetPager(SEARCH_COLUMNS, from, new String[] { "-rank", "kind", "id" }, "nsi");
+   }//end searchPages
+
+   // the same queries over the hot rows and the archives (see Archiver).
+   static final String BOOKINGS_FOR_A_WEEK_HISTORY_SQL =
+      "SELECT roomNo AS rooms_for_week FROM " + Archiver.BOOKING_HISTORY + " B " +
+      "WHERE hotelID = ? AND bookingDate BETWEEN ? AND ?";
+   static final String TOP_K_ROOM_PRICE_HISTORY_SQL =
+      "SELECT B.hotelID, B.roomNo, B.price FROM Room R, " + Archiver.BOOKING_HISTORY + " B " +
+      "WHERE B.bookingDate BETWEEN ? AND ? AND R.roomNo = B.roomNo AND R.hotelID = B.hotelID " +
+      "ORDER BY B.price DESC LIMIT ?";
+   static final String TOP_K_CUSTOMER_PRICE_HISTORY_SQL =
+      "SELECT price FROM " + Archiver.BOOKING_HISTORY + " B WHERE customer = ANY (CAST(? AS INT[])) " +
+      "ORDER BY price DESC LIMIT ?";
+   static final String TOTAL_COST_HISTORY_SQL =
+      "SELECT SUM(price) AS total FROM " + Archiver.BOOKING_HISTORY + " B WHERE customer = ANY (CAST(? AS INT[])) " +
+      "AND bookingDate BETWEEN ? AND ? AND hotelID = ?";
+   static final String REPAIRS_MADE_HISTORY_SQL =
+      "SELECT R.repairType, R.hotelID, R.roomNo FROM " + Archiver.REPAIR_HISTORY + " R, MaintenanceCompany M " +
+      "WHERE M.name = ? AND M.cmpID = R.mCompany";
+   static final KeysetPager BOOKINGS_FOR_A_WEEK_HISTORY_PAGES = bookingsForAWeekPages("FROM " + Archiver.BOOKING_HISTORY + " B");
+   static final KeysetPager REPAIRS_MADE_HISTORY_PAGES = repairsMadePages("FROM " + Archiver.REPAIR_HISTORY + " R");
+   static final String SEARCH_HISTORY_FROM_SQL = searchFrom(Archiver.REPAIR_HISTORY, Archiver.REQUEST_HISTORY);
+   static final String SEARCH_HOTEL_HISTORY_FROM_SQL = SEARCH_HISTORY_FROM_SQL + " AND hotelID = ?";
+   static final String SEARCH_ALL_HISTORY_SQL = searchSelect(SEARCH_HISTORY_FROM_SQL) + SEARCH_ORDER_SQL;
+   static final String SEARCH_HOTEL_ALL_HISTORY_SQL = searchSelect(SEARCH_HOTEL_HISTORY_FROM_SQL) + SEARCH_ORDER_SQL;
+   static final KeysetPager SEARCH_HISTORY_PAGES = searchPages(SEARCH_HISTORY_FROM_SQL);
+   static final KeysetPager SEARCH_HOTEL_HISTORY_PAGES = searchPages(SEARCH_HOTEL_HISTORY_FROM_SQL);
+   // the rollups count the recent rows only, so with history included the
+   // rolled up queries aggregate the tables and their archives instead.
+   static final String BOOKED_ROOMS_HISTORY_SQL =
+      "SELECT COUNT(DISTINCT roomNo) AS booked_rooms FROM " + Archiver.BOOKING_HISTORY + " B WHERE hotelID = ?";
+   static final String TOP_K_COMPANY_HISTORY_SQL =
+      "SELECT M.name, COUNT(*) AS count FROM " + Archiver.REPAIR_HISTORY + " R, MaintenanceCompany M " +
+      "WHERE M.cmpID = R.mCompany GROUP BY M.name ORDER BY count DESC LIMIT ?";
+   static final String REPAIRS_PER_YEAR_HISTORY_SQL =
+      "SELECT COALESCE(AVG(repairs), 0) AS Repairs_per_year FROM (SELECT COUNT(*) AS repairs " +
+      "FROM " + Archiver.REPAIR_HISTORY + " R WHERE hotelID = ? AND roomNo = ? " +
+      "GROUP BY EXTRACT(YEAR FROM repairDate)) Y";
+   static final String FREE_ROOMS_HISTORY_SQL =
+      "SELECT R.roomNo FROM Room R WHERE R.hotelID = ? AND NOT EXISTS (SELECT 1 FROM " + Archiver.BOOKING_HISTORY + " B " +
+      "WHERE B.hotelID = R.hotelID AND B.roomNo = R.roomNo AND B.bookingDate BETWEEN ? AND ?) ORDER BY R.roomNo";
+
+   // result cache keys of the cached operations; the arguments are appended.
+   static final String AVAILABLE_ROOMS_KEY = "availableRooms:";
+   static final String BOOKED_ROOMS_KEY = "bookedRooms:";
+   static final String REPAIRS_MADE_KEY = "repairsMade:";
+   static final String TOP_K_COMPANY_KEY = "topKMaintenanceCompany:";
+
+   private void invalidate(String key) {
+      if (this._resultCache != null)
+         this._resultCache.invalidate(key);
+   }//end invalidate
+
+   private void invalidatePrefix(String prefix) {
+      if (this._resultCache != null)
+         this._resultCache.invalidatePrefix(prefix);
+   }//end invalidatePrefix
+
+   /*
+    * The operations behind the menu.  They take typed arguments instead of
+    * prompting, so they can be driven by code as well as by the menu below.
+    * The inserts also come in an Async form that returns as soon as the
+    * write is queued when group commit is on; bookRoom does not, since it
+    * must hold its room's booking stripe until the write is done.
+    * Queries hand their rows to the given sink and return the row count.
+    * Each is timed under its own name in the metrics.
+    */
+
+   public int addCustomer(String fname, String lname, String address, long phNo, Date dob, String gender) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("addCustomer");
+      try{
+         return op.done(submit(addCustomerWrite(fname, lname, address, phNo, dob, gender)).await());
+      }finally{
+         op.end();
+      }//end try
+   }//end addCustomer
+
+   public GroupCommitWriter.Write addCustomerAsync(String fname, String lname, String address, long phNo, Date dob, String gender) throws SQLException {
+      return submit(addCustomerWrite(fname, lname, address, phNo, dob, gender));
+   }//end addCustomerAsync
+
+   private GroupCommitWriter.Write addCustomerWrite(final String fname, final String lname, String address, long phNo, Date dob, String gender) {
+      return new GroupCommitWriter.Write(
+            new String[] { ADD_CUSTOMER_SQL },
+            new Object[][] { { fname, lname, address, phNo, dob, gender } }, true) {
+         @Override
+         protected void committed() {
+            DBProject.this._customers.add(Integer.parseInt(key()), fname, lname);
+         }
+      };
+   }//end addCustomerWrite
+
+   public int addRoom(int hotelID, int roomNo, String roomType) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("addRoom");
+      try{
+         int rowCount = executeUpdate(ADD_ROOM_SQL, hotelID, roomNo, roomType);
+         invalidate(AVAILABLE_ROOMS_KEY + hotelID);
+         if (this._availability != null)
+            this._availability.addRoom(hotelID, roomNo);
+         return op.done(rowCount);
+      }finally{
+         op.end();
+      }//end try
+   }//end addRoom
+
+   public int addMaintenanceCompany(String name, String address, boolean certified) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("addMaintenanceCompany");
+      try{
+         int rowCount = executeUpdate(ADD_MAINTENANCE_COMPANY_SQL, name, address, certified);
+         // the name may now also match the new company.
+         invalidate(REPAIRS_MADE_KEY + name);
+         return op.done(rowCount);
+      }finally{
+         op.end();
+      }//end try
+   }//end addMaintenanceCompany
+
+   public int addRepair(int hotelID, int roomNo, int mCompany, Date repairDate, String description, String repairType) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("addRepair");
+      try{
+         return op.done(submit(addRepairWrite(hotelID, roomNo, mCompany, repairDate, description, repairType)).await());
+      }finally{
+         op.end();
+      }//end try
+   }//end addRepair
+
+   public GroupCommitWriter.Write addRepairAsync(int hotelID, int roomNo, int mCompany, Date repairDate, String description, String repairType) throws SQLException {
+      return submit(addRepairWrite(hotelID, roomNo, mCompany, repairDate, description, repairType));
+   }//end addRepairAsync
+
+   private GroupCommitWriter.Write addRepairWrite(int hotelID, int roomNo, int mCompany, Date repairDate, String description, String repairType) {
+      return new GroupCommitWriter.Write(
+            new String[] { ADD_REPAIR_SQL, COUNT_COMPANY_REPAIR_SQL, COUNT_ROOM_REPAIR_SQL },
+            new Object[][] { { hotelID, roomNo, mCompany, repairDate, description, repairType },
+                             { mCompany },
+                             { hotelID, roomNo, repairDate } }, false) {
+         @Override
+         protected void committed() {
+            // the repair counts of every top k list change, and the listing of
+            // whichever company name mCompany has.
+            invalidatePrefix(TOP_K_COMPANY_KEY);
+            invalidatePrefix(REPAIRS_MADE_KEY);
+         }
+      };
+   }//end addRepairWrite
+
+   /*
+    * Books a room for a day, failing with SQLState 23505 when it is already
+    * booked that day; concurrent calls are kept apart by the booking guard.
+    */
+   public int bookRoom(final int hotelID, final int roomNo, final int customer, final Date bookingDate,
+         final BigDecimal price) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("bookRoom");
+      try{
+         return op.done(this._bookings.book(hotelID, roomNo, bookingDate, new BookingGuard.Attempt() {
+            public int run() throws SQLException {
+               return submit(bookRoomWrite(hotelID, roomNo, customer, bookingDate, price)).await();
+            }
+         }));
+      }finally{
+         op.end();
+      }//end try
+   }//end bookRoom
+
+   private GroupCommitWriter.Write bookRoomWrite(final int hotelID, final int roomNo, final int customer, final Date bookingDate, final BigDecimal price) {
+      return new GroupCommitWriter.Write(
+            new String[] { BOOK_ROOM_SQL, COUNT_BOOKING_SQL },
+            new Object[][] { { hotelID, roomNo, customer, bookingDate, price },
+                             { hotelID, roomNo, hotelID } }, false) {
+         @Override
+         protected void committed() {
+            invalidate(BOOKED_ROOMS_KEY + hotelID);
+            if (DBProject.this._analytics != null)
+               DBProject.this._analytics.add(hotelID, roomNo, customer, bookingDate, price);
+            if (DBProject.this._availability != null)
+               DBProject.this._availability.book(hotelID, roomNo, bookingDate);
+         }
+      };
+   }//end bookRoomWrite
+
+   public int assignHouseCleaningToRoom(long staffID, int hotelID, int roomNo) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("assignHouseCleaningToRoom");
+      try{
+         return op.done(assignHouseCleaningToRoomAsync(staffID, hotelID, roomNo).await());
+      }finally{
+         op.end();
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   public GroupCommitWriter.Write assignHouseCleaningToRoomAsync(long staffID, int hotelID, int roomNo) throws SQLException {
+      return submit(new GroupCommitWriter.Write(new String[] { ASSIGN_HOUSE_CLEANING_SQL },
+                                                new Object[][] { { staffID, hotelID, roomNo } }, false));
+   }//end assignHouseCleaningToRoomAsync
+
+   public int repairRequest(long managerID, int repairID, Date requestDate, String description) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("repairRequest");
+      try{
+         return op.done(repairRequestAsync(managerID, repairID, requestDate, description).await());
+      }finally{
+         op.end();
+      }//end try
+   }//end repairRequest
+
+   public GroupCommitWriter.Write repairRequestAsync(long managerID, int repairID, Date requestDate, String description) throws SQLException {
+      return submit(new GroupCommitWriter.Write(new String[] { REPAIR_REQUEST_SQL },
+                                                new Object[][] { { managerID, repairID, requestDate, description } }, false));
+   }//end repairRequestAsync
+
+   public int numberOfAvailableRooms(int hotelID, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("numberOfAvailableRooms");
+      try{
+         return op.done(executeCachedQuery(AVAILABLE_ROOMS_KEY + hotelID, sink, AVAILABLE_ROOMS_SQL, hotelID));
+      }finally{
+         op.end();
+      }//end try
+   }//end numberOfAvailableRooms
+
+   public int numberOfBookedRooms(int hotelID, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("numberOfBookedRooms");
+      try{
+         if (this._includeHistory)
+            return op.done(executeQuery(sink, BOOKED_ROOMS_HISTORY_SQL, hotelID));
+         return op.done(executeCachedQuery(BOOKED_ROOMS_KEY + hotelID, sink, BOOKED_ROOMS_SQL, hotelID));
+      }finally{
+         op.end();
+      }//end try
+   }//end numberOfBookedRooms
+
+   // the week starts on the given date and includes the next 6 days.
+   public int listHotelRoomBookingsForAWeek(int hotelID, Date start, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("listHotelRoomBookingsForAWeek");
+      try{
+         if (this._analytics != null && !this._includeHistory) {
+            try{
+               return op.done(this._analytics.listHotelRoomBookingsForAWeek(hotelID, start, sink));
+            }catch (IOException e){
+               throw sinkFailure(e);
+            }//end try
+         }//end if
+         return op.done(executeQuery(sink, this._includeHistory ? BOOKINGS_FOR_A_WEEK_HISTORY_SQL : BOOKINGS_FOR_A_WEEK_SQL, hotelID, start, addDays(start, 6)));
+      }finally{
+         op.end();
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   /*
+    * One page of the bookings of a week, ordered by date and room.  Pass the
+    * next() token of a page to get the page after it, or its previous() token
+    * with backward set to get the page before; a null token starts at the
+    * first page (the last one going backward).
+    */
+   public KeysetPager.Page listHotelRoomBookingsForAWeek(int hotelID, Date start, String token, boolean backward,
+         int pageSize, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("listHotelRoomBookingsForAWeekPage");
+      try{
+         List<Object[]> week = Collections.singletonList(new Object[] { hotelID, start, addDays(start, 6) });
+         KeysetPager pages = this._includeHistory ? BOOKINGS_FOR_A_WEEK_HISTORY_PAGES : BOOKINGS_FOR_A_WEEK_PAGES;
+         KeysetPager.Page page = pages.page(this, week, token, backward, pageSize, sink);
+         op.done(page.rows());
+         return page;
+      }catch (IOException e){
+         throw sinkFailure(e);
+      }finally{
+         op.end();
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   public int topKHighestRoomPriceForADateRange(Date start, Date end, int k, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("topKHighestRoomPriceForADateRange");
+      try{
+         if (this._analytics != null && !this._includeHistory) {
+            try{
+               return op.done(this._analytics.topKHighestRoomPriceForADateRange(start, end, k, sink));
+            }catch (IOException e){
+               throw sinkFailure(e);
+            }//end try
+         }//end if
+         return op.done(executeQuery(sink, this._includeHistory ? TOP_K_ROOM_PRICE_HISTORY_SQL : TOP_K_ROOM_PRICE_SQL, start, end, k));
+      }finally{
+         op.end();
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   // all customers with exactly this name count, as in a join on the name.
+   public int topKHighestPriceBookingsForACustomer(String fname, String lname, int k, ResultSink sink) throws SQLException {
+      return topKHighestPriceBookingsForCustomers(this._customers.exact(fname, lname), k, sink);
+   }//end topKHighestPriceBookingsForACustomer
+
+   public int topKHighestPriceBookingsForCustomers(int[] customerIDs, int k, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("topKHighestPriceBookingsForACustomer");
+      try{
+         if (this._analytics != null && !this._includeHistory) {
+            try{
+               return op.done(this._analytics.topKHighestPriceBookingsForCustomers(customerIDs, k, sink));
+            }catch (IOException e){
+               throw sinkFailure(e);
+            }//end try
+         }//end if
+         return op.done(executeQuery(sink,
+            this._includeHistory ? TOP_K_CUSTOMER_PRICE_HISTORY_SQL : TOP_K_CUSTOMER_PRICE_SQL, idArray(customerIDs), k));
+      }finally{
+         op.end();
+      }//end try
+   }//end topKHighestPriceBookingsForCustomers
+
+   public int totalCostForCustomer(String fname, String lname, Date start, Date end, int hotelID, ResultSink sink) throws SQLException {
+      return totalCostForCustomers(this._customers.exact(fname, lname), start, end, hotelID, sink);
+   }//end totalCostForCustomer
+
+   public int totalCostForCustomers(int[] customerIDs, Date start, Date end, int hotelID, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("totalCostForCustomer");
+      try{
+         if (this._analytics != null && !this._includeHistory) {
+            try{
+               return op.done(this._analytics.totalCostForCustomers(customerIDs, start, end, hotelID, sink));
+            }catch (IOException e){
+               throw sinkFailure(e);
+            }//end try
+         }//end if
+         return op.done(executeQuery(sink, this._includeHistory ? TOTAL_COST_HISTORY_SQL : TOTAL_COST_SQL, idArray(customerIDs), start, end, hotelID));
+      }finally{
+         op.end();
+      }//end try
+   }//end totalCostForCustomers
+
+   // Postgres array literal of the IDs, e.g. "{3,17}".
+   static String idArray(int[] ids) {
+      StringBuilder literal = new StringBuilder("{");
+      for (int i = 0; i < ids.length; ++i) {
+         if (i > 0)
+            literal.append(',');
+         literal.append(ids[i]);
+      }//end for
+      return literal.append('}').toString();
+   }//end idArray
+
+   public int listRepairsMade(String companyName, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("listRepairsMade");
+      try{
+         if (this._includeHistory)
+            return op.done(executeQuery(sink, REPAIRS_MADE_HISTORY_SQL, companyName));
+         return op.done(executeCachedQuery(REPAIRS_MADE_KEY + companyName, sink, REPAIRS_MADE_SQL, companyName));
+      }finally{
+         op.end();
+      }//end try
+   }//end listRepairsMade
+
+   /*
+    * One page of the repairs of the companies with the given name, ordered by
+    * company, hotel, room and date; the tokens work as for the paged
+    * listHotelRoomBookingsForAWeek.
+    */
+   public KeysetPager.Page listRepairsMade(String companyName, String token, boolean backward,
+         int pageSize, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("listRepairsMadePage");
+      try{
+         ResultSink.Rows recorder = new ResultSink.Rows();
+         executeQuery(recorder, COMPANY_IDS_SQL, companyName);
+         List<Object[]> companies = new ArrayList<Object[]>();
+         for (String[] row : recorder.recorded())
+            companies.add(new Object[] { Integer.valueOf(row[0]) });
+         KeysetPager pages = this._includeHistory ? REPAIRS_MADE_HISTORY_PAGES : REPAIRS_MADE_PAGES;
+         KeysetPager.Page page = pages.page(this, companies, token, backward, pageSize, sink);
+         op.done(page.rows());
+         return page;
+      }catch (IOException e){
+         throw sinkFailure(e);
+      }finally{
+         op.end();
+      }//end try
+   }//end listRepairsMade
+
+   public int topKMaintenanceCompany(int k, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("topKMaintenanceCompany");
+      try{
+         if (this._includeHistory)
+            return op.done(executeQuery(sink, TOP_K_COMPANY_HISTORY_SQL, k));
+         return op.done(executeCachedQuery(TOP_K_COMPANY_KEY + k, sink, TOP_K_COMPANY_SQL, k));
+      }finally{
+         op.end();
+      }//end try
+   }//end topKMaintenanceCompany
+
+   public int numberOfRepairsForEachRoomPerYear(int hotelID, int roomNo, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("numberOfRepairsForEachRoomPerYear");
+      try{
+         return op.done(executeQuery(sink, this._includeHistory ? REPAIRS_PER_YEAR_HISTORY_SQL : REPAIRS_PER_YEAR_SQL,
+            hotelID, roomNo));
+      }finally{
+         op.end();
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+   // rooms of the hotel not booked on any day from start to end, both included.
+   public int freeRooms(int hotelID, Date start, Date end, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("freeRooms");
+      try{
+         if (this._availability != null && !this._includeHistory) {
+            try{
+               return op.done(this._availability.freeRooms(hotelID, start, end, sink));
+            }catch (IOException e){
+               throw sinkFailure(e);
+            }//end try
+         }//end if
+         return op.done(executeQuery(sink, this._includeHistory ? FREE_ROOMS_HISTORY_SQL : FREE_ROOMS_SQL,
+            hotelID, start, end));
+      }finally{
+         op.end();
+      }//end try
+   }//end freeRooms
+
+   /*
+    * Searches the repair and request descriptions for all the words of the
+    * text (stemmed, so "leaks" finds "leak"), in one hotel or all (hotelID
+    * 0), from start to end, and lists every match, best matches first.
+    */
+   public int searchDescriptions(String text, int hotelID, Date start, Date end, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("searchDescriptions");
+      try{
+         if (hotelID == 0)
+            return op.done(executeQuery(sink, this._includeHistory ? SEARCH_ALL_HISTORY_SQL : SEARCH_ALL_SQL,
+               text, text, start, end));
+         return op.done(executeQuery(sink, this._includeHistory ? SEARCH_HOTEL_ALL_HISTORY_SQL : SEARCH_HOTEL_ALL_SQL,
+            text, text, start, end, hotelID));
+      }finally{
+         op.end();
+      }//end try
+   }//end searchDescriptions
+
+   /*
+    * One page of the matches of the search above, by keyset (see
+    * KeysetPager): pass next() or previous() of a page with backward false
+    * or true for the page after or before it, null for the first page (or
+    * the last one, backward).
+    */
+   public KeysetPager.Page searchDescriptions(String text, int hotelID, Date start, Date end, String token,
+         boolean backward, int pageSize, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("searchDescriptionsPage");
+      try{
+         KeysetPager pages;
+         List<Object[]> matches;
+         if (hotelID == 0) {
+            pages = this._includeHistory ? SEARCH_HISTORY_PAGES : SEARCH_PAGES;
+            matches = Collections.singletonList(new Object[] { text, text, start, end });
+         } else {
+            pages = this._includeHistory ? SEARCH_HOTEL_HISTORY_PAGES : SEARCH_HOTEL_PAGES;
+            matches = Collections.singletonList(new Object[] { text, text, start, end, hotelID });
+         }//end if
+         KeysetPager.Page page = pages.page(this, matches, token, backward, pageSize, sink);
+         op.done(page.rows());
+         return page;
+      }catch (IOException e){
+         throw sinkFailure(e);
+      }finally{
+         op.end();
+      }//end try
+   }//end searchDescriptions
+
+   /*
+    * Moves the bookings, repairs and requests older than the cutoff into the
+    * archive tables, writing the rows moved per table to the sink; see
+    * Archiver.  Once any batch moved, also when a later one failed, the
+    * booking snapshot and the availability index are reloaded, as they
+    * mirror Booking, and the cached results of the rollups, which the move
+    * updated, are dropped.
+    */
+   public int archive(Date cutoff, ResultSink sink) throws SQLException {
+      Metrics.Operation op = this._metrics.begin("archive");
+      SQLException failure = null;
+      try{
+         return op.done(this._archiver.archive(cutoff, sink));
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         try{
+            if (this._archiver.moved() > 0)
+               archived();
+         }catch (SQLException e){
+            if (failure == null)
+               throw e;
+            failure.addSuppressed(e);
+         }finally{
+            op.end();
+         }//end try
+      }//end try
+   }//end archive
+
+   private void archived() throws SQLException {
+      invalidatePrefix(REPAIRS_MADE_KEY);
+      invalidatePrefix(BOOKED_ROOMS_KEY);
+      invalidatePrefix(TOP_K_COMPANY_KEY);
+      if (this._analytics != null)
+         this._analytics.reload();
+      if (this._availability != null)
+         this._availability.reload();
+   }//end archived
+
+   /*
+    * Sets whether the queries on bookings and repairs also read the archive
+    * tables; they read the recent rows only by default.  The rollups, the
+    * booking snapshot and the availability index only hold the recent rows,
+    * so with history included the queries they answer go to the tables.
+    */
+   public void setIncludeHistory(boolean includeHistory) {
+      this._includeHistory = includeHistory;
+   }//end setIncludeHistory
+
+   public boolean includeHistory() {
+      return this._includeHistory;
+   }//end includeHistory
+
+   /*
+    * Recomputes the rollup tables from Booking and Repair, after they were
+    * changed by something other than this program (e.g. a COPY load).
+    */
+   public void rebuildRollups() throws SQLException {
+      Metrics.Operation op = this._metrics.begin("rebuildRollups");
+      try{
+         executeQuery(new ResultSink.Count(null), REBUILD_ROLLUPS_SQL);
+         invalidatePrefix(BOOKED_ROOMS_KEY);
+         invalidatePrefix(TOP_K_COMPANY_KEY);
+         op.done(0);
+      }finally{
+         op.end();
+      }//end try
+   }//end rebuildRollups
+
+   /*
+    * Returns the IDs of all hotels, in ascending order.
+    */
+   public int[] hotelIDs() throws SQLException {
+      ResultSink.Rows recorder = new ResultSink.Rows();
+      executeQuery(recorder, HOTEL_IDS_SQL);
+      int[] hotelIDs = new int[recorder.recorded().size()];
+      for (int i = 0; i < hotelIDs.length; ++i)
+         hotelIDs[i] = Integer.parseInt(recorder.recorded().get(i)[0]);
+      return hotelIDs;
+   }//end hotelIDs
+
    public static void addCustomer(DBProject esql){
     // Given customer details add the customer in the DB
     try{
-        String query = "INSERT INTO Customer (fname, lname, Address, phNo, DOB, gender) VALUES (";
         System.out.print("\tEnter customer first name: ");
-        String input = in.readLine();
-        query += "\'" + input + "\', ";
+        String fname = in.readLine();
         System.out.print("\tEnter customer last name: ");
-        input = in.readLine();
-        query += "\'" + input + "\', ";
+        String lname = in.readLine();
         System.out.print("\tEnter customer address: ");
-        input = in.readLine();
-        query += "\'" + input + "\', ";
+        String address = in.readLine();
         System.out.print("\tEnter customer phone number: ");
-        input = in.readLine();
-        query += input + ", ";
+        long phNo = Long.parseLong(in.readLine().trim());
         System.out.print("\tEnter customer date of birth (YYYY-MM-DD Format): ");
-        input = in.readLine();
-        query += "\'" + input + "\', ";
+        Date dob = parseDate(in.readLine(), "yyyy-MM-dd");
         System.out.print("\tEnter customer gender (Male, Female, Other): ");
-        input = in.readLine();
-query += "\'" + input + "\')";
-        esql.executeQuery(query);
+        String gender = in.readLine().trim();
+        esql.addCustomer(fname, lname, address, phNo, dob, gender);
     }catch(Exception e){
         System.err.println (e.getMessage());
     }
@@ -284,18 +1713,13 @@ query += "\'" + input + "\')";
    public static void addRoom(DBProject esql){
     // Given room details add the room in the DB
     try{
-        String query = "INSERT INTO Room VALUES (";
         System.out.print("\tEnter hotel ID: ");
-        String input = in.readLine();
-        query += input + ", ";
+        int hotelID = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter room number: ");
-        input = in.readLine();
-        query += input + ", ";
+        int roomNo = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter room type: ");
-        input = in.readLine();
-        query += "\'" + input + "\');";
-
-        esql.executeQuery(query);
+        String roomType = in.readLine();
+        esql.addRoom(hotelID, roomNo, roomType);
     }catch(Exception e){
         System.err.println (e.getMessage());
     }
@@ -304,18 +1728,13 @@ query += "\'" + input + "\')";
    public static void addMaintenanceCompany(DBProject esql){
     // Given maintenance Company details add the maintenance company in the DB
       try{
-         String query = "INSERT INTO MaintenanceCompany (name, address, isCertified) VALUES (";
          System.out.print("\tEnter company name: ");
-         String input = in.readLine();
-         query += "\'" + input + "\', ";
+         String name = in.readLine();
          System.out.print("\tEnter company address: ");
-         input = in.readLine();
-         query += "\'" + input + "\', ";
+         String address = in.readLine();
          System.out.print("\tEnter if company is certified (Y or N): ");
-         input = in.readLine();
-         query += "\'" + input + "\');";
-
-         int rowCount = esql.executeQuery(query);
+         boolean certified = parseFlag(in.readLine());
+         esql.addMaintenanceCompany(name, address, certified);
       }catch(Exception e){
          System.err.println (e.getMessage());
       }
@@ -324,27 +1743,19 @@ query += "\'" + input + "\')";
    public static void addRepair(DBProject esql){
 	// Given repair details add repair in the DB
     try{
-        String query = "INSERT INTO Repair (hotelID, roomNo, mCompany, repairDate, description, repairType) VALUES (";
         System.out.print("\tEnter hotel ID: ");
-        String input = in.readLine();
-        query += input + ", ";
+        int hotelID = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter room number: ");
-        input = in.readLine();
-        query += input + ", ";
+        int roomNo = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter company ID: ");
-        input = in.readLine();
-        query += input + ", ";
+        int mCompany = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter repair date (YYYY-MM-DD Format): ");
-        input = in.readLine();
-        query += "\'" + input + "\', ";
+        Date repairDate = parseDate(in.readLine(), "yyyy-MM-dd");
         System.out.print("\tEnter repair description: ");
-        input = in.readLine();
-        query += "\'" + input + "\', ";
+        String description = in.readLine();
         System.out.print("\tEnter repair type: ");
-        input = in.readLine();
-        query += "\'" + input + "\');";
-
-        int rowCount = esql.executeQuery(query);
+        String repairType = in.readLine();
+        esql.addRepair(hotelID, roomNo, mCompany, repairDate, description, repairType);
     }catch(Exception e){
         System.err.println (e.getMessage());
     }
@@ -353,24 +1764,17 @@ query += "\'" + input + "\')";
    public static void bookRoom(DBProject esql){
 	// Given hotelID, roomNo and customer Name create a booking in the DB 
     try{
-        String query = "INSERT INTO Booking (hotelID, roomNO, customer, bookingDate, price) VALUES (";
         System.out.print("\tEnter hotel ID: ");
-        String input = in.readLine();
-        query += input + ", ";
+        int hotelID = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter room number: ");
-        input = in.readLine();
-        query += input + ", ";
+        int roomNo = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter customer ID: ");
-        input = in.readLine();
-        query += input + ", ";
+        int customer = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter booking date: (YYYY-MM-DD Format): ");
-        input = in.readLine();
-        query += "\'" + input + "\', ";
+        Date bookingDate = parseDate(in.readLine(), "yyyy-MM-dd");
         System.out.print("\tEnter the price: $: ");
-        input = in.readLine();
-        query += input + ");";
-
-        int rowCount = esql.executeQuery(query);
+        BigDecimal price = new BigDecimal(in.readLine().trim());
+        esql.bookRoom(hotelID, roomNo, customer, bookingDate, price);
     }catch(Exception e){
         System.err.println (e.getMessage());
     }
@@ -379,18 +1783,13 @@ query += "\'" + input + "\')";
    public static void assignHouseCleaningToRoom(DBProject esql){
     // Given Staff SSN, HotelID, roomNo Assign the staff to the room 
       try{
-         String query = "INSERT INTO Assigned (staffID, hotelID, roomNo) VALUES (";
          System.out.print("\tEnter staff ID: ");
-         String input = in.readLine();
-         query += input + ", ";
+         long staffID = Long.parseLong(in.readLine().trim());
          System.out.print("\tEnter hotel ID: ");
-         input = in.readLine();
-         query += input + ", ";
+         int hotelID = Integer.parseInt(in.readLine().trim());
          System.out.print("\tEnter room number: ");
-         input = in.readLine();
-         query += input + ");";
-
-         int rowCount = esql.executeQuery(query);
+         int roomNo = Integer.parseInt(in.readLine().trim());
+         esql.assignHouseCleaningToRoom(staffID, hotelID, roomNo);
       }catch(Exception e){
          System.err.println (e.getMessage());
       }
@@ -399,21 +1798,15 @@ query += "\'" + input + "\')";
    public static void repairRequest(DBProject esql){
     // Given a hotelID, Staff SSN, roomNo, repairID , date create a repair request in the DB
     try{
-        String query = "INSERT INTO Request (managerID, repairID, requestDate, description) VALUES (";
         System.out.print("\tEnter manager ID: ");
-        String input = in.readLine();
-        query += input + ", ";
+        long managerID = Long.parseLong(in.readLine().trim());
         System.out.print("\tEnter repair ID: ");
-        input = in.readLine();
-        query += input + ", ";
+        int repairID = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter request date (YYYY-MM-DD Format): ");
-        input = in.readLine();
-        query += "\'" + input + "\',";
+        Date requestDate = parseDate(in.readLine(), "yyyy-MM-dd");
         System.out.print("\tEnter description: ");
-        input = in.readLine();
-        query += "\'" + input + "\'); ";
-
-        int rowCount = esql.executeQuery(query);
+        String description = in.readLine();
+        esql.repairRequest(managerID, repairID, requestDate, description);
     }catch(Exception e){
         System.err.println (e.getMessage());
     }
@@ -422,12 +1815,9 @@ query += "\'" + input + "\')";
    public static void numberOfAvailableRooms(DBProject esql){
 	  // Given a hotelID, get the count of rooms available 
       try{
-        String query = "SELECT COUNT(*) AS Available_Rooms FROM Room WHERE hotelID = ";
          System.out.print("\tEnter hotelID: ");
-         String input = in.readLine();
-         query += input + ";";
-
-         int rowCount = esql.executeQuery(query);
+         int hotelID = Integer.parseInt(in.readLine().trim());
+         esql.numberOfAvailableRooms(hotelID, esql.console());
       }catch(Exception e){
          System.err.println (e.getMessage());
       }
@@ -437,29 +1827,56 @@ query += "\'" + input + "\')";
    public static void numberOfBookedRooms(DBProject esql){
 	  // Given a hotelID, get the count of rooms booked
      try{
-        String query = "SELECT COUNT(DISTINCT roomNo) AS booked_rooms FROM Booking WHERE hotelID = ";
         System.out.print("\tEnter hotelID: ");
-        String input = in.readLine();
-        query += input + ";";
-        int rowCount = esql.executeQuery(query);
+        int hotelID = Integer.parseInt(in.readLine().trim());
+        esql.numberOfBookedRooms(hotelID, esql.console());
      }catch(Exception e){
          System.err.println (e.getMessage());
      }
         
    }//end numberOfBookedRooms
-   
-   public static void listHotelRoomBookingsForAWeek(DBProject esql){ //ASSUMING WE ARE GETTING TODAY'S AND NEXT 6 DAYS
+
+   /*
+    * Prints a listing a page at a time, moving to the next or previous page
+    * as the user asks.  Returns the number of rows on the first page.
+    */
+   private static int browse(DBProject esql, KeysetPager.Listing listing) throws IOException, SQLException {
+      KeysetPager.Page page = listing.page(null, false, esql._pageSize, esql.console());
+      int firstRows = page.rows();
+      while (page.hasNext() || page.hasPrevious()) {
+         System.out.print("\t" + (page.hasNext() ? "n = next page (default), " : "")
+            + (page.hasPrevious() ? "p = previous page, " : "") + "q = quit: ");
+         String answer = in.readLine();
+         if (answer == null || answer.trim().equalsIgnoreCase("q"))
+            break;
+         if (answer.trim().equalsIgnoreCase("p") && page.hasPrevious())
+            page = listing.page(page.previous(), true, esql._pageSize, esql.console());
+         else if (page.hasNext() && (answer.trim().isEmpty() || answer.trim().equalsIgnoreCase("n")))
+            page = listing.page(page.next(), false, esql._pageSize, esql.console());
+         else if (!page.hasNext() && answer.trim().isEmpty())
+            break;
+      }//end while
+      return firstRows;
+   }//end browse
+
+   public static void listHotelRoomBookingsForAWeek(final DBProject esql){ //ASSUMING WE ARE GETTING TODAY'S AND NEXT 6 DAYS
 	  // Given a hotelID, date - list all the rooms booked for a week(including the input date) 
      try{
-        String query = "SELECT roomNo AS rooms_for_week FROM Booking WHERE hotelID = ";
         System.out.print("\tEnter hotelID: ");
-        String input = in.readLine();
-        query += input + " AND "; 
-        query += " bookingDate BETWEEN TO_DATE(\'";
+        int hotelID = Integer.parseInt(in.readLine().trim());
         System.out.print("\tEnter date (MM/DD/YYYY Format): ");
-        input = in.readLine();
-        query += input + "\', \'MM/DD/YYYY\') AND TO_DATE(\'" + input + "\', \'MM/DD/YYYY\') + INTERVAL '6 days';";
-        int rowCount = esql.executeQuery(query);
+        final Date start = parseDate(in.readLine(), "MM/dd/yyyy");
+        final int hotel = hotelID;
+        int rowCount;
+        if (esql._pageSize > 0) {
+           rowCount = browse(esql, new KeysetPager.Listing() {
+              public KeysetPager.Page page(String token, boolean backward, int pageSize, ResultSink sink) throws SQLException {
+                 return esql.listHotelRoomBookingsForAWeek(hotel, start, token, backward, pageSize, sink);
+              }
+           });
+        } else {
+           rowCount = esql.listHotelRoomBookingsForAWeek(hotelID, start, esql.console());
+        }//end if
         if(rowCount == 0){
          System.out.println("no rows");
         }
@@ -471,17 +1888,13 @@ query += "\'" + input + "\')";
    public static void topKHighestRoomPriceForADateRange(DBProject esql){
 	  // List Top K Rooms with the highest price for a given date range
       try{
-         String query = "SELECT B.hotelID, B.roomNo, B.price FROM Room R, Booking B WHERE B.bookingDate BETWEEN TO_DATE(\'";
          System.out.print("\tEnter start date (MM/DD/YYYY Format): ");
-         String input = in.readLine();
-         query += input + "\', \'MM/DD/YYYY\') AND TO_DATE(\'";
+         Date start = parseDate(in.readLine(), "MM/dd/yyyy");
          System.out.print("\tEnter end date (MM/DD/YYYY Format): ");
-         input = in.readLine();
-         query += input + "\', \'MM/DD/YYYY\') AND R.roomNo = B.roomNo AND R.hotelID = B.hotelID ORDER BY B.price DESC LIMIT ";
+         Date end = parseDate(in.readLine(), "MM/dd/yyyy");
          System.out.print("\tEnter number of rooms: ");
-         input = in.readLine();
-         query += input + ";";
-         int rowCount = esql.executeQuery(query);
+         int k = Integer.parseInt(in.readLine().trim());
+         int rowCount = esql.topKHighestRoomPriceForADateRange(start, end, k, esql.console());
          if(rowCount == 0){
          System.out.println("no rows");
         }
@@ -494,17 +1907,12 @@ query += "\'" + input + "\')";
    public static void topKHighestPriceBookingsForACustomer(DBProject esql){
 	  // Given a customer Name, List Top K highest booking price for a customer 
       try{
-         String query = "SELECT B.price FROM Booking B, Customer C WHERE C.fname = \'";
-         System.out.print("\tEnter first name: ");
-         String input = in.readLine();
-         query += input + "\' AND C.lname = \'";
-         System.out.print("\tEnter last name: ");
-         input = in.readLine();
-         query += input + "\' AND C.customerID = B.customer ORDER BY B.price DESC LIMIT ";
+         int[] customerIDs = readCustomer(esql);
+         if (customerIDs == null)
+            return;
          System.out.print("\tEnter number of bookings: ");
-         input = in.readLine();
-         query += input + ";";
-         int rowCount = esql.executeQuery(query);
+         int k = Integer.parseInt(in.readLine().trim());
+         int rowCount = esql.topKHighestPriceBookingsForCustomers(customerIDs, k, esql.console());
          if(rowCount == 0){
          System.out.println("no rows");
         }
@@ -517,23 +1925,16 @@ query += "\'" + input + "\')";
    public static void totalCostForCustomer(DBProject esql){
 	  // Given a hotelID, customer Name and date range get the total cost incurred by the customer
       try{
-         String query = "SELECT SUM(B.price) AS total FROM Booking B, Customer C  WHERE C.fname = \'";
-         System.out.print("\tEnter first name: ");
-         String input = in.readLine();
-         query += input + "\' AND C.lname = \'";
-         System.out.print("\tEnter last name: ");
-         input = in.readLine();
-         query += input + "\' AND bookingDate BETWEEN TO_DATE(\'";
+         int[] customerIDs = readCustomer(esql);
+         if (customerIDs == null)
+            return;
          System.out.print("\tEnter start date: ");
-         input = in.readLine();
-         query += input + "\', \'MM/DD/YYYY\') AND TO_DATE(\'";
+         Date start = parseDate(in.readLine(), "MM/dd/yyyy");
          System.out.print("\tEnter end date: ");
-         input = in.readLine();
-         query += input + "\', \'MM/DD/YYYY\') AND C.customerID = B.customer AND B.hotelID = ";
+         Date end = parseDate(in.readLine(), "MM/dd/yyyy");
          System.out.print("\tEnter hotelID: ");
-         input = in.readLine();
-         query += input + ";";
-         int totalCost = esql.executeQuery(query);
+         int hotelID = Integer.parseInt(in.readLine().trim());
+         int totalCost = esql.totalCostForCustomers(customerIDs, start, end, hotelID, esql.console());
          if(totalCost == 0){
          System.out.println("no rows");
         }
@@ -543,14 +1944,67 @@ query += "\'" + input + "\')";
       }
    }//end totalCostForCustomer
    
-   public static void listRepairsMade(DBProject esql){ 
+   /*
+    * Asks for a customer name and returns the IDs of the customers with
+    * that name.  When nobody has exactly that name, the entries are taken
+    * as the beginnings of the names; several matches are listed and one of
+    * them is picked by ID, asking again for an ID that was not listed.
+    * Returns null when no customer matches or the choice is cancelled.
+    **/
+   static int[] readCustomer(DBProject esql) throws IOException, SQLException {
+      System.out.print("\tEnter first name (or its beginning): ");
+      String fname = in.readLine();
+      System.out.print("\tEnter last name (or its beginning): ");
+      String lname = in.readLine();
+      int[] customerIDs = esql.customers().exact(fname, lname);
+      if (customerIDs.length > 0)
+         return customerIDs;
+
+      int limit = 20;
+      List<CustomerNameResolver.Customer> matches = esql.customers().prefix(fname, lname, limit + 1);
+      if (matches.isEmpty()) {
+         System.out.println("No customer matches");
+         return null;
+      }//end if
+      if (matches.size() == 1) {
+         System.out.println("\tCustomer " + matches.get(0));
+         return new int[] { matches.get(0).id() };
+      }//end if
+      for (int i = 0; i < matches.size() && i < limit; ++i)
+         System.out.println("\t" + matches.get(i));
+      if (matches.size() > limit)
+         System.out.println("\t... more customers match, enter more of the name to narrow the list");
+      int listed = Math.min(matches.size(), limit);
+      while (true) {
+         System.out.print("\tEnter customer ID (empty to cancel): ");
+         String line = in.readLine();
+         if (line == null || line.trim().isEmpty())
+            return null;
+         try{
+            int id = Integer.parseInt(line.trim());
+            for (int i = 0; i < listed; ++i)
+               if (matches.get(i).id() == id)
+                  return new int[] { id };
+         }catch (NumberFormatException e){
+         }//end try
+         System.out.println("\tNot one of the customers listed");
+      }//end while
+   }//end readCustomer
+
+   public static void listRepairsMade(final DBProject esql){ 
 	  // Given a Maintenance company name list all the repairs along with repairType, hotelID and roomNo
       try{
-         String query = "SELECT R.repairType, R.hotelID, R.roomNo FROM Repair R, MaintenanceCompany M WHERE M.name = \'";
          System.out.print("\tEnter maintenance company name: ");
-         String input = in.readLine();
-         query += input + "\' AND M.cmpID = R.mCompany;";
-         int rowCount = esql.executeQuery(query);
+         final String name = in.readLine();
+         if (esql._pageSize > 0) {
+            browse(esql, new KeysetPager.Listing() {
+               public KeysetPager.Page page(String token, boolean backward, int pageSize, ResultSink sink) throws SQLException {
+                  return esql.listRepairsMade(name, token, backward, pageSize, sink);
+               }
+            });
+         } else {
+            esql.listRepairsMade(name, esql.console());
+         }//end if
       }
       catch(Exception e){
          System.err.println (e.getMessage());
@@ -560,11 +2014,9 @@ query += "\'" + input + "\')";
    public static void topKMaintenanceCompany(DBProject esql){
 	  // List Top K Maintenance Company Names based on total repair count (descending order)
       try{
-         String query = "SELECT MC.name, COUNT(*)FROM MaintenanceCompany MC, Repair R WHERE MC.cmpID = R.mCompany GROUP BY MC.name ORDER BY COUNT(*) DESC LIMIT ";
          System.out.print("\tEnter number of companies: ");
-         String input = in.readLine();
-         query += input + ";";
-         int rowCount = esql.executeQuery(query);
+         int k = Integer.parseInt(in.readLine().trim());
+         int rowCount = esql.topKMaintenanceCompany(k, esql.console());
          if(rowCount == 0){
          System.out.println("no rows");
         }
@@ -577,19 +2029,295 @@ query += "\'" + input + "\')";
    public static void numberOfRepairsForEachRoomPerYear(DBProject esql){
 	  // Given a hotelID, roomNo, get the count of repairs per year
       try{
-         String query = "SELECT COALESCE(AVG(count), 0) AS Repairs_per_year from (SELECT EXTRACT(YEAR FROM repairDate) AS repairYear, COUNT(*) FROM Repair WHERE hotelID = ";
          System.out.print("\tEnter hotelID: ");
-         String input = in.readLine();
-         query += input + " AND roomNo = ";
+         int hotelID = Integer.parseInt(in.readLine().trim());
          System.out.print("\tEnter room number: ");
-         input = in.readLine();
-         query += input + " GROUP BY EXTRACT(YEAR FROM repairDate)";
-         query += ") as countPerYear;";
-         int avgRepairs = esql.executeQuery(query);
+         int roomNo = Integer.parseInt(in.readLine().trim());
+         esql.numberOfRepairsForEachRoomPerYear(hotelID, roomNo, esql.console());
       }
       catch(Exception e){
          System.err.println (e.getMessage());
       }
    }//end listRepairsMade
 
+   public static void freeRooms(DBProject esql){
+	  // Given a hotelID and a date range, list the rooms not booked on any day of the range
+      try{
+         System.out.print("\tEnter hotelID: ");
+         int hotelID = Integer.parseInt(in.readLine().trim());
+         System.out.print("\tEnter start date (MM/DD/YYYY Format): ");
+         Date start = parseDate(in.readLine(), "MM/dd/yyyy");
+         System.out.print("\tEnter end date (MM/DD/YYYY Format): ");
+         Date end = parseDate(in.readLine(), "MM/dd/yyyy");
+         int rowCount = esql.freeRooms(hotelID, start, end, esql.console());
+         if(rowCount == 0){
+            System.out.println("no rows");
+         }
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end freeRooms
+
+   public static void showStatistics(DBProject esql){
+      // Latency percentiles, rows and errors of every operation so far,
+      // then the pool and cache counters
+      System.out.println(esql.statistics());
+   }//end showStatistics
+
+   public static void showQueryAdvice(DBProject esql){
+      // Findings and candidate indexes per operation, then the last three
+      // plans captured
+      if (esql.advisor() == null) {
+         System.out.println("Start the program with -Ddbproject.advisor.slowMs=<ms> to capture the plans of slow statements");
+         return;
+      }//end if
+      System.out.println(esql.advisor().report());
+      List<QueryAdvisor.Capture> captures = esql.advisor().captures();
+      for (int i = Math.max(0, captures.size() - 3); i < captures.size(); ++i)
+         System.out.println(captures.get(i));
+   }//end showQueryAdvice
+
+   public static void cancelQuery(DBProject esql){
+      // List the statements running now (background reports, other
+      // threads) and cancel one of them
+      try{
+         List<AdmissionControl.Ticket> running = esql.admission().running();
+         if (running.isEmpty()) {
+            System.out.println("no running queries");
+            return;
+         }//end if
+         for (AdmissionControl.Ticket ticket : running)
+            System.out.println(ticket);
+         System.out.print("\tEnter the ID of the query to cancel (nothing to keep them): ");
+         String id = in.readLine().trim();
+         if (id.isEmpty())
+            return;
+         if (esql.admission().cancel(Integer.parseInt(id)))
+            System.out.println("Cancelled query " + id);
+         else
+            System.out.println("Query " + id + " is not running");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end cancelQuery
+
+   public static void archive(final DBProject esql){
+      // Move the rows older than a cutoff into the archive tables, in the
+      // background; option 19 prints the rows moved per table
+      try{
+         final Date defaultCutoff = addDays(new Date(System.currentTimeMillis()),
+            -intSetting("dbproject.archive.keepDays", 730));
+         System.out.print("\tEnter cutoff date (MM/DD/YYYY Format), nothing for " + defaultCutoff + ": ");
+         String input = in.readLine().trim();
+         final Date cutoff = input.isEmpty() ? defaultCutoff : parseDate(input, "MM/dd/yyyy");
+         int jobID = esql.reports().submitMaintenance("archive before " + cutoff, new ReportJobs.Report() {
+            public int run(ResultSink sink) throws SQLException {
+               return esql.archive(cutoff, sink);
+            }
+         });
+         System.out.println("Started job " + jobID);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end archive
+
+   public static void searchDescriptions(final DBProject esql){
+      // Find the repairs and requests whose description has all the given
+      // words, optionally in one hotel and date range, best matches first
+      try{
+         System.out.print("\tEnter words to search for: ");
+         final String text = in.readLine();
+         System.out.print("\tEnter hotelID (nothing for all hotels): ");
+         String hotel = in.readLine().trim();
+         final int hotelID = hotel.isEmpty() ? 0 : Integer.parseInt(hotel);
+         System.out.print("\tEnter start date (MM/DD/YYYY Format, nothing for no limit): ");
+         String input = in.readLine().trim();
+         final Date start = input.isEmpty() ? Date.valueOf("0001-01-01") : parseDate(input, "MM/dd/yyyy");
+         System.out.print("\tEnter end date (MM/DD/YYYY Format, nothing for no limit): ");
+         input = in.readLine().trim();
+         final Date end = input.isEmpty() ? Date.valueOf("9999-12-31") : parseDate(input, "MM/dd/yyyy");
+         int rowCount;
+         if (esql._pageSize > 0) {
+            rowCount = browse(esql, new KeysetPager.Listing() {
+               public KeysetPager.Page page(String token, boolean backward, int pageSize, ResultSink sink) throws SQLException {
+                  return esql.searchDescriptions(text, hotelID, start, end, token, backward, pageSize, sink);
+               }
+            });
+         } else {
+            rowCount = esql.searchDescriptions(text, hotelID, start, end, esql.console());
+         }//end if
+         if (rowCount == 0)
+            System.out.println("no rows");
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end searchDescriptions
+
+   public static void includeHistory(DBProject esql){
+      // Switch the queries on bookings and repairs between the recent rows
+      // and the recent rows together with the archives
+      esql.setIncludeHistory(!esql.includeHistory());
+      System.out.println("History is now " + (esql.includeHistory() ? "included" : "left out"));
+   }//end includeHistory
+
+   public static void submitReport(final DBProject esql){
+      // Start one of the reports in the background; the hotel reports run
+      // for several hotels at once, one query per hotel
+      try{
+         System.out.print("\tEnter report (8, 9, 10, 14, 15 or 16): ");
+         int report = Integer.parseInt(in.readLine().trim());
+         int jobID;
+         switch (report) {
+            case 8: case 9: case 10: {
+               System.out.print("\tEnter hotel IDs separated by commas, or all: ");
+               int[] hotelIDs = readHotelIDs(esql, in.readLine());
+               ReportJobs.HotelReport perHotel;
+               if (report == 8) {
+                  perHotel = new ReportJobs.HotelReport() {
+                     public int run(int hotelID, ResultSink sink) throws SQLException {
+                        return esql.numberOfAvailableRooms(hotelID, sink);
+                     }
+                  };
+               } else if (report == 9) {
+                  perHotel = new ReportJobs.HotelReport() {
+                     public int run(int hotelID, ResultSink sink) throws SQLException {
+                        return esql.numberOfBookedRooms(hotelID, sink);
+                     }
+                  };
+               } else {
+                  System.out.print("\tEnter start date (MM/DD/YYYY Format): ");
+                  final Date start = parseDate(in.readLine(), "MM/dd/yyyy");
+                  perHotel = new ReportJobs.HotelReport() {
+                     public int run(int hotelID, ResultSink sink) throws SQLException {
+                        return esql.listHotelRoomBookingsForAWeek(hotelID, start, sink);
+                     }
+                  };
+               }//end if
+               jobID = esql.reports().submitPerHotel("report " + report + " for " + hotelIDs.length + " hotels",
+                                                     hotelIDs, perHotel);
+               break;
+            }
+            case 14: {
+               System.out.print("\tEnter company name: ");
+               final String companyName = in.readLine();
+               jobID = esql.reports().submit("repairs made by " + companyName, new ReportJobs.Report() {
+                  public int run(ResultSink sink) throws SQLException {
+                     return esql.listRepairsMade(companyName, sink);
+                  }
+               });
+               break;
+            }
+            case 15: {
+               System.out.print("\tEnter number of companies: ");
+               final int k = Integer.parseInt(in.readLine().trim());
+               jobID = esql.reports().submit("top " + k + " maintenance companies", new ReportJobs.Report() {
+                  public int run(ResultSink sink) throws SQLException {
+                     return esql.topKMaintenanceCompany(k, sink);
+                  }
+               });
+               break;
+            }
+            case 16: {
+               System.out.print("\tEnter hotelID: ");
+               final int hotelID = Integer.parseInt(in.readLine().trim());
+               System.out.print("\tEnter room number: ");
+               final int roomNo = Integer.parseInt(in.readLine().trim());
+               jobID = esql.reports().submit("repairs per year of room " + hotelID + "/" + roomNo, new ReportJobs.Report() {
+                  public int run(ResultSink sink) throws SQLException {
+                     return esql.numberOfRepairsForEachRoomPerYear(hotelID, roomNo, sink);
+                  }
+               });
+               break;
+            }
+            default:
+               System.out.println("Report " + report + " cannot run in the background");
+               return;
+         }//end switch
+         System.out.println("Started job " + jobID);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end submitReport
+
+   // parses "1, 2, 5" or "all"
+   private static int[] readHotelIDs(DBProject esql, String input) throws SQLException {
+      if (input.trim().equalsIgnoreCase("all"))
+         return esql.hotelIDs();
+      String[] parts = input.split(",");
+      int[] hotelIDs = new int[parts.length];
+      for (int i = 0; i < parts.length; ++i)
+         hotelIDs[i] = Integer.parseInt(parts[i].trim());
+      return hotelIDs;
+   }//end readHotelIDs
+
+   public static void fetchReport(DBProject esql){
+      // Print the result of a finished background report
+      try{
+         if (esql.reports().jobs().isEmpty()) {
+            System.out.println("No background reports");
+            return;
+         }//end if
+         for (ReportJobs.Job job : esql.reports().jobs())
+            System.out.println("\t" + job);
+         System.out.print("\tEnter job ID: ");
+         int jobID = Integer.parseInt(in.readLine().trim());
+         ReportJobs.Job job = esql.reports().job(jobID);
+         if (job != null && !job.isDone()) {
+            System.out.println("Job " + jobID + " is still running");
+            return;
+         }//end if
+         System.out.print("\tEnter a file to write the result to (.csv or .bin), or nothing to print it: ");
+         String fileName = in.readLine().trim();
+         if (fileName.isEmpty()) {
+            int rowCount = esql.reports().fetch(jobID, esql.console());
+            if(rowCount == 0){
+               System.out.println("no rows");
+            }
+            return;
+         }//end if
+         Exporter.Export export = esql.exporter().open(new File(fileName),
+                                                       fileName.endsWith(".bin") ? "binary" : "csv");
+         try{
+            esql.reports().fetch(jobID, export.sink());
+         }finally{
+            export.close();
+         }//end try
+         System.out.println(export);
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end fetchReport
+
+   public static void exportTable(DBProject esql){
+      // Stream a whole table to a file, or to one file per hotel
+      try{
+         System.out.print("\tEnter table name: ");
+         String table = in.readLine().trim();
+         System.out.print("\tEnter format (csv or binary): ");
+         String format = in.readLine().trim();
+         System.out.print("\tEnter hotel IDs separated by commas or all for one file per hotel, or nothing: ");
+         String hotels = in.readLine().trim();
+         if (hotels.isEmpty()) {
+            System.out.print("\tEnter file name: ");
+            File file = new File(in.readLine().trim());
+            System.out.println(esql.exporter().exportTable(table, file, format));
+            return;
+         }//end if
+         System.out.print("\tEnter directory: ");
+         File dir = new File(in.readLine().trim());
+         long start = System.nanoTime();
+         long rows = 0, bytes = 0;
+         for (Exporter.Export export : esql.exporter().exportPerHotel(table, dir, format, readHotelIDs(esql, hotels))) {
+            System.out.println("\t" + export);
+            rows += export.rows();
+            bytes += export.bytes();
+         }//end for
+         long nanos = System.nanoTime() - start;
+         System.out.println(String.format("%d rows, %.1f MB in %.2f s (%.1f MB/s)", rows, bytes / 1e6,
+                                          nanos / 1e9, Exporter.megabytesPerSecond(bytes, nanos)));
+      }catch(Exception e){
+         System.err.println (e.getMessage());
+      }
+   }//end exportTable
+
 }//end DBProject
@@ -0,0 +1,648 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes synthetic hotel.csv, staff.csv, room.csv, customer.csv,
+ * maintenanceCompany.csv, booking.csv, repair.csv, request.csv and
+ * assigned.csv files in the formats of the bundled data/ files, at any
+ * multiple of their size, to be loaded with sql/create.sql or BulkLoader.
+ *
+ * At scale 1 the files have as many rows as the bundled ones: 1000 hotels
+ * with 10 rooms and 5 staff each (a manager, two receptionists and two
+ * house cleaners, like the bundled staff), 2000 customers, 20 maintenance
+ * companies, 4000 bookings, 2000 repairs with a request each and 2000
+ * cleaning assignments, all scaled by the scale factor.  Every file starts
+ * with the "default" row 0 of the bundled files, and every reference points
+ * to an existing row: requests are made by the manager of the repaired
+ * hotel, cleaning is assigned to a house cleaner of the hotel, and so on.
+ * A room is booked at most once a day.
+ *
+ * The output only depends on the seed and the sizes: every file is cut
+ * into chunks, each with a random generator seeded from the seed, the file
+ * and the chunk number, and written to a part file by one of several
+ * threads; the parts are then concatenated in order.  Within booking.csv
+ * the rows are ordered by hotel, room and date.
+ *
+ * Skew: with hotelSkew s > 0 the share of bookings and repairs of the
+ * hotel ranked r (hotel r) falls off like 1/r^s, so the low hotel IDs are
+ * the hot ones; customerSkew does the same for the customers of bookings.
+ * A room takes no more bookings than there are days in the date range, so
+ * with a strong skew and many bookings the hot rooms fill up and booking.csv
+ * ends up with fewer rows than asked for.
+ *
+ * Usage: java DataGenerator <output dir> [scale factor]
+ *
+ * Settings (system properties): dbproject.gen.seed (default 1),
+ * dbproject.gen.threads (default the number of processors),
+ * dbproject.gen.hotelSkew and dbproject.gen.customerSkew (default 0,
+ * uniform), dbproject.gen.firstYear and dbproject.gen.lastYear (the dates
+ * of bookings and repairs, default 2000 to 2018 as in the bundled files),
+ * and dbproject.gen.hotels, .customers, .companies, .bookings, .repairs and
+ * .assigned to set a row count instead of deriving it from the scale.
+ */
+public class DataGenerator {
+
+   static final int ROOMS_PER_HOTEL = 10;
+   static final String[] STAFF_ROLES = { "Manager", "Receptionist", "HouseCleaning", "Receptionist", "HouseCleaning" };
+   static final String[] ROOM_TYPES = { "Economy", "Economy", "Economy", "Economy", "Economy",
+                                        "Suite", "Suite", "Suite", "Deluxe", "Deluxe" };
+   static final String[] GENDERS = { "Male", "Female", "Other" };
+   static final String[] REPAIR_TYPES = { "Small", "Medium", "Large" };
+
+   // hotels or rows per chunk written by one task.
+   static final int HOTEL_CHUNK = 20000;
+   static final int ROW_CHUNK = 200000;
+
+   /** SplitMix64: small, fast and good enough for test data. */
+   static class Rng {
+      private long _state;
+
+      Rng (long seed, int file, long chunk) {
+         this._state = seed;
+         this._state = nextLong () ^ file * 0x9E3779B97F4A7C15L;
+         this._state = nextLong () ^ chunk * 0xC2B2AE3D27D4EB4FL;
+      }//end Rng
+
+      long nextLong () {
+         long z = (this._state += 0x9E3779B97F4A7C15L);
+         z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+         z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+         return z ^ (z >>> 31);
+      }//end nextLong
+
+      /** Uniform in [0, bound). */
+      int nextInt (int bound) {
+         return (int) (((nextLong () >>> 33) * bound) >>> 31);
+      }//end nextInt
+
+      /** Uniform in [0, 1). */
+      double nextDouble () {
+         return (nextLong () >>> 11) * 0x1.0p-53;
+      }//end nextDouble
+   }//end Rng
+
+   /**
+    * A power law over the ranks 1 to n: rank r is drawn with a probability
+    * falling off like 1/r^s, approximated by the continuous distribution
+    * so that both drawing and the cumulative share are O(1).  s = 0 is
+    * uniform.
+    */
+   static class Skew {
+      private final double _s;
+      private final long _n;
+      private final double _total;
+
+      Skew (double s, long n) {
+         if (s < 0)
+            throw new IllegalArgumentException("skew must not be negative: " + s);
+         this._s = s;
+         this._n = n;
+         this._total = g (n);
+      }//end Skew
+
+      // integral of 1/(x+1)^s from 0 to x
+      private double g (double x) {
+         if (Math.abs (1 - this._s) < 1e-9)
+            return Math.log1p (x);
+         return (Math.pow (x + 1, 1 - this._s) - 1) / (1 - this._s);
+      }//end g
+
+      private double inverse (double y) {
+         if (Math.abs (1 - this._s) < 1e-9)
+            return Math.expm1 (y);
+         return Math.pow (y * (1 - this._s) + 1, 1 / (1 - this._s)) - 1;
+      }//end inverse
+
+      /** The share of the ranks 1 to r together. */
+      double cumulative (long r) {
+         return r >= this._n ? 1.0 : g (r) / this._total;
+      }//end cumulative
+
+      long sample (Rng rng) {
+         long r = (long) inverse (rng.nextDouble () * this._total) + 1;
+         return Math.min (Math.max (r, 1), this._n);
+      }//end sample
+   }//end Skew
+
+   /** A part file being written, one line at a time. */
+   static class Part {
+      private static final int CHUNK = 1 << 16;
+
+      private final Exporter.ChannelOutput _out;
+      private final StringBuilder _line = new StringBuilder(CHUNK + 256);
+      private final char[] _chars = new char[CHUNK + 256];
+      private boolean _first = true;
+      private long _rows = 0;
+
+      Part (File file) throws IOException {
+         this._out = new Exporter.ChannelOutput(new FileOutputStream(file).getChannel (), 1 << 20);
+      }//end Part
+
+      Part field (long value) {
+         separate ();
+         this._line.append (value);
+         return this;
+      }//end field
+
+      Part field (String value) {
+         separate ();
+         this._line.append (value);
+         return this;
+      }//end field
+
+      Part word (Rng rng, int length) {
+         separate ();
+         for (int i = 0; i < length; ++i)
+            this._line.append ((char) ('a' + rng.nextInt (26)));
+         return this;
+      }//end word
+
+      /** A word of up to 4 letters taken from the bits of a drawn value. */
+      Part word (long bits, int length) {
+         separate ();
+         for (int i = 0; i < length; ++i)
+            this._line.append ((char) ('a' + (int) ((bits >>> (16 * i)) & 0xFFFF) % 26));
+         return this;
+      }//end word
+
+      /** Appends a day (days since 1970-01-01) as M/D/YYYY. */
+      Part date (int epochDay) {
+         separate ();
+         // civil_from_days, H. Hinnant
+         int z = epochDay + 719468;
+         int era = (z >= 0 ? z : z - 146096) / 146097;
+         int doe = z - era * 146097;
+         int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+         int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+         int mp = (5 * doy + 2) / 153;
+         int d = doy - (153 * mp + 2) / 5 + 1;
+         int m = mp < 10 ? mp + 3 : mp - 9;
+         int y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+         this._line.append (m).append ('/').append (d).append ('/').append (y);
+         return this;
+      }//end date
+
+      private void separate () {
+         if (!this._first)
+            this._line.append (',');
+         this._first = false;
+      }//end separate
+
+      void endLine () throws IOException {
+         this._line.append ('\n');
+         this._first = true;
+         ++this._rows;
+         if (this._line.length () >= CHUNK)
+            flush ();
+      }//end endLine
+
+      private void flush () throws IOException {
+         int length = this._line.length ();
+         for (int offset = 0; offset < length; offset += this._chars.length) {
+            int n = Math.min (this._chars.length, length - offset);
+            this._line.getChars (offset, offset + n, this._chars, 0);
+            this._out.write (this._chars, 0, n);
+         }//end for
+         this._line.setLength (0);
+      }//end flush
+
+      long rows () {
+         return this._rows;
+      }//end rows
+
+      void close () throws IOException {
+         try{
+            flush ();
+         }finally{
+            this._out.close ();
+         }//end try
+      }//end close
+   }//end Part
+
+   /** Writes the rows of one chunk of a file. */
+   interface Rows {
+      /**
+       * @param from the first unit (hotel or row) of the chunk
+       * @param to the unit after the last one
+       * @param firstID the first ID of the chunk, for files whose IDs are
+       *        not the units
+       */
+      void write (Part out, Rng rng, long from, long to, long firstID) throws IOException;
+   }//end Rows
+
+   /** One file: its units (0 to units - 1), cut into chunks. */
+   private static class Output {
+      final int index;
+      final String file;
+      final long units;
+      final int chunkSize;
+      final Rows rows;
+      final List<Future<Long>> parts = new ArrayList<Future<Long>>();
+
+      Output (int index, String file, long units, int chunkSize, Rows rows) {
+         this.index = index;
+         this.file = file;
+         this.units = units;
+         this.chunkSize = chunkSize;
+         this.rows = rows;
+      }//end Output
+
+      int chunks () {
+         return (int) ((this.units + this.chunkSize - 1) / this.chunkSize);
+      }//end chunks
+   }//end Output
+
+   private final long _seed;
+   private final int _hotels;
+   private final int _customers;
+   private final int _companies;
+   private final long _bookings;
+   private final int _repairs;
+   private final int _assigned;
+   private final int _firstDay;
+   private final int _days;
+   private final Skew _hotelSkew;
+   private final Skew _customerSkew;
+
+   /**
+    * @param scale the multiple of the bundled data size
+    * @param seed the seed of all random choices
+    */
+   public DataGenerator (double scale, long seed) {
+      if (!(scale > 0))
+         throw new IllegalArgumentException("scale must be positive: " + scale);
+      this._seed = seed;
+      this._hotels = DBProject.intSetting ("dbproject.gen.hotels", scaled (1000, scale));
+      this._customers = DBProject.intSetting ("dbproject.gen.customers", scaled (2000, scale));
+      this._companies = DBProject.intSetting ("dbproject.gen.companies", scaled (20, scale));
+      this._bookings = DBProject.intSetting ("dbproject.gen.bookings", scaled (4000, scale));
+      this._repairs = DBProject.intSetting ("dbproject.gen.repairs", scaled (2000, scale));
+      this._assigned = DBProject.intSetting ("dbproject.gen.assigned", scaled (2000, scale));
+      int firstYear = DBProject.intSetting ("dbproject.gen.firstYear", 2000);
+      int lastYear = DBProject.intSetting ("dbproject.gen.lastYear", 2018);
+      if (firstYear > lastYear)
+         throw new IllegalArgumentException("firstYear is after lastYear");
+      this._firstDay = epochDay (firstYear, 1, 1);
+      this._days = epochDay (lastYear + 1, 1, 1) - this._firstDay;
+      this._hotelSkew = new Skew(doubleSetting ("dbproject.gen.hotelSkew"), this._hotels);
+      this._customerSkew = new Skew(doubleSetting ("dbproject.gen.customerSkew"), this._customers);
+   }//end DataGenerator
+
+   private static int scaled (int rows, double scale) {
+      double n = Math.ceil (rows * scale);
+      if (n > Integer.MAX_VALUE)
+         throw new IllegalArgumentException("scale too large: " + scale);
+      return Math.max (1, (int) n);
+   }//end scaled
+
+   private static double doubleSetting (String name) {
+      String value = System.getProperty (name);
+      return value == null || value.trim ().isEmpty () ? 0.0 : Double.parseDouble (value.trim ());
+   }//end doubleSetting
+
+   /** Days since 1970-01-01 of a date (days_from_civil, H. Hinnant). */
+   static int epochDay (int y, int m, int d) {
+      y -= m <= 2 ? 1 : 0;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yoe = y - era * 400;
+      int doy = (153 * (m > 2 ? m - 3 : m + 9) + 2) / 5 + d - 1;
+      int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+      return era * 146097 + doe - 719468;
+   }//end epochDay
+
+   static long managerOf (long hotelID) {
+      return (hotelID - 1) * STAFF_ROLES.length + 1;
+   }//end managerOf
+
+   /**
+    * Writes all files into a directory.
+    *
+    * @param threads the number of files parts written at once
+    * @throws java.io.IOException when a file could not be written
+    */
+   public void generate (File dir, int threads) throws IOException {
+      if (!dir.isDirectory () && !dir.mkdirs ())
+         throw new IOException("Cannot create " + dir);
+      final int hotels = this._hotels;
+      final int customers = this._customers;
+      final int companies = this._companies;
+      final int firstDay = this._firstDay;
+      final int days = this._days;
+
+      List<Output> outputs = new ArrayList<Output>();
+      outputs.add (new Output(0, "hotel.csv", hotels + 1L, HOTEL_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            for (long h = from; h < to; ++h) {
+               if (h == 0)
+                  out.field (0).field ("default");
+               else
+                  out.field (h).word (rng, 6);
+               out.field ("\\N").endLine ();
+            }//end for
+         }
+      }));
+      outputs.add (new Output(1, "staff.csv", hotels + 1L, HOTEL_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            for (long h = from; h < to; ++h) {
+               if (h == 0) {
+                  out.field (0).field ("default").field ("default").field ("default").field ("Manager").field (0).endLine ();
+                  continue;
+               }//end if
+               for (int i = 0; i < STAFF_ROLES.length; ++i)
+                  out.field (managerOf (h) + i).word (rng, 4).word (rng, 4).word (rng, 6)
+                     .field (STAFF_ROLES[i]).field (h).endLine ();
+            }//end for
+         }
+      }));
+      outputs.add (new Output(2, "room.csv", hotels + 1L, HOTEL_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            for (long h = from; h < to; ++h) {
+               if (h == 0) {
+                  out.field (0).field (0).field ("default").endLine ();
+                  continue;
+               }//end if
+               for (int r = 1; r <= ROOMS_PER_HOTEL; ++r)
+                  out.field (h).field (r).field (ROOM_TYPES[rng.nextInt (ROOM_TYPES.length)]).endLine ();
+            }//end for
+         }
+      }));
+      outputs.add (new Output(3, "customer.csv", customers + 1L, ROW_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            int firstDOB = epochDay (1900, 1, 1);
+            int dobDays = epochDay (2000, 1, 1) - firstDOB;
+            for (long c = from; c < to; ++c) {
+               if (c == 0)
+                  out.field (0).field ("default").field ("default").field ("default").field (0)
+                     .date (epochDay (2000, 1, 1)).field ("Male");
+               else
+                  out.field (c).word (rng, 4).word (rng, 4).word (rng, 6).field ((rng.nextLong () >>> 1) % 10000000000L)
+                     .date (firstDOB + rng.nextInt (dobDays)).field (GENDERS[rng.nextInt (GENDERS.length)]);
+               out.endLine ();
+            }//end for
+         }
+      }));
+      outputs.add (new Output(4, "maintenanceCompany.csv", companies + 1L, ROW_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            for (long c = from; c < to; ++c) {
+               if (c == 0)
+                  out.field (0).field ("default").field ("default");
+               else
+                  out.field (c).word (rng, 4).word (rng, 6);
+               out.field ("TRUE").endLine ();
+            }//end for
+         }
+      }));
+      outputs.add (new Output(5, "booking.csv", hotels + 1L, HOTEL_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            long bID = firstID;
+            long[] taken = new long[(days + 63) / 64];
+            for (long h = from; h < to; ++h) {
+               if (h == 0) {
+                  out.field (bID++).field (0).field (0).field (0).date (epochDay (2000, 1, 1)).field (0).field (0).endLine ();
+                  continue;
+               }//end if
+               long hotelBookings = hotelBookings (h);
+               for (int r = 1; r <= ROOMS_PER_HOTEL; ++r) {
+                  int count = roomBookings (hotelBookings, r);
+                  pickDays (rng, taken, days, count);
+                  for (int w = 0; w < taken.length; ++w) {
+                     for (long bits = taken[w]; bits != 0; bits &= bits - 1) {
+                        int day = w * 64 + Long.numberOfTrailingZeros (bits);
+                        out.field (bID++).field (DataGenerator.this._customerSkew.sample (rng)).field (h).field (r)
+                           .date (firstDay + day).field (1 + rng.nextInt (3)).field (500 + rng.nextInt (1500)).endLine ();
+                     }//end for
+                     taken[w] = 0;
+                  }//end for
+               }//end for
+            }//end for
+         }
+      }));
+      outputs.add (new Output(6, "repair.csv", this._repairs + 1L, ROW_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            long[] repair = new long[6];
+            for (long i = from; i < to; ++i) {
+               if (i == 0) {
+                  out.field (0).field (0).field (0).field (0).date (epochDay (2000, 1, 1)).field ("default").field ("Small").endLine ();
+                  continue;
+               }//end if
+               repair (rng, repair);
+               out.field (i).field (repair[0]).field (repair[2]).field (repair[3])
+                  .date ((int) repair[1]).word (repair[5], 4).field (REPAIR_TYPES[(int) repair[4]]).endLine ();
+            }//end for
+         }
+      }));
+      // a request per repair, made by the manager of the repaired hotel up to
+      // a year after the repair; the repairs are drawn again from their seeds.
+      outputs.add (new Output(7, "request.csv", this._repairs + 1L, ROW_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            Rng repairs = new Rng(DataGenerator.this._seed, 6, from / ROW_CHUNK);
+            long[] repair = new long[6];
+            for (long i = from; i < to; ++i) {
+               if (i == 0) {
+                  out.field (0).field (0).field (0).date (epochDay (2000, 1, 1)).field ("default").endLine ();
+                  continue;
+               }//end if
+               repair (repairs, repair);
+               out.field (i).field (managerOf (repair[0])).field (i).date ((int) repair[1] + rng.nextInt (366))
+                  .word (rng, 4).endLine ();
+            }//end for
+         }
+      }));
+      outputs.add (new Output(8, "assigned.csv", this._assigned + 1L, ROW_CHUNK, new Rows() {
+         public void write (Part out, Rng rng, long from, long to, long firstID) throws IOException {
+            for (long i = from; i < to; ++i) {
+               if (i == 0) {
+                  out.field (0).field (0).field (0).field (0).endLine ();
+                  continue;
+               }//end if
+               long h = 1 + rng.nextInt (hotels);
+               // staff 3 and 5 of every hotel clean
+               out.field (i).field (managerOf (h) + (rng.nextInt (2) == 0 ? 2 : 4)).field (h)
+                  .field (1 + rng.nextInt (ROOMS_PER_HOTEL)).endLine ();
+            }//end for
+         }
+      }));
+
+      ExecutorService executor = Executors.newFixedThreadPool (threads, new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "generate");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      long start = System.nanoTime ();
+      try{
+         long[] firstBookingIDs = firstBookingIDs (executor, outputs.get (5).chunks ());
+         for (Output output : outputs) {
+            for (int chunk = 0; chunk < output.chunks (); ++chunk)
+               output.parts.add (executor.submit (chunkTask (dir, output, chunk,
+                  output.index == 5 ? firstBookingIDs[chunk] : chunk * (long) output.chunkSize)));
+         }//end for
+
+         long totalRows = 0, totalBytes = 0;
+         for (Output output : outputs) {
+            long rows = 0;
+            for (Future<Long> part : output.parts)
+               rows += part.get ();
+            File file = new File(dir, output.file);
+            concatenate (dir, output, file);
+            report (output.file, rows, file.length ());
+            totalRows += rows;
+            totalBytes += file.length ();
+         }//end for
+         long nanos = System.nanoTime () - start;
+         System.out.println (String.format ("%-24s %,14d rows %,10.1f MB %8.2f s %8.1f MB/s",
+            "all files", totalRows, totalBytes / 1e6, nanos / 1e9, Exporter.megabytesPerSecond (totalBytes, nanos)));
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+         throw new IOException("Interrupted while generating");
+      }catch (ExecutionException e){
+         if (e.getCause () instanceof IOException)
+            throw (IOException) e.getCause ();
+         throw new IOException("Generating failed: " + e.getCause (), e.getCause ());
+      }finally{
+         executor.shutdownNow ();
+      }//end try
+   }//end generate
+
+   private Callable<Long> chunkTask (final File dir, final Output output, final int chunk, final long firstID) {
+      return new Callable<Long>() {
+         public Long call () throws IOException {
+            long from = chunk * (long) output.chunkSize;
+            long to = Math.min (output.units, from + output.chunkSize);
+            Part part = new Part(partFile (dir, output, chunk));
+            try{
+               output.rows.write (part, new Rng(DataGenerator.this._seed, output.index, chunk), from, to, firstID);
+            }finally{
+               part.close ();
+            }//end try
+            return part.rows ();
+         }
+      };
+   }//end chunkTask
+
+   private static File partFile (File dir, Output output, int chunk) {
+      return new File(dir, output.file + ".part" + chunk);
+   }//end partFile
+
+   private static void concatenate (File dir, Output output, File file) throws IOException {
+      FileChannel target = new FileOutputStream(file).getChannel ();
+      try{
+         for (int chunk = 0; chunk < output.chunks (); ++chunk) {
+            File partFile = partFile (dir, output, chunk);
+            FileChannel part = new FileInputStream(partFile).getChannel ();
+            try{
+               long size = part.size ();
+               for (long position = 0; position < size; )
+                  position += part.transferTo (position, size - position, target);
+            }finally{
+               part.close ();
+            }//end try
+            if (!partFile.delete ())
+               throw new IOException("Cannot delete " + partFile);
+         }//end for
+      }finally{
+         target.close ();
+      }//end try
+   }//end concatenate
+
+   // the bookings of a hotel: its share of all bookings under the hotel
+   // skew, rounded so that the hotels add up to exactly the bookings asked for.
+   private long hotelBookings (long h) {
+      return (long) Math.floor (this._bookings * this._hotelSkew.cumulative (h))
+         - (long) Math.floor (this._bookings * this._hotelSkew.cumulative (h - 1));
+   }//end hotelBookings
+
+   // a room's part of its hotel's bookings, at most one a day.
+   private int roomBookings (long hotelBookings, int r) {
+      long count = hotelBookings * r / ROOMS_PER_HOTEL - hotelBookings * (r - 1) / ROOMS_PER_HOTEL;
+      return (int) Math.min (count, this._days);
+   }//end roomBookings
+
+   /**
+    * Counts the bookings of every hotel chunk, in parallel, and returns the
+    * first booking ID of every chunk.
+    */
+   private long[] firstBookingIDs (ExecutorService executor, int chunks) throws InterruptedException, ExecutionException {
+      List<Future<Long>> counts = new ArrayList<Future<Long>>();
+      for (int chunk = 0; chunk < chunks; ++chunk) {
+         final long from = chunk * (long) HOTEL_CHUNK;
+         final long to = Math.min (this._hotels + 1L, from + HOTEL_CHUNK);
+         counts.add (executor.submit (new Callable<Long>() {
+            public Long call () {
+               long count = 0;
+               for (long h = Math.max (from, 1); h < to; ++h) {
+                  long hotelBookings = hotelBookings (h);
+                  for (int r = 1; r <= ROOMS_PER_HOTEL; ++r)
+                     count += roomBookings (hotelBookings, r);
+               }//end for
+               return from == 0 ? count + 1 : count;
+            }
+         }));
+      }//end for
+      long[] firstIDs = new long[chunks];
+      long next = 0;
+      for (int chunk = 0; chunk < chunks; ++chunk) {
+         firstIDs[chunk] = next;
+         next += counts.get (chunk).get ();
+      }//end for
+      return firstIDs;
+   }//end firstBookingIDs
+
+   // draws a repair row: hotel, day, room, company, type and the bits of
+   // its description.
+   private void repair (Rng rng, long[] repair) {
+      repair[0] = this._hotelSkew.sample (rng);
+      repair[1] = this._firstDay + rng.nextInt (this._days);
+      repair[2] = 1 + rng.nextInt (ROOMS_PER_HOTEL);
+      repair[3] = 1 + rng.nextInt (this._companies);
+      repair[4] = rng.nextInt (REPAIR_TYPES.length);
+      repair[5] = rng.nextLong ();
+   }//end repair
+
+   /**
+    * Sets count distinct bits out of the first days bits, which must all be
+    * clear (R. Floyd's sampling).
+    */
+   static void pickDays (Rng rng, long[] taken, int days, int count) {
+      for (int j = days - count; j < days; ++j) {
+         int t = rng.nextInt (j + 1);
+         if ((taken[t >> 6] & 1L << (t & 63)) != 0)
+            t = j;
+         taken[t >> 6] |= 1L << (t & 63);
+      }//end for
+   }//end pickDays
+
+   private static void report (String what, long rows, long bytes) {
+      System.out.println (String.format ("%-24s %,14d rows %,10.1f MB", what, rows, bytes / 1e6));
+   }//end report
+
+   public static void main (String[] args) {
+      if (args.length < 1) {
+         System.err.println ("Usage: java [-classpath <classpath>] " + DataGenerator.class.getName ()
+            + " <output dir> [scale factor]");
+         return;
+      }//end if
+      try{
+         double scale = args.length > 1 ? Double.parseDouble (args[1]) : 1.0;
+         String seed = System.getProperty ("dbproject.gen.seed", "1");
+         DataGenerator generator = new DataGenerator (scale, Long.parseLong (seed.trim ()));
+         generator.generate (new File(args[0]),
+            DBProject.intSetting ("dbproject.gen.threads", Runtime.getRuntime ().availableProcessors ()));
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }//end try
+   }//end main
+
+}//end DataGenerator
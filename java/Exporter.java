@@ -0,0 +1,371 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+
+/**
+ * Streams tables and query results into files.
+ *
+ * Rows are read through a ServerCursor (DECLARE, then FETCH fetchSize rows
+ * per round trip) and encoded straight into a large direct buffer that is
+ * written to a FileChannel whenever it fills up, so memory use depends on
+ * the fetch size and buffer size but not on the number of rows.
+ *
+ * Two formats are written: "csv", as ResultSink.Csv prints it, and
+ * "binary", a compact row format:
+ *
+ *    "DBPX" 1                         magic and version
+ *    n name1 ... namen                column count and names
+ *    1 value1 ... valuen              one per row
+ *    0                                end of the rows
+ *
+ * where counts and lengths are unsigned varints (7 bits per byte, low bits
+ * first), names are a length followed by UTF-8 bytes, and every value is a
+ * tag byte: 0 for NULL, 1 followed by a length and UTF-8 bytes for text.
+ */
+public class Exporter {
+
+   private static final Charset UTF8 = Charset.forName ("UTF-8");
+   private static final Pattern IDENTIFIER = Pattern.compile ("[A-Za-z_][A-Za-z0-9_]*");
+
+   /**
+    * A Writer encoding into a direct buffer that is drained into a file
+    * channel; also takes raw bytes for the binary format.
+    */
+   public static class ChannelOutput extends Writer {
+      private final FileChannel _channel;
+      private final ByteBuffer _buffer;
+      private final CharsetEncoder _encoder = UTF8.newEncoder ();
+      // the high surrogate that ended the last write, when its low
+      // surrogate is still to come in the next one.
+      private final CharBuffer _pending = CharBuffer.allocate (2);
+      private long _bytes = 0;
+
+      public ChannelOutput (FileChannel channel, int bufferSize) {
+         this._channel = channel;
+         this._buffer = ByteBuffer.allocateDirect (bufferSize);
+      }//end ChannelOutput
+
+      @Override
+      public void write (char[] chars, int offset, int length) throws IOException {
+         if (length <= 0)
+            return;
+         if (this._pending.position () > 0) {
+            this._pending.put (chars[offset]);
+            ++offset;
+            --length;
+            this._pending.flip ();
+            encode (this._pending, false);
+            this._pending.compact ();
+         }//end if
+         CharBuffer in = CharBuffer.wrap (chars, offset, length);
+         encode (in, false);
+         if (in.hasRemaining ())
+            this._pending.put (in);
+      }//end write
+
+      // encodes into the buffer, draining it whenever it fills up; short of
+      // the end of input, a trailing high surrogate stays in the input.
+      private void encode (CharBuffer in, boolean endOfInput) throws IOException {
+         while (true) {
+            CoderResult result = this._encoder.encode (in, this._buffer, endOfInput);
+            if (result.isOverflow ())
+               drain ();
+            else if (result.isUnderflow ())
+               break;
+            else
+               result.throwException ();
+         }//end while
+      }//end encode
+
+      /** Makes room for at least the given number of bytes. */
+      void reserve (int bytes) throws IOException {
+         if (this._buffer.remaining () < bytes)
+            drain ();
+      }//end reserve
+
+      void put (byte b) throws IOException {
+         reserve (1);
+         this._buffer.put (b);
+      }//end put
+
+      void put (byte[] bytes) throws IOException {
+         int offset = 0;
+         while (offset < bytes.length) {
+            if (!this._buffer.hasRemaining ())
+               drain ();
+            int n = Math.min (this._buffer.remaining (), bytes.length - offset);
+            this._buffer.put (bytes, offset, n);
+            offset += n;
+         }//end while
+      }//end put
+
+      void putVarint (long value) throws IOException {
+         reserve (10);
+         while ((value & ~0x7FL) != 0) {
+            this._buffer.put ((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+         }//end while
+         this._buffer.put ((byte) value);
+      }//end putVarint
+
+      /** Writes a length and the UTF-8 bytes of a string. */
+      void putString (String s) throws IOException {
+         int length = s.length ();
+         boolean ascii = true;
+         for (int i = 0; i < length && ascii; ++i)
+            ascii = s.charAt (i) < 0x80;
+         if (!ascii) {
+            byte[] bytes = s.getBytes (UTF8);
+            putVarint (bytes.length);
+            put (bytes);
+            return;
+         }//end if
+         putVarint (length);
+         int offset = 0;
+         while (offset < length) {
+            if (!this._buffer.hasRemaining ())
+               drain ();
+            int end = Math.min (length, offset + this._buffer.remaining ());
+            for (; offset < end; ++offset)
+               this._buffer.put ((byte) s.charAt (offset));
+         }//end while
+      }//end putString
+
+      private void drain () throws IOException {
+         this._buffer.flip ();
+         while (this._buffer.hasRemaining ())
+            this._bytes += this._channel.write (this._buffer);
+         this._buffer.clear ();
+      }//end drain
+
+      @Override
+      public void flush () throws IOException {
+         drain ();
+      }//end flush
+
+      @Override
+      public void close () throws IOException {
+         try{
+            this._pending.flip ();
+            encode (this._pending, true);
+            while (this._encoder.flush (this._buffer).isOverflow ())
+               drain ();
+            drain ();
+         }finally{
+            this._channel.close ();
+         }//end try
+      }//end close
+
+      /** Bytes written to the channel so far. */
+      public long bytes () {
+         return this._bytes;
+      }//end bytes
+   }//end ChannelOutput
+
+   /** Writes rows in the binary format described above. */
+   public static class Binary extends ResultSink {
+      private final ChannelOutput _out;
+      private boolean _rowStarted = false;
+
+      public Binary (ChannelOutput out) {
+         this._out = out;
+      }//end Binary
+
+      public void begin (String[] columns) throws IOException {
+         this._out.put (new byte[] { 'D', 'B', 'P', 'X', 1 });
+         this._out.putVarint (columns.length);
+         for (String column : columns)
+            this._out.putString (column);
+      }//end begin
+
+      public void value (String value) throws IOException {
+         if (!this._rowStarted) {
+            this._out.put ((byte) 1);
+            this._rowStarted = true;
+         }//end if
+         if (value == null) {
+            this._out.put ((byte) 0);
+         } else {
+            this._out.put ((byte) 1);
+            this._out.putString (value);
+         }//end if
+      }//end value
+
+      public void endRow () throws IOException {
+         if (!this._rowStarted)
+            this._out.put ((byte) 1);
+         this._rowStarted = false;
+         ++this._rows;
+      }//end endRow
+
+      @Override
+      public void end () throws IOException {
+         this._out.put ((byte) 0);
+         this._out.flush ();
+      }//end end
+   }//end Binary
+
+   /** One file being written, and how fast it went. */
+   public static class Export {
+      private final File _file;
+      private final ChannelOutput _out;
+      private final ResultSink _sink;
+      private final long _start = System.nanoTime ();
+      private long _nanos = 0;
+
+      Export (File file, String format, int bufferSize) throws IOException {
+         this._file = file;
+         this._out = new ChannelOutput(new FileOutputStream(file).getChannel (), bufferSize);
+         if (format.equalsIgnoreCase ("csv"))
+            this._sink = new ResultSink.Csv(this._out);
+         else if (format.equalsIgnoreCase ("binary"))
+            this._sink = new Binary(this._out);
+         else {
+            this._out.close ();
+            throw new IllegalArgumentException("Unknown export format: " + format);
+         }//end if
+      }//end Export
+
+      /** The sink to hand the rows to. */
+      public ResultSink sink () { return this._sink; }
+
+      public File file () { return this._file; }
+      public long rows () { return this._sink.rows (); }
+      public long bytes () { return this._out.bytes (); }
+      public long nanos () { return this._nanos; }
+
+      /** Writes what is buffered and closes the file. */
+      public void close () throws IOException {
+         this._out.close ();
+         this._nanos = System.nanoTime () - this._start;
+      }//end close
+
+      @Override
+      public String toString () {
+         return String.format ("%s: %d rows, %.1f MB in %.2f s (%.1f MB/s)", this._file, rows (),
+            bytes () / 1e6, this._nanos / 1e9, megabytesPerSecond (bytes (), this._nanos));
+      }//end toString
+   }//end Export
+
+   private final DBProject _esql;
+   private final int _fetchSize;
+   private final int _bufferSize;
+   private final int _threads;
+
+   /**
+    * @param esql the session whose connections are used
+    * @param fetchSize rows read per round trip
+    * @param bufferSize bytes buffered per file before writing
+    * @param threads files written at once by exportPerHotel
+    */
+   public Exporter (DBProject esql, int fetchSize, int bufferSize, int threads) {
+      if (fetchSize < 1 || bufferSize < 64 || threads < 1)
+         throw new IllegalArgumentException("invalid export settings");
+      this._esql = esql;
+      this._fetchSize = fetchSize;
+      this._bufferSize = bufferSize;
+      this._threads = threads;
+   }//end Exporter
+
+   /**
+    * Opens a file to export into; hand export.sink () to a query or a menu
+    * operation, then close the export.
+    */
+   public Export open (File file, String format) throws IOException {
+      return new Export(file, format, this._bufferSize);
+   }//end open
+
+   /**
+    * Streams the result of a query into a file.
+    *
+    * @throws java.sql.SQLException when the query failed
+    * @throws java.io.IOException when the file could not be written
+    */
+   public Export exportQuery (File file, String format, String query, Object... params) throws SQLException, IOException {
+      Export export = open (file, format);
+      try{
+         this._esql.executeQuery (export.sink (), this._fetchSize, query, params);
+      }finally{
+         export.close ();
+      }//end try
+      return export;
+   }//end exportQuery
+
+   /** Streams a whole table into a file. */
+   public Export exportTable (String table, File file, String format) throws SQLException, IOException {
+      return exportQuery (file, format, "SELECT * FROM " + checkIdentifier (table));
+   }//end exportTable
+
+   /**
+    * Streams the rows of each hotel of a table with a hotelID column into a
+    * file of its own in the given directory, several files at once.
+    *
+    * @return the exports, in the order of the hotels
+    */
+   public List<Export> exportPerHotel (String table, final File dir, final String format, int[] hotelIDs)
+         throws SQLException, IOException {
+      final String query = "SELECT * FROM " + checkIdentifier (table) + " WHERE hotelID = ?";
+      final String prefix = table.toLowerCase () + "_hotel";
+      final String suffix = format.equalsIgnoreCase ("binary") ? ".bin" : ".csv";
+      ExecutorService executor = Executors.newFixedThreadPool (this._threads, new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "export");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      try{
+         List<Future<Export>> parts = new ArrayList<Future<Export>>();
+         for (final int hotelID : hotelIDs) {
+            parts.add (executor.submit (new Callable<Export>() {
+               public Export call () throws Exception {
+                  return exportQuery (new File(dir, prefix + hotelID + suffix), format, query, hotelID);
+               }
+            }));
+         }//end for
+         List<Export> exports = new ArrayList<Export>();
+         for (Future<Export> part : parts)
+            exports.add (part.get ());
+         return exports;
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+         throw new IOException("Interrupted while exporting");
+      }catch (ExecutionException e){
+         if (e.getCause () instanceof SQLException)
+            throw (SQLException) e.getCause ();
+         if (e.getCause () instanceof IOException)
+            throw (IOException) e.getCause ();
+         throw new IOException("Export failed: " + e.getCause (), e.getCause ());
+      }finally{
+         executor.shutdownNow ();
+      }//end try
+   }//end exportPerHotel
+
+   static String checkIdentifier (String name) {
+      if (!IDENTIFIER.matcher (name).matches ())
+         throw new IllegalArgumentException("Not a table name: " + name);
+      return name;
+   }//end checkIdentifier
+
+   static double megabytesPerSecond (long bytes, long nanos) {
+      return nanos <= 0 ? 0.0 : bytes / 1e6 / (nanos / 1e9);
+   }//end megabytesPerSecond
+
+}//end Exporter
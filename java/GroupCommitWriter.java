@@ -0,0 +1,430 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind queue that commits many small writes in one transaction.
+ *
+ * Writes are queued and a background thread flushes them once batchSize
+ * writes are waiting or the oldest has waited maxDelayMs.  A burst of
+ * bookings then costs one commit, and so one WAL flush on the server, per
+ * group instead of one per booking.  The statements still cost a round trip
+ * each: consecutive writes of the same statements run as JDBC batches, but
+ * the bundled driver sends a batch as one executeUpdate per element.
+ *
+ * When a flush fails, it is rolled back and every write is retried on its
+ * own behind a savepoint, so only the writes that fail are reported as
+ * failed and the others still commit together.
+ *
+ * A flush takes its connection like any other statement: admitted as
+ * OPERATION, borrowed with that operation's statement timeout, and listed
+ * among the running statements until it is done.
+ */
+public class GroupCommitWriter {
+
+   /**
+    * One queued write: one or more statements run in order in the same
+    * transaction.  It is also the caller's handle on the outcome.
+    */
+   public static class Write {
+      private final String[] _sql;
+      private final Object[][] _params;
+      private final boolean _returnsKey;
+      private final CountDownLatch _done = new CountDownLatch (1);
+      private long _queuedAt;
+      private int _rows;
+      private String _key;
+      private SQLException _failure;
+
+      /**
+       * @param sql the statements, in execution order
+       * @param params the values bound to the placeholders of each statement
+       * @param returnsKey true if the first statement returns a generated key
+       *        (INSERT ... RETURNING) instead of an update count
+       */
+      public Write (String[] sql, Object[][] params, boolean returnsKey) {
+         if (sql.length != params.length)
+            throw new IllegalArgumentException("one parameter list per statement");
+         this._sql = sql;
+         this._params = params;
+         this._returnsKey = returnsKey;
+      }//end Write
+
+      public String[] sql () { return this._sql; }
+      public Object[][] params () { return this._params; }
+      public boolean returnsKey () { return this._returnsKey; }
+      public boolean isDone () { return this._done.getCount () == 0; }
+
+      /** The generated key of a returnsKey write, once it committed. */
+      public String key () { return this._key; }
+
+      /**
+       * Called once the write is committed, before waiting callers are
+       * woken up, to update whatever mirrors the written tables.
+       */
+      protected void committed () {
+      }//end committed
+
+      /**
+       * Waits for the write to be committed.
+       *
+       * @return the number of rows the first statement affected
+       * @throws java.sql.SQLException when the write failed, or the wait was interrupted
+       */
+      public int await () throws SQLException {
+         try{
+            this._done.await ();
+         }catch (InterruptedException e){
+            Thread.currentThread ().interrupt ();
+            throw new SQLException("Interrupted while waiting for a write to commit");
+         }//end try
+         if (this._failure != null)
+            throw this._failure;
+         return this._rows;
+      }//end await
+
+      /**
+       * Waits at most the given time for the write to be committed or to
+       * fail.
+       *
+       * @return true if the write is done
+       */
+      public boolean await (long timeout, TimeUnit unit) throws InterruptedException {
+         return this._done.await (timeout, unit);
+      }//end await
+
+      /** The failure of a failed write, or null. */
+      public SQLException failure () {
+         return this._failure;
+      }//end failure
+
+      void complete (int rows, String key) {
+         this._rows = rows;
+         this._key = key;
+         try{
+            committed ();
+         }catch (RuntimeException e){
+            System.err.println ("Unable to apply a committed write: " + e);
+         }//end try
+         this._done.countDown ();
+      }//end complete
+
+      void fail (SQLException failure) {
+         this._failure = failure;
+         this._done.countDown ();
+      }//end fail
+
+      // writes of the same statements can share JDBC batches.
+      boolean sameStatements (Write other) {
+         return !this._returnsKey && !other._returnsKey && Arrays.equals (this._sql, other._sql);
+      }//end sameStatements
+   }//end Write
+
+   // the operation a flush is admitted as (see AdmissionControl).
+   static final String OPERATION = "groupCommit";
+
+   private final ConnectionPool _pool;
+   private final AdmissionControl _admission;
+   private final Metrics _metrics;
+   private final int _batchSize;
+   private final long _maxDelayNanos;
+   private final int _capacity;
+
+   private final ReentrantLock _lock = new ReentrantLock ();
+   private final Condition _ready = this._lock.newCondition ();
+   private final Condition _space = this._lock.newCondition ();
+   private List<Write> _queue = new ArrayList<Write>();
+   private boolean _closed = false;
+   private final Thread _flusher;
+
+   private long _writes = 0;
+   private long _failedWrites = 0;
+   private long _flushes = 0;
+   private long _retriedFlushes = 0;
+   private long _flushNanos = 0;
+   private final long _startedAt = System.nanoTime ();
+
+   /**
+    * @param pool where the flushing connection is borrowed from
+    * @param admission the admission control a flush waits in, as OPERATION
+    * @param metrics where flush latencies and sizes are recorded
+    * @param batchSize the number of queued writes that triggers a flush
+    * @param maxDelayMs the longest a write waits for a flush
+    */
+   public GroupCommitWriter (ConnectionPool pool, AdmissionControl admission, Metrics metrics, int batchSize, int maxDelayMs) {
+      if (batchSize < 1 || maxDelayMs < 1)
+         throw new IllegalArgumentException("group commit batch size and delay must be positive");
+      this._pool = pool;
+      this._admission = admission;
+      this._metrics = metrics;
+      this._batchSize = batchSize;
+      this._maxDelayNanos = TimeUnit.MILLISECONDS.toNanos (maxDelayMs);
+      // callers block once this many writes are waiting, so a producer
+      // faster than the database cannot queue without bound.
+      this._capacity = batchSize * 10;
+      this._flusher = new Thread(new Runnable() {
+         public void run () { flushLoop (); }
+      }, "group-commit");
+      this._flusher.setDaemon (true);
+      this._flusher.start ();
+   }//end GroupCommitWriter
+
+   /**
+    * Queues a write; it is committed by a later flush.
+    *
+    * @return the write, as the handle to wait on
+    * @throws java.sql.SQLException when the writer is closed or the caller was interrupted
+    */
+   public Write enqueue (Write write) throws SQLException {
+      this._lock.lock ();
+      try{
+         while (!this._closed && this._queue.size () >= this._capacity)
+            this._space.awaitUninterruptibly ();
+         if (this._closed)
+            throw new SQLException("The group commit writer is closed");
+         write._queuedAt = System.nanoTime ();
+         this._queue.add (write);
+         if (this._queue.size () == 1 || this._queue.size () >= this._batchSize)
+            this._ready.signal ();
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      return write;
+   }//end enqueue
+
+   private void flushLoop () {
+      while (true) {
+         List<Write> batch;
+         this._lock.lock ();
+         try{
+            while (this._queue.isEmpty () && !this._closed)
+               this._ready.awaitUninterruptibly ();
+            if (this._queue.isEmpty ())
+               return;
+            // wait for a full batch, at most until the oldest write is due
+            long due = this._queue.get (0)._queuedAt + this._maxDelayNanos;
+            long wait;
+            while (!this._closed && this._queue.size () < this._batchSize && (wait = due - System.nanoTime ()) > 0) {
+               try{
+                  this._ready.awaitNanos (wait);
+               }catch (InterruptedException e){
+                  // the writer is only stopped through close
+               }//end try
+            }//end while
+            if (this._queue.size () <= this._batchSize) {
+               batch = this._queue;
+               this._queue = new ArrayList<Write>();
+            } else {
+               batch = new ArrayList<Write>(this._queue.subList (0, this._batchSize));
+               this._queue.subList (0, this._batchSize).clear ();
+            }//end if
+            this._space.signalAll ();
+         }finally{
+            this._lock.unlock ();
+         }//end try
+         flush (batch);
+      }//end while
+   }//end flushLoop
+
+   /** Commits one batch of writes, then completes or fails each of them. */
+   private void flush (List<Write> batch) {
+      long start = System.nanoTime ();
+      int[] rows = new int[batch.size ()];
+      String[] keys = new String[batch.size ()];
+      SQLException[] failures = new SQLException[batch.size ()];
+      boolean retried = false;
+      ConnectionPool.PooledConnection pc = null;
+      AdmissionControl.Ticket ticket = null;
+      SQLException error = null;
+      try{
+         ticket = this._admission.admit (OPERATION, batch.get (0).sql ()[0]);
+         pc = this._pool.borrow (this._admission.timeoutMs (OPERATION));
+         this._admission.start (ticket, pc);
+         Connection connection = pc.connection ();
+         connection.setAutoCommit (false);
+         try{
+            runBatched (pc, batch, rows, keys);
+            connection.commit ();
+         }catch (SQLException e){
+            connection.rollback ();
+            retried = true;
+            runOneByOne (pc, batch, rows, keys, failures);
+            connection.commit ();
+         }//end try
+      }catch (SQLException e){
+         error = e;
+      }finally{
+         if (ticket != null)
+            this._admission.finish (ticket, error);
+         if (pc != null) {
+            if (error == null)
+               this._pool.release (pc);
+            else
+               this._pool.release (pc, error);
+         }//end if
+      }//end try
+
+      long elapsed = System.nanoTime () - start;
+      int failed = 0;
+      for (int i = 0; i < batch.size (); ++i) {
+         SQLException failure = error != null ? error : failures[i];
+         if (failure != null) {
+            batch.get (i).fail (failure);
+            ++failed;
+         } else {
+            batch.get (i).complete (rows[i], keys[i]);
+         }//end if
+      }//end for
+      this._metrics.record ("groupCommit.flush", elapsed, batch.size () - failed, error == null);
+      this._lock.lock ();
+      try{
+         ++this._flushes;
+         if (retried)
+            ++this._retriedFlushes;
+         this._writes += batch.size ();
+         this._failedWrites += failed;
+         this._flushNanos += elapsed;
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end flush
+
+   /**
+    * Runs the writes, each run of consecutive writes of the same statements
+    * as one JDBC batch per statement.
+    */
+   private void runBatched (ConnectionPool.PooledConnection pc, List<Write> batch, int[] rows, String[] keys)
+         throws SQLException {
+      int from = 0;
+      while (from < batch.size ()) {
+         Write first = batch.get (from);
+         int to = from + 1;
+         while (to < batch.size () && first.sameStatements (batch.get (to)))
+            ++to;
+         if (to - from == 1) {
+            rows[from] = run (pc, first);
+            keys[from] = first._key;
+         } else {
+            for (int s = 0; s < first._sql.length; ++s) {
+               PreparedStatement stmt = pc.statements ().prepare (first._sql[s]);
+               try{
+                  for (int i = from; i < to; ++i) {
+                     DBProject.bind (stmt, batch.get (i)._params[s]);
+                     stmt.addBatch ();
+                  }//end for
+                  int[] counts = stmt.executeBatch ();
+                  if (s == 0) {
+                     for (int i = from; i < to; ++i)
+                        rows[i] = counts[i - from] < 0 ? 1 : counts[i - from];
+                  }//end if
+               }finally{
+                  stmt.clearBatch ();
+               }//end try
+            }//end for
+         }//end if
+         from = to;
+      }//end while
+   }//end runBatched
+
+   /**
+    * Runs the writes one at a time, each behind a savepoint that is rolled
+    * back if it fails.
+    */
+   private void runOneByOne (ConnectionPool.PooledConnection pc, List<Write> batch, int[] rows, String[] keys,
+         SQLException[] failures) throws SQLException {
+      Statement savepoints = pc.connection ().createStatement ();
+      try{
+         for (int i = 0; i < batch.size (); ++i) {
+            savepoints.execute ("SAVEPOINT group_write");
+            try{
+               rows[i] = run (pc, batch.get (i));
+               keys[i] = batch.get (i)._key;
+               savepoints.execute ("RELEASE SAVEPOINT group_write");
+            }catch (SQLException e){
+               if (ConnectionPool.isBroken (e))
+                  throw e;
+               try{
+                  savepoints.execute ("ROLLBACK TO SAVEPOINT group_write");
+               }catch (SQLException rollback){
+                  // the connection cannot go on; fail the batch with the
+                  // write's own error rather than the rollback's.
+                  throw e;
+               }//end try
+               failures[i] = e;
+            }//end try
+         }//end for
+      }finally{
+         savepoints.close ();
+      }//end try
+   }//end runOneByOne
+
+   /** Runs the statements of one write; the key is left in write._key. */
+   static int run (ConnectionPool.PooledConnection pc, Write write) throws SQLException {
+      int rows = 0;
+      for (int s = 0; s < write._sql.length; ++s) {
+         PreparedStatement stmt = pc.statements ().prepare (write._sql[s]);
+         DBProject.bind (stmt, write._params[s]);
+         if (s == 0 && write._returnsKey) {
+            ResultSet rs = stmt.executeQuery ();
+            try{
+               while (rs.next ()) {
+                  write._key = rs.getString (1);
+                  ++rows;
+               }//end while
+            }finally{
+               rs.close ();
+            }//end try
+         } else {
+            int count = stmt.executeUpdate ();
+            if (s == 0)
+               rows = count;
+         }//end if
+      }//end for
+      return rows;
+   }//end run
+
+   /**
+    * Flushes what is queued, then stops the writer.  Writes queued after
+    * close fail.
+    */
+   public void close () {
+      this._lock.lock ();
+      try{
+         this._closed = true;
+         this._ready.signalAll ();
+         this._space.signalAll ();
+      }finally{
+         this._lock.unlock ();
+      }//end try
+      try{
+         this._flusher.join ();
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+      }//end try
+   }//end close
+
+   @Override
+   public String toString () {
+      this._lock.lock ();
+      try{
+         double seconds = (System.nanoTime () - this._startedAt) / 1e9;
+         return String.format ("writes=%d failed=%d flushes=%d retried=%d avgBatch=%.1f avgFlush=%.3fms writes/s=%.1f queued=%d",
+            this._writes, this._failedWrites, this._flushes, this._retriedFlushes,
+            this._flushes == 0 ? 0.0 : (double) this._writes / this._flushes,
+            this._flushes == 0 ? 0.0 : this._flushNanos / 1e6 / this._flushes,
+            seconds <= 0 ? 0.0 : this._writes / seconds, this._queue.size ());
+      }finally{
+         this._lock.unlock ();
+      }//end try
+   }//end toString
+
+}//end GroupCommitWriter
@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a listing one page at a time by keyset: rows are ordered by key
+ * columns that are unique together, and a page continues from the key of the
+ * last row shown (or, going back, of the first) with a row comparison such as
+ *
+ *    ... AND (hotelID, roomNo, repairDate, rID) > (?, ?, ?, ?)
+ *    ORDER BY hotelID, roomNo, repairDate, rID LIMIT ?
+ *
+ * so an index on the filter and key columns seeks straight to the page
+ * instead of reading and skipping the rows before it the way OFFSET does:
+ * page 1000 costs what page 1 costs.
+ *
+ * A listing may be the concatenation of several partitions, each the same
+ * query with other parameters (e.g. one per maintenance company of a name);
+ * a page that runs past the end of one partition is filled from the next.
+ *
+ * Positions are handed out as continuation tokens, "partition:key|key|...",
+ * which are only meaningful to the listing that produced them; a '|' or '\'
+ * inside a key is escaped with a '\'.
+ */
+public class KeysetPager {
+
+   /** One page written to a sink, and the tokens to move on from it. */
+   public static class Page {
+      private final int _rows;
+      private final String _next;
+      private final String _previous;
+
+      Page (int rows, String next, String previous) {
+         this._rows = rows;
+         this._next = next;
+         this._previous = previous;
+      }//end Page
+
+      /** Rows on this page. */
+      public int rows () { return this._rows; }
+
+      /** Token of the page after this one, or null on the last page. */
+      public String next () { return this._next; }
+
+      /** Token of the page before this one, or null on the first page. */
+      public String previous () { return this._previous; }
+
+      public boolean hasNext () { return this._next != null; }
+      public boolean hasPrevious () { return this._previous != null; }
+   }//end Page
+
+   /** A listing bound to its arguments, as the menu pages through it. */
+   public interface Listing {
+      Page page (String token, boolean backward, int pageSize, ResultSink sink) throws SQLException;
+   }//end Listing
+
+   private final int _visible;
+   private final String _kinds;
+   // [backward][after a key]
+   private final String[][] _sql = new String[2][2];
+
+   /**
+    * @param columns the columns written to the sink
+    * @param from the FROM clause and a WHERE clause, with the placeholders
+    *             of a partition's parameters
+    * @param keys the ordering columns, unique together within a partition;
+    *             negate a numeric one to order by it descending
+    * @param kinds the type of each key column: 'i' integer, 'd' date,
+    *              'n' numeric, 's' text
+    */
+   public KeysetPager (String[] columns, String from, String[] keys, String kinds) {
+      if (keys.length == 0 || keys.length != kinds.length ())
+         throw new IllegalArgumentException("one kind per key column expected");
+      this._visible = columns.length;
+      this._kinds = kinds;
+      String select = "SELECT " + join (columns, "", ", ") + ", " + join (keys, "", ", ") + " " + from;
+      StringBuilder marks = new StringBuilder();
+      for (int i = 0; i < keys.length; ++i)
+         marks.append (i == 0 ? "?" : ", ?");
+      String row = " AND (" + join (keys, "", ", ") + ") ";
+      for (int backward = 0; backward < 2; ++backward) {
+         String order = " ORDER BY " + join (keys, backward == 1 ? " DESC" : "", ", ") + " LIMIT ?";
+         this._sql[backward][0] = select + order;
+         this._sql[backward][1] = select + row + (backward == 1 ? "<" : ">") + " (" + marks + ")" + order;
+      }//end for
+   }//end KeysetPager
+
+   /**
+    * Writes one page of the listing to the sink.
+    *
+    * @param esql the session to query through
+    * @param partitions the parameters of each partition, in listing order
+    * @param token where to continue from; null for the first page, or the
+    *              last one when going backward
+    * @param backward whether to read the rows before the token
+    * @param pageSize the most rows on the page
+    * @return the page, with the tokens before and after it
+    * @throws java.sql.SQLException when a query failed
+    * @throws java.io.IOException when the sink failed
+    */
+   public Page page (DBProject esql, List<Object[]> partitions, String token, boolean backward,
+         int pageSize, ResultSink sink) throws SQLException, IOException {
+      if (pageSize < 1)
+         throw new IllegalArgumentException("page size must be positive: " + pageSize);
+      int partition = backward ? partitions.size () - 1 : 0;
+      Object[] key = null;
+      if (token != null) {
+         int colon = token.indexOf (':');
+         if (colon < 0)
+            throw new IllegalArgumentException("Not a continuation token: " + token);
+         partition = Integer.parseInt (token.substring (0, colon));
+         key = parseKey (token.substring (colon + 1));
+         if (partition < 0 || partition >= partitions.size ())
+            throw new IllegalArgumentException("Not a continuation token: " + token);
+      }//end if
+
+      // one row more than the page tells whether there is a page beyond it.
+      String[] columns = null;
+      List<String[]> rows = new ArrayList<String[]>();
+      List<Integer> rowPartitions = new ArrayList<Integer>();
+      while (partition >= 0 && partition < partitions.size () && rows.size () <= pageSize) {
+         Object[] params = partitions.get (partition);
+         List<Object> args = new ArrayList<Object>();
+         Collections.addAll (args, params);
+         if (key != null)
+            Collections.addAll (args, key);
+         args.add (pageSize + 1 - rows.size ());
+         ResultSink.Rows recorder = new ResultSink.Rows();
+         esql.executeQuery (recorder, this._sql[backward ? 1 : 0][key != null ? 1 : 0], args.toArray ());
+         columns = recorder.columns ();
+         for (String[] row : recorder.recorded ()) {
+            rows.add (row);
+            rowPartitions.add (partition);
+         }//end for
+         partition += backward ? -1 : 1;
+         key = null;
+      }//end while
+      boolean more = rows.size () > pageSize;
+      if (more) {
+         rows.remove (pageSize);
+         rowPartitions.remove (pageSize);
+      }//end if
+      if (backward) {
+         Collections.reverse (rows);
+         Collections.reverse (rowPartitions);
+      }//end if
+
+      String[] visible = new String[columns == null ? 0 : this._visible];
+      if (columns != null)
+         System.arraycopy (columns, 0, visible, 0, this._visible);
+      sink.begin (visible);
+      for (String[] row : rows) {
+         for (int i = 0; i < this._visible; ++i)
+            sink.value (row[i]);
+         sink.endRow ();
+      }//end for
+      sink.end ();
+
+      // the side we came from has rows whenever we came from a token.
+      boolean before = backward ? more : token != null;
+      boolean after = backward ? token != null : more;
+      if (rows.isEmpty ())
+         return new Page(0, after ? token : null, before ? token : null);
+      int last = rows.size () - 1;
+      return new Page(rows.size (),
+         after ? token (rowPartitions.get (last), rows.get (last)) : null,
+         before ? token (rowPartitions.get (0), rows.get (0)) : null);
+   }//end page
+
+   private String token (int partition, String[] row) {
+      StringBuilder token = new StringBuilder().append (partition).append (':');
+      for (int i = 0; i < this._kinds.length (); ++i) {
+         if (i > 0)
+            token.append ('|');
+         String value = row[this._visible + i];
+         for (int j = 0; j < value.length (); ++j) {
+            char c = value.charAt (j);
+            if (c == '|' || c == '\\')
+               token.append ('\\');
+            token.append (c);
+         }//end for
+      }//end for
+      return token.toString ();
+   }//end token
+
+   private Object[] parseKey (String key) {
+      List<String> values = new ArrayList<String>();
+      StringBuilder value = new StringBuilder();
+      for (int i = 0; i < key.length (); ++i) {
+         char c = key.charAt (i);
+         if (c == '\\' && i + 1 < key.length ()) {
+            value.append (key.charAt (++i));
+         } else if (c == '|') {
+            values.add (value.toString ());
+            value.setLength (0);
+         } else {
+            value.append (c);
+         }//end if
+      }//end for
+      values.add (value.toString ());
+      if (values.size () != this._kinds.length ())
+         throw new IllegalArgumentException("Not a continuation token: " + key);
+      Object[] parsed = new Object[values.size ()];
+      for (int i = 0; i < parsed.length; ++i) {
+         String v = values.get (i);
+         switch (this._kinds.charAt (i)) {
+            case 'i': parsed[i] = Integer.valueOf (v); break;
+            case 'd': parsed[i] = Date.valueOf (v); break;
+            case 'n': parsed[i] = new BigDecimal (v); break;
+            case 's': parsed[i] = v; break;
+            default: throw new IllegalArgumentException("Unknown key kind: " + this._kinds.charAt (i));
+         }//end switch
+      }//end for
+      return parsed;
+   }//end parseKey
+
+   /**
+    * Self-check of the continuation tokens; needs no database.
+    *
+    *    java KeysetPager
+    */
+   public static void main (String[] args) {
+      KeysetPager pager = new KeysetPager (new String[] { "name" }, "FROM T WHERE TRUE",
+         new String[] { "id", "day", "rank", "label" }, "idns");
+      check (pager._sql[0][1].endsWith ("AND (id, day, rank, label) > (?, ?, ?, ?) ORDER BY id, day, rank, label LIMIT ?"),
+         "forward query");
+      check (pager._sql[1][1].endsWith ("AND (id, day, rank, label) < (?, ?, ?, ?) ORDER BY id DESC, day DESC, rank DESC, label DESC LIMIT ?"),
+         "backward query");
+
+      // keys holding the separators come back as they went in
+      String[] labels = { "plain", "", "a|b", "c:d", "e\\f", "|", "\\", "g\\|h:" };
+      for (String label : labels) {
+         String token = pager.token (3, new String[] { "shown", "42", "2024-02-29", "-0.0607927", label });
+         int colon = token.indexOf (':');
+         check (Integer.parseInt (token.substring (0, colon)) == 3, "partition of " + token);
+         Object[] key = pager.parseKey (token.substring (colon + 1));
+         check (key[0].equals (42) && key[1].equals (Date.valueOf ("2024-02-29"))
+            && key[2].equals (new BigDecimal("-0.0607927")) && key[3].equals (label), "key of " + token);
+      }//end for
+
+      String[] bad = { "42|2024-02-29|1", "42|2024-02-29|1|a|b", "x|2024-02-29|1|a", "42|2024-13-45|1|a", "42|2024-02-29|one|a" };
+      for (String key : bad) {
+         try{
+            pager.parseKey (key);
+            check (false, "accepted " + key);
+         }catch (IllegalArgumentException e){
+            // expected
+         }//end try
+      }//end for
+      System.out.println ("KeysetPager: ok");
+   }//end main
+
+   private static void check (boolean ok, String what) {
+      if (!ok)
+         throw new IllegalStateException("self-check failed: " + what);
+   }//end check
+
+   private static String join (String[] parts, String suffix, String separator) {
+      StringBuilder joined = new StringBuilder();
+      for (int i = 0; i < parts.length; ++i) {
+         if (i > 0)
+            joined.append (separator);
+         joined.append (parts[i]).append (suffix);
+      }//end for
+      return joined.toString ();
+   }//end join
+
+}//end KeysetPager
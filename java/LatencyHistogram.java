@@ -0,0 +1,131 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into
+ * 8 equal buckets, so a reported percentile is at most 12.5% above the true
+ * value while the whole range up to Long.MAX_VALUE fits in 512 counters.
+ * Recording is a handful of atomic increments and never blocks.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 3;
+   private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+   private final AtomicLongArray _buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+   private final AtomicLong _count = new AtomicLong ();
+   private final AtomicLong _sum = new AtomicLong ();
+   private final AtomicLong _max = new AtomicLong ();
+
+   /**
+    * Records one value; negative values count as zero.
+    */
+   public void record (long nanos) {
+      long value = Math.max (0, nanos);
+      this._buckets.incrementAndGet (bucket (value));
+      this._count.incrementAndGet ();
+      this._sum.addAndGet (value);
+      long max = this._max.get ();
+      while (value > max && !this._max.compareAndSet (max, value))
+         max = this._max.get ();
+   }//end record
+
+   static int bucket (long value) {
+      if (value < SUB_BUCKETS)
+         return (int) value;
+      int exponent = 63 - Long.numberOfLeadingZeros (value);
+      int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+   }//end bucket
+
+   /** Largest value that falls into a bucket. */
+   static long upperBound (int bucket) {
+      if (bucket < SUB_BUCKETS)
+         return bucket;
+      int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+      long sub = bucket % SUB_BUCKETS;
+      return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+   }//end upperBound
+
+   public long count () { return this._count.get (); }
+
+   public long max () { return this._max.get (); }
+
+   public double mean () {
+      long count = this._count.get ();
+      return count == 0 ? 0.0 : (double) this._sum.get () / count;
+   }//end mean
+
+   /**
+    * Returns the value below which the given fraction of the recorded values
+    * fall, e.g. 0.99 for the 99th percentile.  Concurrent recording may make
+    * the answer slightly off, never blocked.
+    */
+   public long percentile (double fraction) {
+      long count = this._count.get ();
+      if (count == 0)
+         return 0;
+      long target = Math.max (1, (long) Math.ceil (fraction * count));
+      long seen = 0;
+      for (int i = 0; i < this._buckets.length (); ++i) {
+         seen += this._buckets.get (i);
+         if (seen >= target)
+            return Math.min (upperBound (i), this._max.get ());
+      }//end for
+      return this._max.get ();
+   }//end percentile
+
+   /**
+    * Self-check of the buckets and percentiles; needs no database.
+    *
+    *    java LatencyHistogram
+    */
+   public static void main (String[] args) {
+      LatencyHistogram empty = new LatencyHistogram ();
+      check (empty.count () == 0 && empty.max () == 0 && empty.mean () == 0.0, "empty histogram");
+      check (empty.percentile (0.5) == 0 && empty.percentile (1.0) == 0, "percentile of nothing");
+
+      // every value lands in a bucket whose bounds hold it, at most 12.5%
+      // above it, up to Long.MAX_VALUE
+      for (int shift = 0; shift < 63; ++shift) {
+         for (long delta = -1; delta <= 1; ++delta) {
+            long value = (1L << shift) + delta;
+            if (value < 0)
+               continue;
+            int bucket = bucket (value);
+            check (bucket >= 0 && bucket < 64 * SUB_BUCKETS, "bucket of " + value);
+            check (upperBound (bucket) >= value, "upper bound of " + value);
+            check (bucket == 0 || upperBound (bucket - 1) < value, "lower bound of " + value);
+            check (upperBound (bucket) - value <= value / SUB_BUCKETS, "error at " + value);
+         }//end for
+      }//end for
+      check (upperBound (bucket (Long.MAX_VALUE)) == Long.MAX_VALUE, "bucket of Long.MAX_VALUE");
+
+      // the small values are exact
+      LatencyHistogram small = new LatencyHistogram ();
+      for (long value = 0; value < SUB_BUCKETS; ++value)
+         small.record (value);
+      check (small.percentile (0.5) == 3 && small.percentile (1.0) == 7, "exact small values");
+      check (small.percentile (0.0) == 0, "0th percentile");
+
+      LatencyHistogram spread = new LatencyHistogram ();
+      for (long value = 1; value <= 1000; ++value)
+         spread.record (value);
+      spread.record (-5);
+      check (spread.count () == 1001 && spread.max () == 1000, "count and max");
+      long p50 = spread.percentile (0.5);
+      long p99 = spread.percentile (0.99);
+      check (p50 >= 500 && p50 <= 500 + 500 / SUB_BUCKETS, "50th percentile " + p50);
+      check (p99 >= 990 && p99 <= 1000, "99th percentile " + p99);
+      check (spread.percentile (1.0) == 1000, "100th percentile capped at the max");
+      System.out.println ("LatencyHistogram: ok");
+   }//end main
+
+   private static void check (boolean ok, String what) {
+      if (!ok)
+         throw new IllegalStateException("self-check failed: " + what);
+   }//end check
+
+}//end LatencyHistogram
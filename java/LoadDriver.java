@@ -0,0 +1,408 @@
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test: a number of workers call the DBProject operations behind the
+ * menu, picked at random from a weighted mix, for a fixed time, and the
+ * throughput, latency percentiles and errors of every operation are
+ * reported for every interval and for the whole run.
+ *
+ * Parameters are drawn from the loaded data: a random sample of rooms,
+ * maintenance companies, managers and house cleaners, and the ranges of
+ * customer, company and repair IDs and of booking dates, read once at the
+ * start.  Dates of new bookings, repairs and requests are drawn from the
+ * booking date range.
+ *
+ * Closed loop (the default): each worker starts its next operation as soon
+ * as the previous one is done, after an optional think time, so the load
+ * adapts to the response time.  Open loop (load.rate > 0): operations are
+ * started on a fixed schedule spread over the workers whatever the response
+ * time; when the workers fall behind, latencies are measured from the
+ * scheduled start, so queueing delay is included rather than hidden.
+ *
+ * The insert operations add rows, so run it against a scratch database,
+ * and give the pool at least as many connections as there are workers
+ * (-Ddbproject.pool.max).
+ *
+ * Usage: java LoadDriver <dbname> <port> <user>
+ *
+ * Settings (system properties): load.workers (default 8), load.durationS
+ * (default 60), load.intervalMs (report interval, default 5000), load.mix
+ * (operation=weight pairs, default "bookRoom=60,freeRooms=30,
+ * numberOfBookedRooms=4,listHotelRoomBookingsForAWeek=3,
+ * topKMaintenanceCompany=3"), load.rate (operations per second for all
+ * workers together, default 0 for closed loop), load.thinkMs (closed loop
+ * pause between operations, default 0), load.seed (default 42),
+ * load.sample (rows sampled per parameter table, default 10000), load.out
+ * (CSV file, default standard out), load.label (a tag written on every line).
+ */
+public class LoadDriver {
+
+   /** One call of an operation, with parameters drawn from random. */
+   interface Op {
+      void run (Random random) throws Exception;
+   }//end Op
+
+   static final String DEFAULT_MIX = "bookRoom=60,freeRooms=30,numberOfBookedRooms=4,"
+      + "listHotelRoomBookingsForAWeek=3,topKMaintenanceCompany=3";
+
+   static final String CSV_HEADER =
+      "label,time_s,operation,ops,ops_per_s,errors,mean_ms,p50_ms,p95_ms,p99_ms,max_ms";
+
+   private static final String SAMPLE_ROOMS_SQL =
+      "SELECT hotelID, roomNo FROM Room WHERE hotelID > 0 ORDER BY random() LIMIT ?";
+   private static final String SAMPLE_COMPANIES_SQL =
+      "SELECT name FROM MaintenanceCompany WHERE cmpID > 0 ORDER BY random() LIMIT ?";
+   private static final String SAMPLE_STAFF_SQL =
+      "SELECT SSN FROM Staff WHERE SSN > 0 AND role = CAST(? AS StaffRole) ORDER BY random() LIMIT ?";
+   private static final String RANGES_SQL =
+      "SELECT (SELECT MAX(customerID) FROM Customer), (SELECT MAX(cmpID) FROM MaintenanceCompany), "
+      + "(SELECT MAX(rID) FROM Repair), (SELECT MIN(bookingDate) FROM Booking WHERE bID > 0), "
+      + "(SELECT MAX(bookingDate) FROM Booking)";
+
+   /** Latencies and errors of every operation during one interval. */
+   static class Window {
+      final LatencyHistogram[] latencies;
+      final AtomicLongArray errors;
+      final long start = System.nanoTime ();
+
+      Window (int ops) {
+         this.latencies = new LatencyHistogram[ops];
+         for (int i = 0; i < ops; ++i)
+            this.latencies[i] = new LatencyHistogram();
+         this.errors = new AtomicLongArray(ops);
+      }//end Window
+   }//end Window
+
+   private final DBProject _esql;
+
+   // parameters drawn from the database
+   private int[][] _rooms;
+   private String[] _companies;
+   private long[] _managers;
+   private long[] _cleaners;
+   private int _maxCustomer;
+   private int _maxCompany;
+   private int _maxRepair;
+   private Date _firstDate;
+   private int _days;
+   // room numbers well above those of the data files, so addRoom does not collide.
+   private final AtomicInteger _nextRoom = new AtomicInteger (1000000);
+
+   private final String[] _names;
+   private final Op[] _ops;
+   private final int[] _cumulativeWeights;
+   private volatile Window _window;
+   private final Window _total;
+   private final AtomicReferenceArray<String> _lastErrors;
+
+   /**
+    * @param esql the session the operations run on
+    * @param mix operation=weight pairs separated by commas
+    * @param sample rows sampled from each parameter table
+    * @throws java.sql.SQLException when the parameters could not be read
+    */
+   public LoadDriver (DBProject esql, String mix, int sample) throws SQLException {
+      this._esql = esql;
+      loadParameters (sample);
+      Map<String, Op> all = operations ();
+      List<String> names = new ArrayList<String>();
+      List<Integer> weights = new ArrayList<Integer>();
+      for (String entry : mix.split (",")) {
+         String[] pair = entry.trim ().split ("=");
+         if (pair.length != 2 || !all.containsKey (pair[0].trim ()))
+            throw new IllegalArgumentException("Bad mix entry \"" + entry.trim () + "\"; operations are " + all.keySet ());
+         int weight = Integer.parseInt (pair[1].trim ());
+         if (weight < 0)
+            throw new IllegalArgumentException("Negative weight in mix: " + entry.trim ());
+         if (weight > 0) {
+            names.add (pair[0].trim ());
+            weights.add (weight);
+         }//end if
+      }//end for
+      if (names.isEmpty ())
+         throw new IllegalArgumentException("The mix is empty");
+      this._names = names.toArray (new String[names.size ()]);
+      this._ops = new Op[this._names.length];
+      this._cumulativeWeights = new int[this._names.length];
+      int sum = 0;
+      for (int i = 0; i < this._names.length; ++i) {
+         this._ops[i] = all.get (this._names[i]);
+         sum += weights.get (i);
+         this._cumulativeWeights[i] = sum;
+      }//end for
+      this._window = new Window(this._ops.length);
+      this._total = new Window(this._ops.length);
+      this._lastErrors = new AtomicReferenceArray<String>(this._ops.length);
+   }//end LoadDriver
+
+   private void loadParameters (int sample) throws SQLException {
+      ResultSink.Rows rows = record (SAMPLE_ROOMS_SQL, sample);
+      this._rooms = new int[rows.recorded ().size ()][];
+      for (int i = 0; i < this._rooms.length; ++i) {
+         String[] row = rows.recorded ().get (i);
+         this._rooms[i] = new int[]{ Integer.parseInt (row[0]), Integer.parseInt (row[1]) };
+      }//end for
+      rows = record (SAMPLE_COMPANIES_SQL, sample);
+      this._companies = new String[rows.recorded ().size ()];
+      for (int i = 0; i < this._companies.length; ++i)
+         this._companies[i] = CustomerNameResolver.rtrim (rows.recorded ().get (i)[0]);
+      this._managers = longs (record (SAMPLE_STAFF_SQL, "Manager", sample));
+      this._cleaners = longs (record (SAMPLE_STAFF_SQL, "HouseCleaning", sample));
+
+      String[] ranges = record (RANGES_SQL).recorded ().get (0);
+      this._maxCustomer = ranges[0] == null ? 0 : Integer.parseInt (ranges[0]);
+      this._maxCompany = ranges[1] == null ? 0 : Integer.parseInt (ranges[1]);
+      this._maxRepair = ranges[2] == null ? 0 : Integer.parseInt (ranges[2]);
+      if (this._rooms.length == 0 || this._companies.length == 0 || this._managers.length == 0
+            || this._cleaners.length == 0 || this._maxCustomer < 1 || this._maxRepair < 1 || ranges[3] == null)
+         throw new IllegalArgumentException("Load the database first (sql/create.sql, BulkLoader or DataGenerator)");
+      this._firstDate = Date.valueOf (ranges[3]);
+      this._days = (int) ((Date.valueOf (ranges[4]).getTime () - this._firstDate.getTime ()) / 86400000L) + 1;
+   }//end loadParameters
+
+   private ResultSink.Rows record (String query, Object... params) throws SQLException {
+      ResultSink.Rows recorder = new ResultSink.Rows();
+      this._esql.executeQuery (recorder, query, params);
+      return recorder;
+   }//end record
+
+   private static long[] longs (ResultSink.Rows rows) {
+      long[] values = new long[rows.recorded ().size ()];
+      for (int i = 0; i < values.length; ++i)
+         values[i] = Long.parseLong (rows.recorded ().get (i)[0]);
+      return values;
+   }//end longs
+
+   private int[] room (Random random) {
+      return this._rooms[random.nextInt (this._rooms.length)];
+   }//end room
+
+   private Date day (Random random) {
+      return DBProject.addDays (this._firstDate, random.nextInt (this._days));
+   }//end day
+
+   private int customer (Random random) {
+      return 1 + random.nextInt (this._maxCustomer);
+   }//end customer
+
+   // a sink per call, as the workers share the operations.
+   private static ResultSink discard () {
+      return new ResultSink.Count(null);
+   }//end discard
+
+   /** The operations of the menu, by DBProject method name. */
+   private Map<String, Op> operations () {
+      final DBProject esql = this._esql;
+      Map<String, Op> ops = new LinkedHashMap<String, Op>();
+      ops.put ("addCustomer", new Op () { public void run (Random random) throws Exception {
+         esql.addCustomer ("load", "customer" + random.nextInt (1000), "1 Load St", 9515550000L + random.nextInt (10000),
+            day (random), "Other"); }});
+      ops.put ("addRoom", new Op () { public void run (Random random) throws Exception {
+         esql.addRoom (room (random)[0], _nextRoom.incrementAndGet (), "Suite"); }});
+      ops.put ("addMaintenanceCompany", new Op () { public void run (Random random) throws Exception {
+         esql.addMaintenanceCompany ("load" + random.nextInt (1000), "1 Load St", random.nextBoolean ()); }});
+      ops.put ("addRepair", new Op () { public void run (Random random) throws Exception {
+         int[] room = room (random);
+         esql.addRepair (room[0], room[1], 1 + random.nextInt (_maxCompany), day (random), "load repair",
+            DataGenerator.REPAIR_TYPES[random.nextInt (DataGenerator.REPAIR_TYPES.length)]); }});
+      ops.put ("bookRoom", new Op () { public void run (Random random) throws Exception {
+         int[] room = room (random);
+         esql.bookRoom (room[0], room[1], customer (random), day (random), new BigDecimal(100 + random.nextInt (1900))); }});
+      ops.put ("assignHouseCleaningToRoom", new Op () { public void run (Random random) throws Exception {
+         int[] room = room (random);
+         esql.assignHouseCleaningToRoom (_cleaners[random.nextInt (_cleaners.length)], room[0], room[1]); }});
+      ops.put ("repairRequest", new Op () { public void run (Random random) throws Exception {
+         esql.repairRequest (_managers[random.nextInt (_managers.length)], 1 + random.nextInt (_maxRepair),
+            day (random), "load request"); }});
+      ops.put ("numberOfAvailableRooms", new Op () { public void run (Random random) throws Exception {
+         esql.numberOfAvailableRooms (room (random)[0], discard ()); }});
+      ops.put ("numberOfBookedRooms", new Op () { public void run (Random random) throws Exception {
+         esql.numberOfBookedRooms (room (random)[0], discard ()); }});
+      ops.put ("listHotelRoomBookingsForAWeek", new Op () { public void run (Random random) throws Exception {
+         esql.listHotelRoomBookingsForAWeek (room (random)[0], day (random), discard ()); }});
+      ops.put ("topKHighestRoomPriceForADateRange", new Op () { public void run (Random random) throws Exception {
+         Date start = day (random);
+         esql.topKHighestRoomPriceForADateRange (start, DBProject.addDays (start, 30), 10, discard ()); }});
+      ops.put ("topKHighestPriceBookingsForACustomer", new Op () { public void run (Random random) throws Exception {
+         esql.topKHighestPriceBookingsForCustomers (new int[]{ customer (random) }, 10, discard ()); }});
+      ops.put ("totalCostForCustomer", new Op () { public void run (Random random) throws Exception {
+         Date start = day (random);
+         esql.totalCostForCustomers (new int[]{ customer (random) }, start, DBProject.addDays (start, 365),
+            room (random)[0], discard ()); }});
+      ops.put ("listRepairsMade", new Op () { public void run (Random random) throws Exception {
+         esql.listRepairsMade (_companies[random.nextInt (_companies.length)], discard ()); }});
+      ops.put ("topKMaintenanceCompany", new Op () { public void run (Random random) throws Exception {
+         esql.topKMaintenanceCompany (1 + random.nextInt (10), discard ()); }});
+      ops.put ("numberOfRepairsForEachRoomPerYear", new Op () { public void run (Random random) throws Exception {
+         int[] room = room (random);
+         esql.numberOfRepairsForEachRoomPerYear (room[0], room[1], discard ()); }});
+      ops.put ("freeRooms", new Op () { public void run (Random random) throws Exception {
+         Date start = day (random);
+         esql.freeRooms (room (random)[0], start, DBProject.addDays (start, 6), discard ()); }});
+      return ops;
+   }//end operations
+
+   private int pick (Random random) {
+      int r = random.nextInt (this._cumulativeWeights[this._cumulativeWeights.length - 1]);
+      int i = Arrays.binarySearch (this._cumulativeWeights, r + 1);
+      return i >= 0 ? i : -i - 1;
+   }//end pick
+
+   /**
+    * Runs the load and writes a CSV line per operation and interval, then
+    * the totals.
+    *
+    * @param workers the number of concurrent workers
+    * @param durationMs how long to run
+    * @param intervalMs how often to report
+    * @param rate operations per second for all workers together, 0 for closed loop
+    * @param thinkMs pause between operations of a worker in closed loop
+    */
+   public void run (int workers, long durationMs, long intervalMs, double rate, final long thinkMs, final long seed,
+                    String label, PrintStream out) throws InterruptedException {
+      final long start = System.nanoTime ();
+      final long deadline = start + durationMs * 1000000L;
+      // open loop: every worker starts an operation every period, the
+      // workers staggered evenly within it.
+      final long period = rate > 0 ? (long) (workers * 1e9 / rate) : 0;
+      Thread[] threads = new Thread[workers];
+      for (int w = 0; w < workers; ++w) {
+         final int worker = w;
+         final long offset = period * w / workers;
+         threads[w] = new Thread("load-" + w) {
+            @Override
+            public void run () {
+               work (new Random(seed + worker), start + offset, period, thinkMs, deadline);
+            }
+         };
+         threads[w].setDaemon (true);
+         threads[w].start ();
+      }//end for
+
+      out.println (CSV_HEADER);
+      long nextReport = start + intervalMs * 1000000L;
+      while (System.nanoTime () < deadline) {
+         long now = System.nanoTime ();
+         long wait = Math.min (nextReport, deadline) - now;
+         if (wait > 0) {
+            Thread.sleep (wait / 1000000L, (int) (wait % 1000000L));
+            continue;
+         }//end if
+         Window window = this._window;
+         this._window = new Window(this._ops.length);
+         report (label, String.format ("%.1f", (now - start) / 1e9), window, now - window.start, out);
+         nextReport += intervalMs * 1000000L;
+      }//end while
+      for (Thread thread : threads)
+         thread.join ();
+      long end = System.nanoTime ();
+      Window window = this._window;
+      report (label, String.format ("%.1f", (end - start) / 1e9), window, end - window.start, out);
+      report (label, "total", this._total, end - start, out);
+      for (int i = 0; i < this._ops.length; ++i) {
+         if (this._lastErrors.get (i) != null)
+            System.err.println (this._names[i] + ": " + this._total.errors.get (i) + " errors, last: " + this._lastErrors.get (i));
+      }//end for
+   }//end run
+
+   private void work (Random random, long firstStart, long period, long thinkMs, long deadline) {
+      long scheduled = firstStart;
+      while (true) {
+         long begin = System.nanoTime ();
+         if (period > 0) {
+            if (scheduled >= deadline)
+               return;
+            if (scheduled > begin)
+               LockSupport.parkNanos (scheduled - begin);
+            begin = scheduled;
+            scheduled += period;
+         } else if (begin >= deadline) {
+            return;
+         }//end if
+         int op = pick (random);
+         try{
+            this._ops[op].run (random);
+            long latency = System.nanoTime () - begin;
+            this._window.latencies[op].record (latency);
+            this._total.latencies[op].record (latency);
+         }catch (Exception e){
+            this._window.errors.incrementAndGet (op);
+            this._total.errors.incrementAndGet (op);
+            this._lastErrors.set (op, e.getMessage ());
+         }//end try
+         if (period == 0 && thinkMs > 0)
+            LockSupport.parkNanos (thinkMs * 1000000L);
+      }//end while
+   }//end work
+
+   private void report (String label, String time, Window window, long nanos, PrintStream out) {
+      long allOps = 0, allErrors = 0;
+      for (int i = 0; i < this._ops.length; ++i) {
+         LatencyHistogram latencies = window.latencies[i];
+         long errors = window.errors.get (i);
+         allOps += latencies.count ();
+         allErrors += errors;
+         if (latencies.count () + errors == 0)
+            continue;
+         out.println (String.format ("%s,%s,%s,%d,%.1f,%d,%.3f,%.3f,%.3f,%.3f,%.3f", label, time, this._names[i],
+            latencies.count (), perSecond (latencies.count (), nanos), errors, Metrics.millis (latencies.mean ()),
+            Metrics.millis (latencies.percentile (0.50)), Metrics.millis (latencies.percentile (0.95)),
+            Metrics.millis (latencies.percentile (0.99)), Metrics.millis (latencies.max ())));
+      }//end for
+      out.println (String.format ("%s,%s,all,%d,%.1f,%d,,,,,", label, time, allOps, perSecond (allOps, nanos), allErrors));
+      out.flush ();
+   }//end report
+
+   private static double perSecond (long count, long nanos) {
+      return nanos <= 0 ? 0.0 : count / (nanos / 1e9);
+   }//end perSecond
+
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println ("Usage: java [-classpath <classpath>] " + LoadDriver.class.getName () + " <dbname> <port> <user>");
+         return;
+      }//end if
+      PrintStream out = System.out;
+      DBProject esql = null;
+      try{
+         String file = System.getProperty ("load.out");
+         if (file != null)
+            out = new PrintStream(new FileOutputStream(file, true), true, "UTF-8");
+         Class.forName ("org.postgresql.Driver");
+         esql = new DBProject (args[0], args[1], args[2], "");
+         LoadDriver driver = new LoadDriver (esql, System.getProperty ("load.mix", DEFAULT_MIX),
+            DBProject.intSetting ("load.sample", 10000));
+         String rate = System.getProperty ("load.rate", "0");
+         driver.run (DBProject.intSetting ("load.workers", 8),
+            DBProject.intSetting ("load.durationS", 60) * 1000L,
+            DBProject.intSetting ("load.intervalMs", 5000),
+            Double.parseDouble (rate.trim ()),
+            DBProject.intSetting ("load.thinkMs", 0),
+            DBProject.intSetting ("load.seed", 42),
+            System.getProperty ("load.label", "local"), out);
+         System.err.println (esql.statistics ());
+      }catch (Exception e){
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+         if (out != System.out)
+            out.close ();
+      }//end try
+   }//end main
+
+}//end LoadDriver
@@ -0,0 +1,221 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency, row and error counts per named operation (the menu operations
+ * and the executeQuery / executeUpdate calls behind them).  Recording takes
+ * no locks, so it is cheap enough to leave on under load.
+ */
+public class Metrics {
+
+   /** The counters of one operation. */
+   public static class Stats {
+      private final String _name;
+      private final LatencyHistogram _latency = new LatencyHistogram();
+      private final AtomicLong _rows = new AtomicLong ();
+      private final AtomicLong _errors = new AtomicLong ();
+
+      Stats (String name) {
+         this._name = name;
+      }//end Stats
+
+      public String name () { return this._name; }
+      public LatencyHistogram latency () { return this._latency; }
+      public long calls () { return this._latency.count (); }
+      public long rows () { return this._rows.get (); }
+      public long errors () { return this._errors.get (); }
+
+      @Override
+      public String toString () {
+         return String.format ("%-36s %9d %7d %11d %9.3f %9.3f %9.3f %9.3f %9.3f",
+            this._name, calls (), errors (), rows (), millis (this._latency.mean ()),
+            millis (this._latency.percentile (0.50)), millis (this._latency.percentile (0.95)),
+            millis (this._latency.percentile (0.99)), millis (this._latency.max ()));
+      }//end toString
+   }//end Stats
+
+   /**
+    * A running operation, returned by begin.  The caller marks it done with
+    * the row count on success and ends it in a finally block; an operation
+    * ended without being done counts as an error.
+    */
+   public class Operation {
+      private final Stats _stats;
+      private final long _start = System.nanoTime ();
+      private final Operation _outer;
+      private boolean _done = false;
+
+      Operation (Stats stats, Operation outer) {
+         this._stats = stats;
+         this._outer = outer;
+      }//end Operation
+
+      public String name () { return this._stats._name; }
+
+      /** The operation this one runs within, or null. */
+      public Operation outer () { return this._outer; }
+
+      /** Nanoseconds since the operation began. */
+      public long elapsed () { return System.nanoTime () - this._start; }
+
+      /**
+       * Marks the operation successful.
+       *
+       * @return the row count, for returning straight from the caller
+       */
+      public int done (int rows) {
+         this._done = true;
+         this._stats._rows.addAndGet (rows);
+         return rows;
+      }//end done
+
+      public void end () {
+         if (!this._done)
+            this._stats._errors.incrementAndGet ();
+         this._stats._latency.record (elapsed ());
+         Metrics.this._current.set (this._outer);
+      }//end end
+   }//end Operation
+
+   private final ConcurrentMap<String, Stats> _stats = new ConcurrentHashMap<String, Stats>();
+   private final ThreadLocal<Operation> _current = new ThreadLocal<Operation>();
+   private final long _startedAt = System.currentTimeMillis ();
+   private ScheduledExecutorService _dumper = null;
+
+   /** Returns the counters of an operation, creating them on first use. */
+   public Stats stats (String name) {
+      Stats stats = this._stats.get (name);
+      if (stats == null) {
+         Stats created = new Stats(name);
+         stats = this._stats.putIfAbsent (name, created);
+         if (stats == null)
+            stats = created;
+      }//end if
+      return stats;
+   }//end stats
+
+   /** Starts timing an operation on the calling thread. */
+   public Operation begin (String name) {
+      Operation op = new Operation(stats (name), this._current.get ());
+      this._current.set (op);
+      return op;
+   }//end begin
+
+   /**
+    * Returns the innermost operation running on the calling thread, or
+    * null outside any operation.
+    */
+   public Operation current () {
+      return this._current.get ();
+   }//end current
+
+   /**
+    * Records an operation that was timed by the caller.
+    */
+   public void record (String name, long nanos, int rows, boolean ok) {
+      Stats stats = stats (name);
+      stats._latency.record (nanos);
+      if (ok)
+         stats._rows.addAndGet (rows);
+      else
+         stats._errors.incrementAndGet ();
+   }//end record
+
+   /** Returns the counters of every operation seen so far, by name. */
+   public List<Stats> snapshot () {
+      List<Stats> all = new ArrayList<Stats>(this._stats.values ());
+      Collections.sort (all, new Comparator<Stats>() {
+         public int compare (Stats a, Stats b) {
+            return a._name.compareTo (b._name);
+         }
+      });
+      return all;
+   }//end snapshot
+
+   /**
+    * Formats the counters as a table, latencies in milliseconds.
+    */
+   public String report () {
+      StringBuilder out = new StringBuilder();
+      double uptime = (System.currentTimeMillis () - this._startedAt) / 1000.0;
+      out.append (String.format ("operation statistics after %.1f s%n", uptime));
+      out.append (String.format ("%-36s %9s %7s %11s %9s %9s %9s %9s %9s%n",
+         "operation", "calls", "errors", "rows", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+      for (Stats stats : snapshot ())
+         out.append (stats).append (String.format ("%n"));
+      return out.toString ();
+   }//end report
+
+   /**
+    * Appends a report to a file every interval, from a daemon thread, until
+    * close is called.
+    *
+    * @param file the file to append to
+    * @param intervalMs the time between two reports
+    * @param extra appended to every report (e.g. pool and cache counters); may be null
+    */
+   public synchronized void dumpEvery (final String file, long intervalMs, final Object extra) {
+      if (intervalMs < 1)
+         throw new IllegalArgumentException("stats interval must be positive: " + intervalMs);
+      if (this._dumper != null)
+         this._dumper.shutdownNow ();
+      this._dumper = Executors.newSingleThreadScheduledExecutor (new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "stats-dump");
+            t.setDaemon (true);
+            return t;
+         }
+      });
+      this._dumper.scheduleAtFixedRate (new Runnable() {
+         public void run () {
+            try{
+               dump (file, extra);
+            }catch (IOException e){
+               System.err.println ("Unable to write statistics to " + file + ": " + e.getMessage ());
+            }//end try
+         }
+      }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+   }//end dumpEvery
+
+   /**
+    * Appends one report to a file.
+    */
+   public void dump (String file, Object extra) throws IOException {
+      PrintWriter out = new PrintWriter(new FileWriter(file, true));
+      try{
+         out.println ("# " + new Date());
+         out.print (report ());
+         if (extra != null)
+            out.println (extra);
+         out.println ();
+      }finally{
+         out.close ();
+      }//end try
+   }//end dump
+
+   /** Stops the periodic dump, if any. */
+   public synchronized void close () {
+      if (this._dumper != null) {
+         this._dumper.shutdownNow ();
+         this._dumper = null;
+      }//end if
+   }//end close
+
+   static double millis (double nanos) {
+      return nanos / 1000000.0;
+   }//end millis
+
+}//end Metrics
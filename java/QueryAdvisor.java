@@ -0,0 +1,392 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Captures the plans of slow statements and says what looks wrong in them.
+ *
+ * Every query that took longer than the threshold is run again under
+ * EXPLAIN (ANALYZE, BUFFERS), in a transaction that is rolled back, and its
+ * plan is kept with its parameters and the menu operation it ran for.  Other
+ * statements only get a plain EXPLAIN, which plans them without running
+ * them, so a slow write is never repeated and its plan has no actual rows
+ * to check.  The plans are captured on a background thread, at most once per
+ * cooldown for each operation and statement, and dropped when the thread
+ * falls behind, so the slow operation itself does not wait for its plan.
+ * A capture is admitted through the lane of its operation and runs under
+ * the operation's statement timeout, like the statement it explains.
+ *
+ * The plans are checked for sequential scans over many rows, sorts spilled
+ * to disk and row estimates off by a factor of 10 or more; a sequential scan
+ * with a filter gives a candidate index on the filtered columns, equality
+ * columns first.  A plan without actual rows is checked for sequential
+ * scans over many estimated rows only.  The findings and candidates are collected per operation.
+ */
+public class QueryAdvisor {
+
+   // node line: "->  Seq Scan on booking b  (cost=0.00..80.00 rows=4000 width=20) (actual time=0.010..0.500 rows=4000 loops=1)",
+   // without the actual part in a plain EXPLAIN, "(never executed)" instead of it for a node ANALYZE skipped
+   private static final Pattern NODE = Pattern.compile (
+      "^\\s*(?:->\\s+)?(.+?)\\s+\\(cost=[\\d.]+\\.\\.[\\d.]+ rows=(\\d+) width=\\d+\\)"
+      + "(?:\\s+\\((?:actual time=[\\d.]+\\.\\.[\\d.]+ rows=(\\d+) loops=(\\d+)|(never executed))\\))?");
+   private static final Pattern RELATION = Pattern.compile (
+      "(?:Seq Scan|Index Scan|Index Only Scan|Bitmap Heap Scan)(?: Backward)?(?: using \\w+)? on (\\w+)");
+   private static final Pattern FILTER = Pattern.compile ("^\\s*Filter: (.*)$");
+   private static final Pattern REMOVED = Pattern.compile ("^\\s*Rows Removed by Filter: (\\d+)");
+   private static final Pattern SORT_KEY = Pattern.compile ("^\\s*Sort Key: (.*)$");
+   private static final Pattern DISK_SORT = Pattern.compile ("Sort Method: external \\w+\\s+Disk: (\\d+)kB");
+   // a column compared to something: "(name = 'x'::bpchar)", "(b.customer = ANY (...))"
+   private static final Pattern COMPARISON = Pattern.compile (
+      "\\(*(?:\\w+\\.)?(\\w+)\\)?(?:::[\\w ]+)?\\s+(=|<>|<=|>=|<|>|~~\\*?)\\s");
+
+   // a sequential scan is only reported when it reads at least this many rows.
+   static final long SEQ_SCAN_ROWS = 1000;
+
+   /** One captured plan. */
+   public static class Capture {
+      private final long _at = System.currentTimeMillis ();
+      private final String _operation;
+      private final String _sql;
+      private final String _params;
+      private final double _elapsedMs;
+      private final String _plan;
+      private final List<String> _findings = new ArrayList<String>();
+      private final Set<String> _indexes = new LinkedHashSet<String>();
+
+      Capture (String operation, String sql, String params, double elapsedMs, String plan) {
+         this._operation = operation;
+         this._sql = sql;
+         this._params = params;
+         this._elapsedMs = elapsedMs;
+         this._plan = plan;
+         analyze (plan, this._findings, this._indexes);
+      }//end Capture
+
+      public String operation () { return this._operation; }
+      public String sql () { return this._sql; }
+      public String params () { return this._params; }
+      public double elapsedMs () { return this._elapsedMs; }
+      public String plan () { return this._plan; }
+      public List<String> findings () { return this._findings; }
+      public Set<String> indexes () { return this._indexes; }
+
+      @Override
+      public String toString () {
+         StringBuilder text = new StringBuilder();
+         text.append (new Date(this._at)).append ("  ").append (this._operation)
+            .append (String.format ("  %.3f ms", this._elapsedMs)).append ('\n')
+            .append (this._sql).append ('\n')
+            .append ("parameters: ").append (this._params).append ('\n')
+            .append (this._plan);
+         for (String finding : this._findings)
+            text.append ("! ").append (finding).append ('\n');
+         for (String index : this._indexes)
+            text.append ("? ").append (index).append ('\n');
+         return text.toString ();
+      }//end toString
+   }//end Capture
+
+   /** What the captures of one operation found. */
+   private static class Advice {
+      long captures = 0;
+      double slowestMs = 0;
+      final Set<String> findings = new LinkedHashSet<String>();
+      final Set<String> indexes = new LinkedHashSet<String>();
+   }//end Advice
+
+   private final ConnectionPool _pool;
+   private final AdmissionControl _admission;
+   private final long _slowNanos;
+   private final long _cooldownNanos;
+   private final int _keep;
+   private final String _file;
+   private final ThreadPoolExecutor _executor;
+   private final ConcurrentMap<String, Long> _lastCaptured = new ConcurrentHashMap<String, Long>();
+   private final ArrayDeque<Capture> _captures = new ArrayDeque<Capture>();
+   private final Map<String, Advice> _advice = new LinkedHashMap<String, Advice>();
+   private final AtomicLong _slow = new AtomicLong ();
+   private final AtomicLong _dropped = new AtomicLong ();
+   private final AtomicLong _failed = new AtomicLong ();
+
+   /**
+    * @param pool where the plans are captured
+    * @param admission admits the captures and gives their statement timeouts
+    * @param slowMs statements taking longer than this are captured
+    * @param cooldownMs the time before the same statement of the same operation is captured again
+    * @param keep the number of captures kept in memory
+    * @param file a file every capture is appended to, or null
+    */
+   public QueryAdvisor (ConnectionPool pool, AdmissionControl admission, long slowMs, long cooldownMs, int keep, String file) {
+      if (slowMs < 0 || cooldownMs < 0 || keep < 1)
+         throw new IllegalArgumentException("invalid advisor settings");
+      this._pool = pool;
+      this._admission = admission;
+      this._slowNanos = slowMs * 1000000L;
+      this._cooldownNanos = cooldownMs * 1000000L;
+      this._keep = keep;
+      this._file = file;
+      this._executor = new ThreadPoolExecutor (1, 1, 0, TimeUnit.MILLISECONDS,
+         new ArrayBlockingQueue<Runnable>(64), new ThreadFactory() {
+            public Thread newThread (Runnable r) {
+               Thread t = new Thread(r, "query-advisor");
+               t.setDaemon (true);
+               return t;
+            }
+         }, new ThreadPoolExecutor.DiscardPolicy () {
+            @Override
+            public void rejectedExecution (Runnable r, ThreadPoolExecutor executor) {
+               QueryAdvisor.this._dropped.incrementAndGet ();
+            }
+         });
+   }//end QueryAdvisor
+
+   /**
+    * Called after a statement ran successfully; captures its plan if it was
+    * slow.
+    *
+    * @param operation the operation the statement ran for, or null
+    * @param nanos how long the statement took
+    */
+   public void observe (final String operation, final String sql, final Object[] params, final long nanos) {
+      if (nanos < this._slowNanos)
+         return;
+      this._slow.incrementAndGet ();
+      final String name = operation == null ? "(no operation)" : operation;
+      String key = name + '\n' + sql;
+      long now = System.nanoTime ();
+      Long last = this._lastCaptured.get (key);
+      if (last != null && (now - last < this._cooldownNanos || !this._lastCaptured.replace (key, last, now)))
+         return;
+      if (last == null && this._lastCaptured.putIfAbsent (key, now) != null)
+         return;
+      this._executor.execute (new Runnable() {
+         public void run () {
+            try{
+               capture (operation, name, sql, params, nanos);
+            }catch (SQLException e){
+               QueryAdvisor.this._failed.incrementAndGet ();
+            }//end try
+         }
+      });
+   }//end observe
+
+   private void capture (String operation, String name, String sql, Object[] params, long nanos) throws SQLException {
+      StringBuilder plan = new StringBuilder();
+      SQLException failure = null;
+      ConnectionPool.PooledConnection pc = null;
+      AdmissionControl.Ticket ticket = null;
+      String explain = isQuery (sql) ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ";
+      try{
+         ticket = this._admission.admit (operation, explain + sql);
+         pc = this._pool.borrow (this._admission.timeoutMs (operation));
+         this._admission.start (ticket, pc);
+         Connection connection = pc.connection ();
+         connection.setAutoCommit (false);
+         try{
+            PreparedStatement stmt = connection.prepareStatement (explain + sql);
+            DBProject.bind (stmt, params);
+            ResultSet rs = stmt.executeQuery ();
+            while (rs.next ())
+               plan.append (rs.getString (1)).append ('\n');
+            rs.close ();
+            stmt.close ();
+         }finally{
+            connection.rollback ();
+         }//end try
+      }catch (SQLException e){
+         failure = e;
+         throw e;
+      }finally{
+         if (ticket != null)
+            this._admission.finish (ticket, failure);
+         if (pc != null)
+            this._pool.release (pc, failure);
+      }//end try
+
+      Capture capture = new Capture(name, sql, Arrays.deepToString (params), Metrics.millis (nanos), plan.toString ());
+      synchronized (this) {
+         this._captures.addLast (capture);
+         if (this._captures.size () > this._keep)
+            this._captures.removeFirst ();
+         Advice advice = this._advice.get (name);
+         if (advice == null) {
+            advice = new Advice();
+            this._advice.put (name, advice);
+         }//end if
+         ++advice.captures;
+         advice.slowestMs = Math.max (advice.slowestMs, capture.elapsedMs ());
+         advice.findings.addAll (capture.findings ());
+         advice.indexes.addAll (capture.indexes ());
+      }//end synchronized
+      if (this._file != null) {
+         try{
+            PrintWriter out = new PrintWriter(new FileWriter(this._file, true));
+            out.println (capture);
+            out.close ();
+         }catch (IOException e){
+            this._failed.incrementAndGet ();
+         }//end try
+      }//end if
+   }//end capture
+
+   /** Whether a statement is a query, which EXPLAIN ANALYZE may run again. */
+   static boolean isQuery (String sql) {
+      return sql.trim ().regionMatches (true, 0, "SELECT", 0, 6);
+   }//end isQuery
+
+   /**
+    * Checks a plan in EXPLAIN or EXPLAIN ANALYZE text format, adding what
+    * looks wrong to findings and candidate indexes to indexes.
+    */
+   static void analyze (String plan, List<String> findings, Set<String> indexes) {
+      // the node being read; its detail lines follow it
+      String relation = null;
+      boolean seqScan = false, estimated = false;
+      long loops = 1, rows = 0, removed = 0;
+      String filter = null, sortKey = null;
+      // below a Limit, nodes stop early and return fewer rows than estimated
+      boolean limited = false;
+      for (String line : plan.split ("\n")) {
+         Matcher m = NODE.matcher (line);
+         if (m.find ()) {
+            if (seqScan)
+               seqScan (relation, rows + removed, estimated, filter, findings, indexes);
+            String node = m.group (1).trim ();
+            Matcher r = RELATION.matcher (node);
+            relation = r.find () ? r.group (1) : null;
+            long estimate = Long.parseLong (m.group (2));
+            removed = 0;
+            filter = null;
+            sortKey = null;
+            limited |= node.startsWith ("Limit");
+            if (m.group (5) != null) {
+               // ANALYZE never ran the node, so it read nothing
+               seqScan = false;
+               continue;
+            }//end if
+            seqScan = node.contains ("Seq Scan");
+            estimated = m.group (3) == null;
+            if (estimated) {
+               // plain EXPLAIN: the estimate is all there is to check
+               loops = 1;
+               rows = estimate;
+               continue;
+            }//end if
+            long actual = Long.parseLong (m.group (3));
+            loops = Long.parseLong (m.group (4));
+            rows = actual * loops;
+            long high = Math.max (estimate, actual), low = Math.max (1, Math.min (estimate, actual));
+            if (high >= 100 && high >= 10 * low && !(limited && actual < estimate))
+               findings.add (String.format ("%s estimated %d rows but returned %d%s", node, estimate, actual,
+                  relation != null ? " (ANALYZE " + relation + " may help)" : ""));
+            continue;
+         }//end if
+         if ((m = FILTER.matcher (line)).find ())
+            filter = m.group (1);
+         else if ((m = REMOVED.matcher (line)).find ())
+            removed = Long.parseLong (m.group (1)) * loops;
+         else if ((m = SORT_KEY.matcher (line)).find ())
+            sortKey = m.group (1);
+         else if ((m = DISK_SORT.matcher (line)).find ())
+            findings.add ("Sort" + (sortKey != null ? " on " + sortKey : "") + " spilled " + m.group (1)
+               + " kB to disk (raise work_mem, or index the sort key)");
+      }//end for
+      if (seqScan)
+         seqScan (relation, rows + removed, estimated, filter, findings, indexes);
+   }//end analyze
+
+   // reports a sequential scan reading many rows, or estimated to return
+   // many rows when the plan has no actual rows; with a filter, the
+   // filtered columns are a candidate index, equality columns first.
+   private static void seqScan (String relation, long read, boolean estimated, String filter,
+         List<String> findings, Set<String> indexes) {
+      if (relation == null || read < SEQ_SCAN_ROWS)
+         return;
+      findings.add ("Seq Scan on " + relation + (estimated ? " is estimated to return " : " reads ") + read + " rows"
+         + (filter != null ? " to filter " + filter : ""));
+      if (filter == null)
+         return;
+      List<String> equal = new ArrayList<String>();
+      List<String> range = new ArrayList<String>();
+      Matcher m = COMPARISON.matcher (filter);
+      while (m.find ()) {
+         String column = m.group (1);
+         if (!equal.contains (column) && !range.contains (column))
+            (m.group (2).equals ("=") ? equal : range).add (column);
+      }//end while
+      equal.addAll (range);
+      if (equal.isEmpty ())
+         return;
+      StringBuilder index = new StringBuilder("CREATE INDEX ON ").append (relation).append (" (");
+      for (int i = 0; i < equal.size (); ++i)
+         index.append (i == 0 ? "" : ", ").append (equal.get (i));
+      indexes.add (index.append (")").toString ());
+   }//end seqScan
+
+   /** Returns the captures kept, oldest first. */
+   public synchronized List<Capture> captures () {
+      return new ArrayList<Capture>(this._captures);
+   }//end captures
+
+   /**
+    * Returns the findings and candidate indexes of every operation that
+    * had a slow statement captured.
+    */
+   public synchronized String report () {
+      StringBuilder text = new StringBuilder();
+      text.append (String.format ("slow statements: %d, plans captured: %d, dropped: %d, failed: %d%n",
+         this._slow.get (), totalCaptures (), this._dropped.get (), this._failed.get ()));
+      for (Map.Entry<String, Advice> entry : this._advice.entrySet ()) {
+         Advice advice = entry.getValue ();
+         text.append (String.format ("%s: %d plans, slowest %.3f ms%n", entry.getKey (), advice.captures, advice.slowestMs));
+         if (advice.findings.isEmpty ())
+            text.append ("   nothing found\n");
+         for (String finding : advice.findings)
+            text.append ("   ").append (finding).append ('\n');
+         for (String index : advice.indexes)
+            text.append ("   candidate: ").append (index).append ('\n');
+      }//end for
+      return text.toString ();
+   }//end report
+
+   private long totalCaptures () {
+      long total = 0;
+      for (Advice advice : this._advice.values ())
+         total += advice.captures;
+      return total;
+   }//end totalCaptures
+
+   /** Stops capturing; plans still queued are dropped. */
+   public void close () {
+      this._executor.shutdownNow ();
+   }//end close
+
+   @Override
+   public String toString () {
+      return String.format ("slow=%d captured=%d dropped=%d failed=%d", this._slow.get (), captures ().size (),
+         this._dropped.get (), this._failed.get ());
+   }//end toString
+
+}//end QueryAdvisor
@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs reports in the background.  A submitted report gets a job ID right
+ * away; its rows are kept in memory until they are fetched with that ID.
+ *
+ * Jobs run on virtual threads when the JVM has them (Java 21 and later) and
+ * on a pool of daemon threads otherwise.  At most maxConcurrent queries run
+ * at the same time whatever the number of jobs, so that a burst of
+ * submissions queues up here instead of on the database.  A per hotel
+ * report only submits its next part when one of its first maxConcurrent
+ * has finished, so a report over many hotels does not start a thread per
+ * hotel.  Maintenance jobs (archiving) run outside that limit: they pace
+ * themselves and would otherwise hold a report permit for their whole run.
+ */
+public class ReportJobs {
+
+   /** A report writing its rows to a sink. */
+   public interface Report {
+      int run (ResultSink sink) throws SQLException;
+   }//end Report
+
+   /** A report about one hotel, run once per hotel by submitPerHotel. */
+   public interface HotelReport {
+      int run (int hotelID, ResultSink sink) throws SQLException;
+   }//end HotelReport
+
+   /** A submitted report. */
+   public static class Job {
+      private final int _id;
+      private final String _description;
+      private final long _submittedAt = System.nanoTime ();
+      private volatile long _finishedAt = 0;
+      private Future<ResultSink.Rows> _result;
+
+      Job (int id, String description) {
+         this._id = id;
+         this._description = description;
+      }//end Job
+
+      public int id () { return this._id; }
+      public String description () { return this._description; }
+      public boolean isDone () { return this._result.isDone (); }
+
+      /** Milliseconds the job ran, or has been running so far. */
+      public long elapsedMs () {
+         long end = this._finishedAt == 0 ? System.nanoTime () : this._finishedAt;
+         return (end - this._submittedAt) / 1000000;
+      }//end elapsedMs
+
+      @Override
+      public String toString () {
+         return String.format ("%d\t%s\t%s (%d ms)", this._id, this._description,
+            isDone () ? "done" : "running", elapsedMs ());
+      }//end toString
+   }//end Job
+
+   private final ExecutorService _executor;
+   private final int _maxConcurrent;
+   private final Semaphore _permits;
+   private final AtomicInteger _nextId = new AtomicInteger (1);
+   private final Map<Integer, Job> _jobs = new ConcurrentHashMap<Integer, Job>();
+
+   /**
+    * @param maxConcurrent the maximum number of report queries running at once
+    */
+   public ReportJobs (int maxConcurrent) {
+      if (maxConcurrent < 1)
+         throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+      this._maxConcurrent = maxConcurrent;
+      this._permits = new Semaphore (maxConcurrent, true);
+      this._executor = newExecutor ();
+   }//end ReportJobs
+
+   /**
+    * Returns a virtual thread per task executor if the running JVM has one,
+    * a cached pool of daemon threads otherwise.  The threads only wait for a
+    * permit or for the database, and there are at most maxConcurrent per
+    * job, so their number is not limited here.
+    */
+   static ExecutorService newExecutor () {
+      try{
+         return (ExecutorService) Executors.class.getMethod ("newVirtualThreadPerTaskExecutor").invoke (null);
+      }catch (Exception e){
+         // no virtual threads before Java 21
+      }//end try
+      final AtomicInteger count = new AtomicInteger ();
+      return Executors.newCachedThreadPool (new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "report-" + count.incrementAndGet ());
+            t.setDaemon (true);
+            return t;
+         }
+      });
+   }//end newExecutor
+
+   /**
+    * Runs a report in the background.
+    *
+    * @return the job ID to fetch the result with
+    */
+   public int submit (String description, final Report report) {
+      return submit (description, report, true);
+   }//end submit
+
+   /**
+    * Runs a maintenance job in the background without taking a report
+    * permit, so a long job such as archiving does not hold back reports.
+    *
+    * @return the job ID to fetch the result with
+    */
+   public int submitMaintenance (String description, final Report report) {
+      return submit (description, report, false);
+   }//end submitMaintenance
+
+   private int submit (String description, final Report report, final boolean limited) {
+      final Job job = new Job(this._nextId.getAndIncrement (), description);
+      job._result = this._executor.submit (new Callable<ResultSink.Rows>() {
+         public ResultSink.Rows call () throws Exception {
+            try{
+               if (limited)
+                  return runLimited (report);
+               ResultSink.Rows recorder = new ResultSink.Rows();
+               report.run (recorder);
+               return recorder;
+            }finally{
+               job._finishedAt = System.nanoTime ();
+            }//end try
+         }
+      });
+      this._jobs.put (job._id, job);
+      return job._id;
+   }//end submit
+
+   /**
+    * Runs a report for each of the given hotels in parallel and merges the
+    * results into one, in the order of the hotels, with a leading hotelid
+    * column.
+    *
+    * @return the job ID to fetch the result with
+    */
+   public int submitPerHotel (String description, final int[] hotelIDs, final HotelReport report) {
+      final Job job = new Job(this._nextId.getAndIncrement (), description);
+      job._result = this._executor.submit (new Callable<ResultSink.Rows>() {
+         public ResultSink.Rows call () throws Exception {
+            try{
+               return fanOut (hotelIDs, report);
+            }finally{
+               job._finishedAt = System.nanoTime ();
+            }//end try
+         }
+      });
+      this._jobs.put (job._id, job);
+      return job._id;
+   }//end submitPerHotel
+
+   private ResultSink.Rows runLimited (Report report) throws SQLException, InterruptedException {
+      ResultSink.Rows recorder = new ResultSink.Rows();
+      this._permits.acquire ();
+      try{
+         report.run (recorder);
+      }finally{
+         this._permits.release ();
+      }//end try
+      return recorder;
+   }//end runLimited
+
+   // the fanning out job only waits for its parts, so it holds no permit
+   // itself; every part takes one.  At most maxConcurrent parts are
+   // submitted ahead of those finished, and none after one failed.
+   private ResultSink.Rows fanOut (int[] hotelIDs, final HotelReport report) throws Exception {
+      List<Future<ResultSink.Rows>> parts = new ArrayList<Future<ResultSink.Rows>>(hotelIDs.length);
+      final Semaphore window = new Semaphore (this._maxConcurrent);
+      final AtomicBoolean failed = new AtomicBoolean ();
+      ResultSink.Rows merged = new ResultSink.Rows();
+      try{
+         for (final int hotelID : hotelIDs) {
+            window.acquire ();
+            if (failed.get ()) {
+               window.release ();
+               break;
+            }//end if
+            parts.add (this._executor.submit (new Callable<ResultSink.Rows>() {
+               public ResultSink.Rows call () throws Exception {
+                  try{
+                     return runLimited (new Report() {
+                        public int run (ResultSink sink) throws SQLException {
+                           return report.run (hotelID, sink);
+                        }
+                     });
+                  }catch (Exception e){
+                     failed.set (true);
+                     throw e;
+                  }finally{
+                     window.release ();
+                  }//end try
+               }
+            }));
+         }//end for
+
+         // a failed part throws here, so the hotels never submitted after it
+         // are not silently left out
+         for (int i = 0; i < parts.size (); ++i) {
+            ResultSink.Rows part = parts.get (i).get ();
+            if (part.columns () == null)
+               continue;
+            if (merged.columns () == null) {
+               String[] columns = new String[part.columns ().length + 1];
+               columns[0] = "hotelid";
+               System.arraycopy (part.columns (), 0, columns, 1, part.columns ().length);
+               merged.begin (columns);
+            }//end if
+            String hotel = String.valueOf (hotelIDs[i]);
+            for (String[] row : part.recorded ()) {
+               merged.value (hotel);
+               for (String value : row)
+                  merged.value (value);
+               merged.endRow ();
+            }//end for
+         }//end for
+         if (merged.columns () == null)
+            merged.begin (new String[] { "hotelid" });
+         merged.end ();
+      }finally{
+         // don't leave the other parts running when one failed
+         for (Future<ResultSink.Rows> part : parts)
+            part.cancel (true);
+      }//end try
+      return merged;
+   }//end fanOut
+
+   /** Returns the jobs whose results have not been fetched yet. */
+   public List<Job> jobs () {
+      List<Job> jobs = new ArrayList<Job>(this._jobs.values ());
+      Collections.sort (jobs, new Comparator<Job>() {
+         public int compare (Job a, Job b) {
+            return a._id - b._id;
+         }
+      });
+      return jobs;
+   }//end jobs
+
+   /** Returns a job by ID, or null if there is no such (unfetched) job. */
+   public Job job (int id) {
+      return this._jobs.get (id);
+   }//end job
+
+   /**
+    * Hands the rows of a job to a sink, waiting for the job if it is still
+    * running, and forgets the job.
+    *
+    * @return the number of rows
+    * @throws java.sql.SQLException when the report failed, or writing the rows failed
+    * @throws IllegalArgumentException when there is no job with that ID
+    */
+   public int fetch (int id, ResultSink sink) throws SQLException, InterruptedException {
+      Job job = this._jobs.get (id);
+      if (job == null)
+         throw new IllegalArgumentException("No report job " + id);
+      ResultSink.Rows result;
+      try{
+         result = job._result.get ();
+      }catch (ExecutionException e){
+         this._jobs.remove (id);
+         if (e.getCause () instanceof SQLException)
+            throw (SQLException) e.getCause ();
+         throw new SQLException("Report job " + id + " failed: " + e.getCause (), e.getCause ());
+      }//end try
+      this._jobs.remove (id);
+      try{
+         sink.begin (result.columns () == null ? new String[0] : result.columns ());
+         for (String[] row : result.recorded ()) {
+            for (String value : row)
+               sink.value (value);
+            sink.endRow ();
+         }//end for
+         sink.end ();
+      }catch (IOException e){
+         throw DBProject.sinkFailure (e);
+      }//end try
+      return result.recorded ().size ();
+   }//end fetch
+
+   /** Cancels running jobs and stops the threads. */
+   public void close () {
+      this._executor.shutdownNow ();
+   }//end close
+
+}//end ReportJobs
@@ -0,0 +1,257 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process cache of small query results, keyed by operation and
+ * arguments (e.g. "availableRooms:12").  Entries are dropped when they are
+ * older than the time-to-live, when the cache is full (least recently used
+ * first), or when a write invalidates them.  A result of more than maxRows
+ * rows is not cached: its recorder stops copying rows once it passes the
+ * limit and only passes them on.
+ *
+ * A result is only stored if nothing invalidated its key while its query
+ * ran, so a write racing with a read cannot leave a stale entry behind.
+ * To tell, every invalidation bumps a generation: that of the key's stripe
+ * (one of a fixed number, picked by hashing the key), that of the prefix,
+ * or, for clear, the global one.  The version of a key is the sum of the
+ * generations that cover it, which only changes when one of them does, so
+ * a write to another key does not keep results from being cached.
+ */
+public class ResultCache {
+
+   /** A cached result: its column names and rows. */
+   public static class Entry {
+      private final String[] _columns;
+      private final List<String[]> _rows;
+      private final long _expiresAt;
+
+      Entry (String[] columns, List<String[]> rows, long expiresAt) {
+         this._columns = columns;
+         this._rows = rows;
+         this._expiresAt = expiresAt;
+      }//end Entry
+
+      /**
+       * Hands the cached rows to a sink as if the query had run again.
+       *
+       * @return the number of rows
+       */
+      public int replay (ResultSink sink) throws IOException {
+         sink.begin (this._columns);
+         for (String[] row : this._rows) {
+            for (String value : row)
+               sink.value (value);
+            sink.endRow ();
+         }//end for
+         sink.end ();
+         return this._rows.size ();
+      }//end replay
+   }//end Entry
+
+   /**
+    * A sink that passes everything on to another sink and keeps a copy of
+    * the rows, to be stored in the cache once the query completed.
+    */
+   public static class Recorder extends ResultSink {
+      private final ResultSink _target;
+      private final int _maxRows;
+      private String[] _columns;
+      private final List<String[]> _recorded = new ArrayList<String[]>();
+      private boolean _overflowed = false;
+      private String[] _row;
+      private int _next;
+
+      /**
+       * @param maxRows the most rows copied; past it the copy is dropped
+       *        and the rows are only passed on
+       */
+      public Recorder (ResultSink target, int maxRows) {
+         this._target = target;
+         this._maxRows = maxRows;
+      }//end Recorder
+
+      public void begin (String[] columns) throws IOException {
+         this._columns = columns;
+         this._row = new String[columns.length];
+         this._target.begin (columns);
+      }//end begin
+
+      public void value (String value) throws IOException {
+         if (!this._overflowed && this._next < this._row.length)
+            this._row[this._next++] = value;
+         this._target.value (value);
+      }//end value
+
+      public void endRow () throws IOException {
+         if (!this._overflowed) {
+            if (this._recorded.size () < this._maxRows) {
+               this._recorded.add (this._row);
+               this._row = new String[this._columns.length];
+            } else {
+               this._overflowed = true;
+               this._recorded.clear ();
+            }//end if
+         }//end if
+         this._next = 0;
+         ++this._rows;
+         this._target.endRow ();
+      }//end endRow
+
+      @Override
+      public void end () throws IOException {
+         this._target.end ();
+      }//end end
+
+      /** The column names, or null if the query never produced a result. */
+      public String[] columns () { return this._columns; }
+
+      /** The rows recorded so far; none once the result passed maxRows. */
+      public List<String[]> recorded () { return this._recorded; }
+
+      /** Whether the result had more than maxRows rows. */
+      public boolean overflowed () { return this._overflowed; }
+   }//end Recorder
+
+   private final int _maxEntries;
+   private final int _maxRows;
+   private final long _ttlNanos;
+   private final LinkedHashMap<String, Entry> _entries;
+
+   // generations of the key stripes, the invalidated prefixes and the
+   // whole cache, bumped by the invalidations that cover them; see version.
+   private static final int STRIPES = 256;
+   private final long[] _keyGenerations = new long[STRIPES];
+   private final Map<String, Long> _prefixGenerations = new HashMap<String, Long>();
+   private long _generation = 0;
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+   private long _expirations = 0;
+   private long _invalidations = 0;
+   private long _oversized = 0;
+
+   /**
+    * @param maxEntries the maximum number of cached results
+    * @param maxRows the most rows of a cached result
+    * @param ttlMs how long a result may be served from the cache
+    */
+   public ResultCache (int maxEntries, int maxRows, long ttlMs) {
+      if (maxEntries < 1 || maxRows < 1 || ttlMs < 1)
+         throw new IllegalArgumentException("result cache size, row limit and TTL must be positive");
+      this._maxEntries = maxEntries;
+      this._maxRows = maxRows;
+      this._ttlNanos = TimeUnit.MILLISECONDS.toNanos (ttlMs);
+      this._entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry (Map.Entry<String, ResultCache.Entry> eldest) {
+            if (size () <= ResultCache.this._maxEntries)
+               return false;
+            ++ResultCache.this._evictions;
+            return true;
+         }
+      };
+   }//end ResultCache
+
+   /**
+    * Returns the live entry for a key, or null on a miss.
+    */
+   public synchronized Entry get (String key) {
+      Entry entry = this._entries.get (key);
+      if (entry != null && entry._expiresAt - System.nanoTime () <= 0) {
+         this._entries.remove (key);
+         ++this._expirations;
+         entry = null;
+      }//end if
+      if (entry == null)
+         ++this._misses;
+      else
+         ++this._hits;
+      return entry;
+   }//end get
+
+   /**
+    * Returns a recorder for a query whose result is to be cached, copying
+    * no more rows than a cached result may have.
+    */
+   public Recorder recorder (ResultSink target) {
+      return new Recorder(target, this._maxRows);
+   }//end recorder
+
+   /**
+    * Returns the current invalidation version of a key, to be passed to put
+    * once the query has run.
+    */
+   public synchronized long version (String key) {
+      long version = this._generation + this._keyGenerations[stripe (key)];
+      for (Map.Entry<String, Long> prefix : this._prefixGenerations.entrySet ()) {
+         if (key.startsWith (prefix.getKey ()))
+            version += prefix.getValue ();
+      }//end for
+      return version;
+   }//end version
+
+   private static int stripe (String key) {
+      int h = key.hashCode ();
+      return (h ^ (h >>> 16)) & (STRIPES - 1);
+   }//end stripe
+
+   /**
+    * Stores the rows a recorder captured, unless the key was invalidated
+    * after its version was read or the result had too many rows.
+    */
+   public synchronized void put (String key, Recorder recorded, long version) {
+      if (recorded._overflowed) {
+         ++this._oversized;
+         return;
+      }//end if
+      if (version != version (key) || recorded._columns == null)
+         return;
+      this._entries.put (key, new Entry(recorded._columns, recorded._recorded, System.nanoTime () + this._ttlNanos));
+   }//end put
+
+   /** Drops the entry for one key. */
+   public synchronized void invalidate (String key) {
+      ++this._keyGenerations[stripe (key)];
+      if (this._entries.remove (key) != null)
+         ++this._invalidations;
+   }//end invalidate
+
+   /** Drops every entry whose key starts with the given prefix. */
+   public synchronized void invalidatePrefix (String prefix) {
+      Long generation = this._prefixGenerations.get (prefix);
+      this._prefixGenerations.put (prefix, generation == null ? 1L : generation + 1);
+      Iterator<String> it = this._entries.keySet ().iterator ();
+      while (it.hasNext ()) {
+         if (it.next ().startsWith (prefix)) {
+            it.remove ();
+            ++this._invalidations;
+         }//end if
+      }//end while
+   }//end invalidatePrefix
+
+   public synchronized void clear () {
+      ++this._generation;
+      this._invalidations += this._entries.size ();
+      this._entries.clear ();
+   }//end clear
+
+   public synchronized long hits () { return this._hits; }
+   public synchronized long misses () { return this._misses; }
+
+   @Override
+   public synchronized String toString () {
+      long lookups = this._hits + this._misses;
+      double ratio = lookups == 0 ? 0.0 : 100.0 * this._hits / lookups;
+      return String.format ("entries=%d/%d hits=%d misses=%d hitRatio=%.1f%% evictions=%d expirations=%d invalidations=%d oversized=%d",
+         this._entries.size (), this._maxEntries, this._hits, this._misses, ratio, this._evictions,
+         this._expirations, this._invalidations, this._oversized);
+   }//end toString
+
+}//end ResultCache
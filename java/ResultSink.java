@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives the rows of a query result one value at a time.  The caller
+ * announces the columns with begin, hands over every value of a row followed
+ * by endRow, and calls end once the result is exhausted.
+ *
+ * The text sinks append everything to one reused StringBuilder and write it
+ * out in large chunks, instead of issuing a separate print per value.
+ */
+public abstract class ResultSink {
+
+   protected long _rows = 0;
+
+   public abstract void begin (String[] columns) throws IOException;
+
+   public abstract void value (String value) throws IOException;
+
+   public void value (long value) throws IOException {
+      value (Long.toString (value));
+   }//end value
+
+   public abstract void endRow () throws IOException;
+
+   public void end () throws IOException {
+   }//end end
+
+   /** Returns the number of rows received so far. */
+   public long rows () {
+      return this._rows;
+   }//end rows
+
+   /**
+    * Creates a sink by format name: "tab" (the default console layout), "csv"
+    * or "count".
+    *
+    * @param format the format name
+    * @param out where the output goes
+    */
+   public static ResultSink forName (String format, Writer out) {
+      if (format == null || format.equalsIgnoreCase ("tab"))
+         return new Tab(out);
+      if (format.equalsIgnoreCase ("csv"))
+         return new Csv(out);
+      if (format.equalsIgnoreCase ("count"))
+         return new Count(out);
+      throw new IllegalArgumentException("Unknown result format: " + format);
+   }//end forName
+
+   /**
+    * Base of the sinks that render text: buffers the output and writes it in
+    * chunks of about the given size.
+    */
+   public static abstract class Text extends ResultSink {
+      private static final int CHUNK = 1 << 14;
+
+      protected final StringBuilder _buf = new StringBuilder(CHUNK + 256);
+      private final char[] _chunk = new char[CHUNK + 256];
+      private final Writer _out;
+
+      protected Text (Writer out) {
+         this._out = out;
+      }//end Text
+
+      /** Writes the buffer out once it holds a full chunk. */
+      protected void maybeFlush () throws IOException {
+         if (this._buf.length () >= CHUNK)
+            flush ();
+      }//end maybeFlush
+
+      protected void flush () throws IOException {
+         int length = this._buf.length ();
+         int offset = 0;
+         while (offset < length) {
+            int n = Math.min (this._chunk.length, length - offset);
+            this._buf.getChars (offset, offset + n, this._chunk, 0);
+            this._out.write (this._chunk, 0, n);
+            offset += n;
+         }//end while
+         this._buf.setLength (0);
+      }//end flush
+
+      @Override
+      public void end () throws IOException {
+         flush ();
+         this._out.flush ();
+      }//end end
+   }//end Text
+
+   /**
+    * Tab separated values, header first.  Like the original console output
+    * the header is only printed when there is at least one row, and every
+    * value (including the last one of a row) is followed by a tab.
+    */
+   public static class Tab extends Text {
+      private String[] _columns;
+
+      public Tab (Writer out) {
+         super(out);
+      }//end Tab
+
+      public void begin (String[] columns) {
+         this._columns = columns;
+      }//end begin
+
+      private void header () {
+         if (this._columns == null)
+            return;
+         for (String column : this._columns)
+            this._buf.append (column).append ('\t');
+         this._buf.append ('\n');
+         this._columns = null;
+      }//end header
+
+      public void value (String value) {
+         header ();
+         this._buf.append (value).append ('\t');
+      }//end value
+
+      @Override
+      public void value (long value) {
+         header ();
+         this._buf.append (value).append ('\t');
+      }//end value
+
+      public void endRow () throws IOException {
+         header ();
+         this._buf.append ('\n');
+         ++this._rows;
+         maybeFlush ();
+      }//end endRow
+   }//end Tab
+
+   /**
+    * Comma separated values with a header line.  Values holding a comma, a
+    * quote or a line break are quoted; NULL is written as an empty value.
+    */
+   public static class Csv extends Text {
+      private boolean _first = true;
+
+      public Csv (Writer out) {
+         super(out);
+      }//end Csv
+
+      public void begin (String[] columns) throws IOException {
+         for (String column : columns)
+            value (column);
+         endLine ();
+      }//end begin
+
+      public void value (String value) {
+         if (!this._first)
+            this._buf.append (',');
+         this._first = false;
+         if (value == null)
+            return;
+         boolean quote = false;
+         for (int i = 0; i < value.length () && !quote; ++i) {
+            char c = value.charAt (i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+         }//end for
+         if (!quote) {
+            this._buf.append (value);
+            return;
+         }//end if
+         this._buf.append ('"');
+         for (int i = 0; i < value.length (); ++i) {
+            char c = value.charAt (i);
+            if (c == '"')
+               this._buf.append ('"');
+            this._buf.append (c);
+         }//end for
+         this._buf.append ('"');
+      }//end value
+
+      @Override
+      public void value (long value) {
+         if (!this._first)
+            this._buf.append (',');
+         this._first = false;
+         this._buf.append (value);
+      }//end value
+
+      public void endRow () throws IOException {
+         endLine ();
+         ++this._rows;
+      }//end endRow
+
+      private void endLine () throws IOException {
+         this._buf.append ('\n');
+         this._first = true;
+         maybeFlush ();
+      }//end endLine
+   }//end Csv
+
+   /**
+    * Only counts the rows.  When given a writer it prints the count at the
+    * end.
+    */
+   public static class Count extends ResultSink {
+      private final Writer _out;
+
+      public Count (Writer out) {
+         this._out = out;
+      }//end Count
+
+      public void begin (String[] columns) {
+      }//end begin
+
+      public void value (String value) {
+      }//end value
+
+      @Override
+      public void value (long value) {
+      }//end value
+
+      public void endRow () {
+         ++this._rows;
+      }//end endRow
+
+      @Override
+      public void end () throws IOException {
+         if (this._out == null)
+            return;
+         this._out.write (this._rows + " rows\n");
+         this._out.flush ();
+      }//end end
+   }//end Count
+
+   /**
+    * Keeps the column names and every row in memory, as strings, for
+    * results small enough to be held whole (sample rows, report parts,
+    * pages).
+    */
+   public static class Rows extends ResultSink {
+      private String[] _columns;
+      private final List<String[]> _recorded = new ArrayList<String[]>();
+      private String[] _row;
+      private int _next;
+
+      public void begin (String[] columns) {
+         this._columns = columns;
+         this._row = new String[columns.length];
+      }//end begin
+
+      public void value (String value) {
+         if (this._next < this._row.length)
+            this._row[this._next++] = value;
+      }//end value
+
+      public void endRow () {
+         this._recorded.add (this._row);
+         this._row = new String[this._columns.length];
+         this._next = 0;
+         ++this._rows;
+      }//end endRow
+
+      /** The column names, or null if the query never produced a result. */
+      public String[] columns () { return this._columns; }
+
+      /** The rows received so far. */
+      public List<String[]> recorded () { return this._recorded; }
+   }//end Rows
+
+   /**
+    * Hands every row to row as an array of strings, one row at a time, for
+    * results too large to be held whole (the loads of the in-memory
+    * indexes).
+    */
+   public static abstract class Each extends ResultSink {
+      private String[] _row;
+      private int _next;
+
+      /** Takes one row; the array is reused for the next one. */
+      protected abstract void row (String[] values);
+
+      public void begin (String[] columns) {
+         this._row = new String[columns.length];
+      }//end begin
+
+      public void value (String value) {
+         if (this._next < this._row.length)
+            this._row[this._next++] = value;
+      }//end value
+
+      public void endRow () {
+         this._next = 0;
+         ++this._rows;
+         row (this._row);
+      }//end endRow
+   }//end Each
+
+}//end ResultSink
@@ -0,0 +1,109 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Reads the result of a query through a server-side cursor, a batch of rows
+ * per round trip, so the client holds one batch at a time however large the
+ * result is:
+ *
+ *    DECLARE dbproject_cursor NO SCROLL CURSOR FOR <query>
+ *    FETCH <batch> FROM dbproject_cursor
+ *    ...
+ *    CLOSE dbproject_cursor
+ *
+ * The bundled driver cannot do this itself: it reads every result whole, and
+ * Statement.setFetchSize fails with "This method is not yet implemented."
+ *
+ * A cursor only lives in a transaction, so the connection must have
+ * autocommit off; committing or rolling back the transaction closes it too.
+ * Each connection has one cursor open at a time, under a fixed name, so the
+ * DECLARE and FETCH statements stay in the connection's statement cache.
+ */
+public class ServerCursor {
+
+   private static final String NAME = "dbproject_cursor";
+
+   private final ConnectionPool.PooledConnection _pc;
+   private final String _fetch;
+   private final int _batch;
+
+   // the batch being read, and the number of rows read from it so far.
+   private ResultSet _rows;
+   private int _read = 0;
+   private boolean _closed = false;
+
+   /**
+    * Declares the cursor and fetches its first batch, which also gives the
+    * columns of the result.
+    *
+    * @param pc a connection in a transaction
+    * @param batch the number of rows fetched per round trip
+    * @param query the query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @throws java.sql.SQLException when the connection is in autocommit mode
+    *         or the query failed
+    */
+   public ServerCursor (ConnectionPool.PooledConnection pc, int batch, String query, Object[] params) throws SQLException {
+      if (batch < 1)
+         throw new IllegalArgumentException("cursor batch must be positive: " + batch);
+      if (pc.connection ().getAutoCommit ())
+         throw new SQLException("A server-side cursor needs a transaction, but the connection is in autocommit mode");
+      this._pc = pc;
+      this._batch = batch;
+      this._fetch = "FETCH " + batch + " FROM " + NAME;
+      PreparedStatement declare = pc.statements ().prepare ("DECLARE " + NAME + " NO SCROLL CURSOR FOR " + query);
+      DBProject.bind (declare, params);
+      declare.executeUpdate ();
+      fetch ();
+   }//end ServerCursor
+
+   /** The columns of the result. */
+   public ResultSetMetaData metaData () throws SQLException {
+      return this._rows.getMetaData ();
+   }//end metaData
+
+   /**
+    * Moves to the next row, fetching the next batch when the current one is
+    * used up.
+    *
+    * @return false when there are no more rows
+    */
+   public boolean next () throws SQLException {
+      while (true) {
+         if (this._rows.next ()) {
+            ++this._read;
+            return true;
+         }//end if
+         // a short batch was the last one; no need to ask for another.
+         if (this._read < this._batch)
+            return false;
+         fetch ();
+      }//end while
+   }//end next
+
+   /** The result set positioned on the current row. */
+   public ResultSet row () {
+      return this._rows;
+   }//end row
+
+   /**
+    * Closes the cursor on the server.  Needed only to keep using the
+    * transaction; ending the transaction closes the cursor as well.
+    */
+   public void close () throws SQLException {
+      if (this._closed)
+         return;
+      this._closed = true;
+      this._rows.close ();
+      this._pc.statements ().prepare ("CLOSE " + NAME).executeUpdate ();
+   }//end close
+
+   private void fetch () throws SQLException {
+      if (this._rows != null)
+         this._rows.close ();
+      this._rows = this._pc.statements ().prepare (this._fetch).executeQuery ();
+      this._read = 0;
+   }//end fetch
+}//end ServerCursor
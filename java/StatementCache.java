@@ -0,0 +1,279 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the most recently used PreparedStatements of one connection, keyed
+ * by their SQL text.  Repeating an operation then reuses the statement
+ * instead of building it again.
+ *
+ * The bundled driver substitutes the parameters into the SQL text on the
+ * client and sends the whole statement on every execution, so the server
+ * parses and plans it every time.  The driver's own server-side prepare
+ * (PGStatement.setUseServerPrepare) is only enabled for servers whose
+ * version it thinks is 7.3 or later, comparing the versions as strings, so
+ * it stays off on the 10 to 13 servers the schema needs.  Hence with
+ * serverPrepare set the cache prepares SELECT, INSERT, UPDATE, DELETE,
+ * WITH and VALUES statements on the server itself, once per connection:
+ * PREPARE names the statement with its parameters as $1..$n, their types
+ * inferred by the server, and the cached PreparedStatement runs EXECUTE
+ * name(?, ...), which only carries the values.  Only a '?' outside string
+ * literals, quoted identifiers, dollar-quoted bodies and comments is taken
+ * for a parameter.  A statement the server cannot prepare (e.g. a
+ * parameter whose type it cannot infer) falls back to the client-side form.
+ *
+ * The cache belongs to a single connection and is not meant to be shared
+ * by threads that use the connection at the same time.
+ */
+public class StatementCache {
+
+   // statements PostgreSQL can PREPARE.
+   private static final Pattern PREPARABLE =
+      Pattern.compile ("\\s*(SELECT|INSERT|UPDATE|DELETE|WITH|VALUES)\\b", Pattern.CASE_INSENSITIVE);
+
+   // names of the server-side statements, unique per connection even when
+   // several caches share one.
+   private static final AtomicLong NAMES = new AtomicLong ();
+
+   // the connection every cached statement was prepared on.
+   private final Connection _connection;
+
+   // maximum number of statements kept open.
+   private final int _capacity;
+
+   // whether statements are prepared on the server.
+   private final boolean _serverPrepare;
+
+   // SQL text -> statement, in least-recently-used order.
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   // statement -> the name it was prepared under on the server.
+   private final Map<PreparedStatement, String> _names = new HashMap<PreparedStatement, String>();
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+   private long _serverPrepared = 0;
+   private long _fallbacks = 0;
+
+   /**
+    * Creates an empty cache for the given connection.
+    *
+    * @param connection the connection statements are prepared on
+    * @param capacity the maximum number of statements kept open
+    * @param serverPrepare whether to prepare the statements on the server
+    */
+   public StatementCache (Connection connection, int capacity, boolean serverPrepare) {
+      if (capacity < 1)
+         throw new IllegalArgumentException("statement cache capacity must be positive: " + capacity);
+      this._connection = connection;
+      this._capacity = capacity;
+      this._serverPrepare = serverPrepare;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= StatementCache.this._capacity)
+               return false;
+            release (eldest.getValue ());
+            ++StatementCache.this._evictions;
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns a statement for the given SQL, preparing it on a miss.  The
+    * statement stays owned by the cache: callers must not close it.
+    *
+    * @param sql the SQL text with '?' placeholders
+    * @return the prepared statement
+    * @throws java.sql.SQLException when the statement could not be prepared
+    */
+   public synchronized PreparedStatement prepare (String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get (sql);
+      if (stmt != null) {
+         ++this._hits;
+         return stmt;
+      }//end if
+      ++this._misses;
+      stmt = this._serverPrepare && PREPARABLE.matcher (sql).lookingAt () ? prepareOnServer (sql) : null;
+      if (stmt == null)
+         stmt = this._connection.prepareStatement (sql);
+      this._statements.put (sql, stmt);
+      return stmt;
+   }//end prepare
+
+   /**
+    * PREPAREs the statement on the server and returns the statement that
+    * EXECUTEs it, or null when the server refused it.  Inside a
+    * transaction the PREPARE runs behind a savepoint, so a refusal does not
+    * abort the transaction.
+    */
+   private PreparedStatement prepareOnServer (String sql) throws SQLException {
+      String name = "dbproject_" + NAMES.incrementAndGet ();
+      StringBuilder body = new StringBuilder();
+      int params = numberParameters (sql, body);
+      StringBuilder execute = new StringBuilder("EXECUTE ").append (name);
+      for (int i = 1; i <= params; ++i)
+         execute.append (i == 1 ? " (?" : ", ?");
+      if (params > 0)
+         execute.append (')');
+
+      boolean transaction = !this._connection.getAutoCommit ();
+      Statement stmt = this._connection.createStatement ();
+      try{
+         if (transaction)
+            stmt.executeUpdate ("SAVEPOINT prepare_statement; PREPARE " + name + " AS " + body
+               + "; RELEASE SAVEPOINT prepare_statement");
+         else
+            stmt.executeUpdate ("PREPARE " + name + " AS " + body);
+      }catch (SQLException e){
+         ++this._fallbacks;
+         if (transaction) {
+            // if the savepoint cannot be rolled back either, the transaction
+            // is lost: report why the PREPARE failed, not the rollback.
+            try{
+               stmt.executeUpdate ("ROLLBACK TO SAVEPOINT prepare_statement; RELEASE SAVEPOINT prepare_statement");
+            }catch (SQLException rollback){
+               e.addSuppressed (rollback);
+               throw e;
+            }//end try
+         }//end if
+         return null;
+      }finally{
+         stmt.close ();
+      }//end try
+      PreparedStatement prepared = this._connection.prepareStatement (execute.toString ());
+      this._names.put (prepared, name);
+      ++this._serverPrepared;
+      return prepared;
+   }//end prepareOnServer
+
+   /**
+    * Copies the SQL to body with its '?' placeholders numbered $1..$n, and
+    * returns n.  A '?' inside a string literal, a quoted identifier, a
+    * dollar-quoted string or a comment is not a placeholder and is copied
+    * as it is.
+    */
+   static int numberParameters (String sql, StringBuilder body) {
+      int params = 0;
+      int n = sql.length ();
+      int i = 0;
+      while (i < n) {
+         char c = sql.charAt (i);
+         int end = i + 1;
+         if (c == '\'' || c == '"') {
+            // a doubled quote inside is read as a literal closing and
+            // reopening, which copies the same text.
+            int close = sql.indexOf (c, i + 1);
+            end = close < 0 ? n : close + 1;
+         } else if (c == '-' && sql.startsWith ("--", i)) {
+            int close = sql.indexOf ('\n', i);
+            end = close < 0 ? n : close + 1;
+         } else if (c == '/' && sql.startsWith ("/*", i)) {
+            int close = sql.indexOf ("*/", i + 2);
+            end = close < 0 ? n : close + 2;
+         } else if (c == '$' && dollarTag (sql, i) != null) {
+            String tag = dollarTag (sql, i);
+            int close = sql.indexOf (tag, i + tag.length ());
+            end = close < 0 ? n : close + tag.length ();
+         } else if (c == '?') {
+            body.append ('$').append (++params);
+            i = end;
+            continue;
+         }//end if
+         body.append (sql, i, end);
+         i = end;
+      }//end while
+      return params;
+   }//end numberParameters
+
+   // the opening $tag$ of a dollar-quoted string at i, or null if the '$'
+   // there does not start one (e.g. it is part of an identifier or a $1).
+   private static String dollarTag (String sql, int i) {
+      if (i > 0 && (Character.isLetterOrDigit (sql.charAt (i - 1)) || sql.charAt (i - 1) == '_'))
+         return null;
+      int j = i + 1;
+      while (j < sql.length () && (Character.isLetter (sql.charAt (j)) || sql.charAt (j) == '_'
+            || (j > i + 1 && Character.isDigit (sql.charAt (j)))))
+         ++j;
+      if (j >= sql.length () || sql.charAt (j) != '$')
+         return null;
+      return sql.substring (i, j + 1);
+   }//end dollarTag
+
+   /**
+    * Closes and forgets the statement prepared for the given SQL, if any.
+    *
+    * @param sql the SQL text the statement was prepared for
+    */
+   public synchronized void evict (String sql) {
+      release (this._statements.remove (sql));
+   }//end evict
+
+   /**
+    * Closes every cached statement.  The connection itself is left open.
+    */
+   public synchronized void close () {
+      List<PreparedStatement> open = new ArrayList<PreparedStatement>(this._statements.values ());
+      this._statements.clear ();
+      for (PreparedStatement stmt : open)
+         release (stmt);
+   }//end close
+
+   // closes a statement that left the cache, and deallocates it on the
+   // server if it was prepared there.
+   private void release (PreparedStatement stmt) {
+      String name = this._names.remove (stmt);
+      closeQuietly (stmt);
+      if (name == null)
+         return;
+      try{
+         Statement deallocate = this._connection.createStatement ();
+         try{
+            deallocate.executeUpdate ("DEALLOCATE " + name);
+         }finally{
+            deallocate.close ();
+         }//end try
+      }catch (SQLException e){
+         // the connection is broken or in a failed transaction; the
+         // statement goes away with the connection.
+      }//end try
+   }//end release
+
+   public synchronized int size () { return this._statements.size (); }
+   public int capacity () { return this._capacity; }
+   public synchronized long hits () { return this._hits; }
+   public synchronized long misses () { return this._misses; }
+   public synchronized long evictions () { return this._evictions; }
+   public synchronized long serverPrepared () { return this._serverPrepared; }
+   public synchronized long fallbacks () { return this._fallbacks; }
+
+   @Override
+   public synchronized String toString () {
+      long lookups = this._hits + this._misses;
+      double ratio = lookups == 0 ? 0.0 : 100.0 * this._hits / lookups;
+      return String.format ("statements=%d/%d hits=%d misses=%d evictions=%d hitRatio=%.1f%% serverPrepared=%d fallbacks=%d",
+         this._statements.size (), this._capacity, this._hits, this._misses, this._evictions, ratio,
+         this._serverPrepared, this._fallbacks);
+   }//end toString
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      if (stmt == null)
+         return;
+      try{
+         stmt.close ();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
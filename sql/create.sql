@@ -10,6 +10,15 @@ DROP TABLE IF EXISTS Repair CASCADE;
 DROP TABLE IF EXISTS Request CASCADE;
 DROP TABLE IF EXISTS Assigned CASCADE;
 
+DROP TABLE IF EXISTS RoomBookings CASCADE;
+DROP TABLE IF EXISTS HotelBookedRooms CASCADE;
+DROP TABLE IF EXISTS CompanyRepairs CASCADE;
+DROP TABLE IF EXISTS RoomRepairsPerYear CASCADE;
+
+DROP TABLE IF EXISTS BookingArchive CASCADE;
+DROP TABLE IF EXISTS RepairArchive CASCADE;
+DROP TABLE IF EXISTS RequestArchive CASCADE;
+
 -- The below sql statements drops of the enum types if they exits
 DROP TYPE IF EXISTS StaffRole CASCADE;
 DROP TYPE IF EXISTS GenderType CASCADE;
@@ -81,6 +90,37 @@ CREATE TABLE Assigned( asgID INT GENERATED ALWAYS AS IDENTITY NOT NULL,
 					   roomNo Numeric NOT NULL DEFAULT 0,
 					   PRIMARY KEY(asgID));
 
+-- The below statements create the rollup tables.  They summarize Booking and
+-- Repair for menu queries 9, 15 and 16; DBProject updates them together with
+-- every booking and repair it adds, the archive job takes off the rows it
+-- moves, and rebuild_rollups() below recomputes them after a bulk load.
+CREATE TABLE RoomBookings( hotelID Numeric NOT NULL,
+                           roomNo Numeric NOT NULL,
+                           bookings INT NOT NULL,
+                           PRIMARY KEY(hotelID, roomNo));
+
+CREATE TABLE HotelBookedRooms( hotelID Numeric NOT NULL,
+                               bookedRooms INT NOT NULL,
+                               PRIMARY KEY(hotelID));
+
+CREATE TABLE CompanyRepairs( name CHAR(30) NOT NULL,
+                             repairs INT NOT NULL,
+                             PRIMARY KEY(name));
+
+CREATE TABLE RoomRepairsPerYear( hotelID Numeric NOT NULL,
+                                 roomNo Numeric NOT NULL,
+                                 repairYear INT NOT NULL,
+                                 repairs INT NOT NULL,
+                                 PRIMARY KEY(hotelID, roomNo, repairYear));
+
+-- The below statements create the archive tables.  The java program's
+-- archive job (menu option 24) moves Booking, Repair and Request rows older
+-- than a cutoff into them; the menu queries read them only when history is
+-- included (menu option 25).  They have no keys or foreign keys.
+CREATE TABLE BookingArchive (LIKE Booking);
+CREATE TABLE RepairArchive (LIKE Repair);
+CREATE TABLE RequestArchive (LIKE Request);
+
 -- The below sql statments creates necessary Foreign Key Constraints on the above created tables
 ALTER TABLE Hotel
 ADD CONSTRAINT managerConstraint
@@ -113,6 +153,11 @@ FOREIGN KEY(hotelID, roomNo)
 REFERENCES Room(hotelID, roomNo)
 ON DELETE SET DEFAULT;	
 
+-- a room is booked at most once per day
+ALTER TABLE Booking
+ADD CONSTRAINT bookingSlotConstraint
+UNIQUE(hotelID, roomNo, bookingDate);
+
 ALTER TABLE Repair
 ADD CONSTRAINT repairMcmpConstraint
 FOREIGN KEY(mCompany)
@@ -241,6 +286,35 @@ SELECT setval(pg_get_serial_sequence('assigned', 'asgid'), (SELECT MAX(asgID) FR
 
 SELECT setval(pg_get_serial_sequence('request', 'reqid'), (SELECT MAX(reqID) FROM Request));
 
+-- Recomputes the rollup tables from Booking and Repair; archived rows are
+-- not counted.
+CREATE OR REPLACE FUNCTION rebuild_rollups() RETURNS VOID AS $$
+BEGIN
+   DELETE FROM RoomBookings;
+   INSERT INTO RoomBookings
+   SELECT hotelID, roomNo, COUNT(*)
+   FROM Booking
+   GROUP BY hotelID, roomNo;
+
+   DELETE FROM HotelBookedRooms;
+   INSERT INTO HotelBookedRooms
+   SELECT hotelID, COUNT(*) FROM RoomBookings GROUP BY hotelID;
+
+   DELETE FROM CompanyRepairs;
+   INSERT INTO CompanyRepairs
+   SELECT MC.name, COUNT(*) FROM MaintenanceCompany MC, Repair R
+   WHERE MC.cmpID = R.mCompany GROUP BY MC.name;
+
+   DELETE FROM RoomRepairsPerYear;
+   INSERT INTO RoomRepairsPerYear
+   SELECT hotelID, roomNo, EXTRACT(YEAR FROM repairDate), COUNT(*)
+   FROM Repair
+   GROUP BY hotelID, roomNo, EXTRACT(YEAR FROM repairDate);
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT rebuild_rollups();
+
 DROP INDEX IF EXISTS hotel_room_idx;
 DROP INDEX IF EXISTS customer_name_idx;
 DROP INDEX IF EXISTS booking_idx;
@@ -248,6 +322,15 @@ DROP INDEX IF EXISTS booking_price_date_idx;
 DROP INDEX IF EXISTS booking__price_customer_idx;
 DROP INDEX IF EXISTS repair_idx;
 DROP INDEX IF EXISTS maintenance_company_idx;
+DROP INDEX IF EXISTS company_repairs_idx;
+DROP INDEX IF EXISTS request_repair_idx;
+DROP INDEX IF EXISTS booking_archive_idx;
+DROP INDEX IF EXISTS booking_archive_customer_idx;
+DROP INDEX IF EXISTS repair_archive_idx;
+DROP INDEX IF EXISTS repair_description_idx;
+DROP INDEX IF EXISTS request_description_idx;
+DROP INDEX IF EXISTS repair_archive_description_idx;
+DROP INDEX IF EXISTS request_archive_description_idx;
 
 CREATE INDEX hotel_room_idx
 ON Room
@@ -262,7 +345,7 @@ USING BTREE
 CREATE INDEX booking_idx
 ON Booking
 USING BTREE
-(hotelID, bookingDate);
+(hotelID, bookingDate, roomNo, bID);
 
 CREATE INDEX booking_price_date_idx
 ON Booking
@@ -282,4 +365,64 @@ USING BTREE
 CREATE INDEX maintenance_company_idx
 ON Repair
 USING BTREE
-(mCompany);
+(mCompany, hotelID, roomNo, repairDate, rID);
+
+-- the searches with history included match the archived descriptions too
+CREATE INDEX repair_archive_description_idx
+ON RepairArchive
+USING GIN
+(to_tsvector('english', COALESCE(description, '')));
+
+CREATE INDEX request_archive_description_idx
+ON RequestArchive
+USING GIN
+(to_tsvector('english', COALESCE(description, '')));
+
+-- full-text search of the descriptions; searchDescriptions matches the
+-- same to_tsvector expression, so the planner can use these
+CREATE INDEX repair_description_idx
+ON Repair
+USING GIN
+(to_tsvector('english', COALESCE(description, '')));
+
+CREATE INDEX request_description_idx
+ON Request
+USING GIN
+(to_tsvector('english', COALESCE(description, '')));
+
+CREATE INDEX company_repairs_idx
+ON CompanyRepairs
+USING BTREE
+(repairs);
+
+-- finds the requests of a repair when it is deleted or archived
+CREATE INDEX request_repair_idx
+ON Request
+USING BTREE
+(repairID);
+
+CREATE INDEX booking_archive_idx
+ON BookingArchive
+USING BTREE
+(hotelID, bookingDate, roomNo, bID);
+
+CREATE INDEX booking_archive_customer_idx
+ON BookingArchive
+USING BTREE
+(customer, price);
+
+CREATE INDEX repair_archive_idx
+ON RepairArchive
+USING BTREE
+(mCompany, hotelID, roomNo, repairDate, rID);
+
+-- the searches with history included match the archived descriptions too
+CREATE INDEX repair_archive_description_idx
+ON RepairArchive
+USING GIN
+(to_tsvector('english', COALESCE(description, '')));
+
+CREATE INDEX request_archive_description_idx
+ON RequestArchive
+USING GIN
+(to_tsvector('english', COALESCE(description, '')));
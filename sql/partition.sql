@@ -0,0 +1,210 @@
+-- Converts Booking and Repair into tables range partitioned by date.
+-- Run it after create.sql:  cs166_psql $USER'_DB' < partition.sql
+--
+-- Each table gets one partition per year (or per month, see PartitionConfig
+-- below) plus a default partition for dates no partition covers yet.  Indexes
+-- are created on the parent table, which creates the matching index on every
+-- partition.  Queries comparing bookingDate / repairDate to a date range only
+-- scan the partitions overlapping that range.
+--
+-- A partitioned table's primary key has to include the partition column, so
+-- Repair(rID) can no longer be the target of a foreign key; a trigger on
+-- Request checks that the referenced repair exists instead.
+
+BEGIN;
+
+-- granularity of the partitions of each partitioned table ('year' or 'month')
+DROP TABLE IF EXISTS PartitionConfig;
+CREATE TABLE PartitionConfig( parentTable TEXT NOT NULL,
+                              keyColumn TEXT NOT NULL,
+                              granularity TEXT NOT NULL CHECK (granularity IN ('year', 'month')),
+                              PRIMARY KEY(parentTable));
+
+INSERT INTO PartitionConfig VALUES ('booking', 'bookingdate', 'year');
+INSERT INTO PartitionConfig VALUES ('repair', 'repairdate', 'year');
+
+-- Creates the missing partitions of a table covering from_date to to_date.
+-- Rows of the default partition that fall into a new partition are moved
+-- into it.  Returns the number of partitions created.
+CREATE OR REPLACE FUNCTION create_partitions(parent TEXT, from_date DATE, to_date DATE) RETURNS INTEGER AS $$
+DECLARE
+   cfg PartitionConfig%ROWTYPE;
+   lower_bound DATE;
+   upper_bound DATE;
+   part TEXT;
+   created INTEGER := 0;
+BEGIN
+   SELECT * INTO cfg FROM PartitionConfig WHERE parentTable = lower(parent);
+   IF NOT FOUND THEN
+      RAISE EXCEPTION 'table % is not partitioned', parent;
+   END IF;
+   lower_bound := date_trunc(cfg.granularity, from_date)::date;
+   WHILE lower_bound <= to_date LOOP
+      upper_bound := (lower_bound + ('1 ' || cfg.granularity)::interval)::date;
+      part := cfg.parentTable || '_p' || to_char(lower_bound, CASE cfg.granularity WHEN 'year' THEN 'YYYY' ELSE 'YYYY_MM' END);
+      IF to_regclass(part) IS NULL THEN
+         EXECUTE format('CREATE TEMP TABLE partition_move AS SELECT * FROM %I WHERE %I >= %L AND %I < %L',
+                        cfg.parentTable || '_default', cfg.keyColumn, lower_bound, cfg.keyColumn, upper_bound);
+         EXECUTE format('DELETE FROM %I WHERE %I >= %L AND %I < %L',
+                        cfg.parentTable || '_default', cfg.keyColumn, lower_bound, cfg.keyColumn, upper_bound);
+         EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                        part, cfg.parentTable, lower_bound, upper_bound);
+         EXECUTE format('INSERT INTO %I OVERRIDING SYSTEM VALUE SELECT * FROM partition_move', cfg.parentTable);
+         DROP TABLE partition_move;
+         created := created + 1;
+      END IF;
+      lower_bound := upper_bound;
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the partitions of every partitioned table from today up to the
+-- given number of months ahead.  DBProject calls this on startup when run
+-- with -Ddbproject.partitioned=true.
+CREATE OR REPLACE FUNCTION create_future_partitions(months_ahead INTEGER) RETURNS INTEGER AS $$
+DECLARE
+   cfg PartitionConfig%ROWTYPE;
+   created INTEGER := 0;
+BEGIN
+   FOR cfg IN SELECT * FROM PartitionConfig LOOP
+      created := created + create_partitions(cfg.parentTable, current_date,
+                                             (current_date + make_interval(months => months_ahead))::date);
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Booking
+ALTER TABLE Booking RENAME TO Booking_unpartitioned;
+
+CREATE TABLE Booking( bID INT GENERATED ALWAYS AS IDENTITY NOT NULL,
+					  customer INT NOT NULL DEFAULT 0,
+					  hotelID Numeric NOT NULL DEFAULT 0,
+					  roomNo Numeric NOT NULL DEFAULT 0,
+					  bookingDate Date NOT NULL,
+					  noOfPeople Numeric,
+					  price Numeric(6,2) NOT NULL,
+					  PRIMARY KEY(bID, bookingDate))
+PARTITION BY RANGE (bookingDate);
+
+CREATE TABLE booking_default PARTITION OF Booking DEFAULT;
+
+SELECT create_partitions('booking', MIN(bookingDate), MAX(bookingDate)) FROM Booking_unpartitioned;
+
+INSERT INTO Booking (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price)
+OVERRIDING SYSTEM VALUE
+SELECT bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price FROM Booking_unpartitioned;
+
+DROP TABLE Booking_unpartitioned CASCADE;
+
+-- Repair
+ALTER TABLE Request DROP CONSTRAINT IF EXISTS requestRepairConstraint;
+
+ALTER TABLE Repair RENAME TO Repair_unpartitioned;
+
+CREATE TABLE Repair( rID INT GENERATED ALWAYS AS IDENTITY NOT NULL,
+					 hotelID Numeric NOT NULL DEFAULT 0,
+					 roomNo Numeric NOT NULL DEFAULT 0,
+					 mCompany INT NOT NULL DEFAULT 0,
+					 repairDate Date NOT NULL,
+					 description TEXT,
+					 repairType CHAR(10),
+					 PRIMARY KEY(rID, repairDate))
+PARTITION BY RANGE (repairDate);
+
+CREATE TABLE repair_default PARTITION OF Repair DEFAULT;
+
+SELECT create_partitions('repair', MIN(repairDate), MAX(repairDate)) FROM Repair_unpartitioned;
+
+INSERT INTO Repair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType)
+OVERRIDING SYSTEM VALUE
+SELECT rID, hotelID, roomNo, mCompany, repairDate, description, repairType FROM Repair_unpartitioned;
+
+DROP TABLE Repair_unpartitioned CASCADE;
+
+SELECT create_future_partitions(12);
+
+-- foreign keys of the new tables
+ALTER TABLE Booking
+ADD CONSTRAINT bookingCustomerConstraint
+FOREIGN KEY(customer)
+REFERENCES Customer(customerID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;
+
+-- a room is booked at most once per day
+ALTER TABLE Booking
+ADD CONSTRAINT bookingSlotConstraint
+UNIQUE(hotelID, roomNo, bookingDate);
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairMcmpConstraint
+FOREIGN KEY(mCompany)
+REFERENCES MaintenanceCompany(cmpID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;
+
+-- stands in for the foreign key Request(repairID) -> Repair(rID)
+CREATE OR REPLACE FUNCTION check_request_repair() RETURNS TRIGGER AS $$
+BEGIN
+   IF NOT EXISTS (SELECT 1 FROM Repair WHERE rID = NEW.repairID) THEN
+      RAISE foreign_key_violation USING MESSAGE = 'repair ' || NEW.repairID || ' does not exist';
+   END IF;
+   RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS requestRepairCheck ON Request;
+CREATE TRIGGER requestRepairCheck
+BEFORE INSERT OR UPDATE OF repairID ON Request
+FOR EACH ROW EXECUTE PROCEDURE check_request_repair();
+
+-- identity sequences continue after the copied rows
+SELECT setval(pg_get_serial_sequence('booking', 'bid'), (SELECT MAX(bID) FROM Booking));
+
+SELECT setval(pg_get_serial_sequence('repair', 'rid'), (SELECT MAX(rID) FROM Repair));
+
+-- indexes, created on every partition through the parent
+CREATE INDEX booking_idx
+ON Booking
+USING BTREE
+(hotelID, bookingDate, roomNo, bID);
+
+CREATE INDEX booking_price_date_idx
+ON Booking
+USING BTREE
+(bookingDate, price);
+
+CREATE INDEX booking_price_customer_idx
+ON Booking
+USING BTREE
+(customer, price);
+
+CREATE INDEX repair_idx
+ON Repair
+USING BTREE
+(hotelID, roomNo, repairDate);
+
+CREATE INDEX maintenance_company_idx
+ON Repair
+USING BTREE
+(mCompany, hotelID, roomNo, repairDate, rID);
+
+-- full-text search of the descriptions (see create.sql)
+CREATE INDEX repair_description_idx
+ON Repair
+USING GIN
+(to_tsvector('english', COALESCE(description, '')));
+
+COMMIT;